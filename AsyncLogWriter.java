@@ -0,0 +1,264 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Moves log output off the request threads. A request thread claims a slot in a bounded ring with
+// one CAS, stores references to the message parts and the clock reading, and publishes the slot;
+// formatting, encoding and I/O all happen on a single writer thread, which drains the ring in
+// batches into one buffer and writes it through a FileChannel. The ring follows Vyukov's bounded
+// queue: each slot carries a sequence number, so producers never take a lock and the writer never
+// sees a half-written entry.
+//
+// When the ring is full a message is dropped (counted and reported by the writer) or, with
+// OverflowPolicy.BLOCK, the producer spins and parks until the writer frees a slot. A file sink
+// rotates once it passes maxFileBytes: name.log -> name.log.1 -> ... -> name.log.<maxFiles>.
+final class AsyncLogWriter {
+    enum OverflowPolicy { DROP, BLOCK }
+
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Only the writer thread touches head.
+    private long head;
+    private final OverflowPolicy overflow;
+    private final LongAdder dropped = new LongAdder();
+    private long droppedReported;
+    // Null for the console.
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private FileChannel channel;
+    private long fileBytes;
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+    private final StringBuilder line = new StringBuilder(256);
+    private long stampSecond = Long.MIN_VALUE;
+    private String stamp;
+
+    private static final class Entry {
+        // pos when free for the producer claiming pos, pos + 1 once published for the writer.
+        private volatile long sequence;
+        private long millis;
+        private String message;
+        private String detail;
+        private InetAddress address;
+        private int port;
+    }
+
+    // file null writes to stdout; capacity is rounded up to a power of two.
+    AsyncLogWriter(Path file, int capacity, OverflowPolicy overflow, long maxFileBytes, int maxFiles) throws IOException {
+        if (capacity < 2 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("log buffer must be between 2 and 2^30 entries: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        ring = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Entry();
+            ring[i].sequence = i;
+        }
+        mask = size - 1;
+        this.overflow = overflow;
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        if (file == null) {
+            channel = new FileOutputStream(FileDescriptor.out).getChannel();
+        } else {
+            openFile();
+        }
+        Thread writer = new Thread(this::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drainOnExit, "log-writer-shutdown"));
+    }
+
+    // Renders as: [time] message detail from address:port, leaving out the parts that are null.
+    // Returns false if the message was dropped.
+    boolean append(String message, String detail, InetAddress address, int port) {
+        long millis = System.currentTimeMillis();
+        long position = tail.get();
+        Entry entry;
+        while (true) {
+            entry = ring[(int) position & mask];
+            long difference = entry.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // Full: the slot still holds an entry from one lap ago.
+                if (overflow == OverflowPolicy.DROP) {
+                    dropped.increment();
+                    return false;
+                }
+                Thread.onSpinWait();
+                LockSupport.parkNanos(1000);
+                position = tail.get();
+            } else {
+                position = tail.get();
+            }
+        }
+        entry.millis = millis;
+        entry.message = message;
+        entry.detail = detail;
+        entry.address = address;
+        entry.port = port;
+        entry.sequence = position + 1;
+        return true;
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            } catch (IOException | RuntimeException e) {
+                // This is the only writer thread: it must outlive a failed write or rotation, or
+                // producers with OverflowPolicy.BLOCK would wait for a free slot forever.
+                e.printStackTrace();
+                LockSupport.parkNanos(IDLE_PARK_NANOS * 1000);
+            }
+        }
+    }
+
+    // Writes everything published so far; returns the number of entries written.
+    private synchronized int drain() throws IOException {
+        int count = 0;
+        while (true) {
+            Entry entry = ring[(int) head & mask];
+            if (entry.sequence != head + 1) {
+                break;
+            }
+            // The slot is freed even if rendering throws, so one bad entry cannot wedge the ring.
+            try {
+                render(entry);
+            } finally {
+                entry.message = null;
+                entry.detail = null;
+                entry.address = null;
+                entry.sequence = head + ring.length;
+                head++;
+                count++;
+            }
+        }
+        long droppedNow = dropped.sum();
+        if (droppedNow != droppedReported) {
+            line.setLength(0);
+            line.append(stamp(System.currentTimeMillis())).append(droppedNow - droppedReported)
+                    .append(" log messages dropped, the log buffer was full\n");
+            put(line);
+            droppedReported = droppedNow;
+        }
+        flush();
+        return count;
+    }
+
+    private void render(Entry entry) throws IOException {
+        line.setLength(0);
+        line.append(stamp(entry.millis)).append(entry.message);
+        if (entry.detail != null) {
+            line.append(entry.detail);
+        }
+        if (entry.address != null) {
+            line.append(" from ").append(entry.address.getHostAddress()).append(':').append(entry.port);
+        }
+        put(line.append('\n'));
+    }
+
+    private String stamp(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != stampSecond) {
+            stampSecond = second;
+            stamp = "[" + FORMAT.format(Instant.ofEpochSecond(second)) + "] ";
+        }
+        return stamp;
+    }
+
+    private void put(CharSequence text) throws IOException {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        if (batch.remaining() < bytes.length) {
+            flush();
+        }
+        if (bytes.length > batch.capacity()) {
+            write(ByteBuffer.wrap(bytes));
+            return;
+        }
+        batch.put(bytes);
+    }
+
+    private void flush() throws IOException {
+        batch.flip();
+        try {
+            if (batch.hasRemaining()) {
+                write(batch);
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        // A rotation that failed half-way leaves the channel closed; start a fresh file.
+        if (file != null && !channel.isOpen()) {
+            openFile();
+        }
+        if (file != null && fileBytes > 0 && fileBytes + bytes.remaining() > maxFileBytes) {
+            rotate();
+        }
+        while (bytes.hasRemaining()) {
+            fileBytes += channel.write(bytes);
+        }
+    }
+
+    private void openFile() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+    }
+
+    private void rotate() throws IOException {
+        channel.close();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path older = rotated(i);
+            if (Files.exists(older)) {
+                Files.move(older, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles >= 1) {
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        openFile();
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    // Messages published before exit still reach the log.
+    private void drainOnExit() {
+        try {
+            drain();
+            if (file != null) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
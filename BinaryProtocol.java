@@ -0,0 +1,704 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Compact request/response encoding offered next to the text commands.
+//
+// Request body:  opcode (u8), then the opcode's string arguments.
+// Response body: status (u8), then GET -> value, KEYS -> count (u32), keys and a u8 flag set when
+// the keys stopped at the reply size limit (SCAN pages through the rest).
+// SCAN takes cursor, prefix and count as decimal/UTF-8 strings and answers with the next cursor
+// (u64, 0 when done), a u16 key count and the keys; an unknown cursor gets NOT_FOUND.
+// RANGE (from, to, limit) and PREFIX (prefix, from, limit) answer with a u16 key count, the keys,
+// then a u8 flag and, if it is set, the key the next page starts at. STATS answers with one string.
+// Batch requests (MGET/MPUT/MDELETE) carry a u16 entry count before their keys or key/value pairs;
+// their response is a u16 count followed by one status (plus the value for MGET hits) per entry.
+// PUT and EDIT_VALUE take an optional third argument, a TTL in whole seconds; EXPIRE takes a key
+// and a TTL. An invalid TTL gets INVALID. TTL takes a key and answers with the milliseconds it has
+// left as an i64, -1 when it has none; a missing key gets NOT_FOUND.
+// Strings are a u16 byte length followed by UTF-8 bytes.
+// A read-only replica answers every write (PUT, DELETE, EDIT_*, MPUT, MDELETE, EXPIRE) with READ_ONLY.
+// A bounded store with --eviction=reject answers a PUT of a new key with STORE_FULL when it is full.
+// A request may start with TAGGED and a u32 request ID; the response then starts with the same tag.
+// TRACK (TCP only) turns on invalidations for the connection: after a GET or MGET of a key, the
+// next change to it sends an unsolicited frame of INVALIDATE, a u16 count and the keys, which a
+// client with a near cache uses to drop its copies. Anywhere else TRACK gets INVALID.
+//
+// TCP connections switch to it with the text command "BINARY <version>"; after the
+// "OK BINARY <version>" reply every frame is a u32 length followed by a body.
+// UDP datagrams opt in per packet by starting with MAGIC and VERSION.
+public class BinaryProtocol {
+    static final byte VERSION = 1;
+    static final byte MAGIC = (byte) 0xB1;
+    static final String NEGOTIATE = "BINARY";
+    static final int MAX_REQUEST_FRAME = 65536;
+    static final byte TAGGED = (byte) 0x80;
+    static final byte INVALIDATE = (byte) 0x81;
+    // Keys per INVALIDATE frame; at 10 characters each this stays far below MAX_REQUEST_FRAME.
+    static final int MAX_INVALIDATE_KEYS = 1024;
+
+    static final byte OP_GET = 1;
+    static final byte OP_PUT = 2;
+    static final byte OP_DELETE = 3;
+    static final byte OP_KEYS = 4;
+    static final byte OP_EDIT_KEY = 5;
+    static final byte OP_EDIT_VALUE = 6;
+    static final byte OP_QUIT = 7;
+    static final byte OP_MGET = 8;
+    static final byte OP_MPUT = 9;
+    static final byte OP_MDELETE = 10;
+    static final byte OP_SCAN = 11;
+    static final byte OP_RANGE = 12;
+    static final byte OP_PREFIX = 13;
+    static final byte OP_STATS = 14;
+    static final byte OP_EXPIRE = 15;
+    static final byte OP_TTL = 16;
+    static final byte OP_TRACK = 17;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_NOT_FOUND = 1;
+    static final byte STATUS_KEY_EXISTS = 2;
+    static final byte STATUS_TOO_LONG = 3;
+    static final byte STATUS_INVALID = 4;
+    static final byte STATUS_READ_ONLY = 5;
+    static final byte STATUS_STORE_FULL = 6;
+
+    static final int MAX_KEY_LENGTH = 10;
+
+    private final KeyValueStore store;
+    private final KeyScanner scanner;
+    // Key bytes allowed in one SCAN page, so the reply fits the transport's frame or datagram.
+    private final int maxScanBytes;
+    private final ServerMetrics metrics;
+    // Set on a replica: every write gets READ_ONLY.
+    private final boolean readOnly;
+    // Reused across requests; one instance per connection or worker thread.
+    private ByteBuffer response = ByteBuffer.allocate(256);
+
+    public BinaryProtocol(KeyValueStore store, KeyScanner scanner, int maxScanBytes, ServerMetrics metrics,
+                          boolean readOnly) {
+        this.store = store;
+        this.scanner = scanner;
+        this.maxScanBytes = maxScanBytes;
+        this.metrics = metrics;
+        this.readOnly = readOnly;
+    }
+
+    // Returns the reply to a "BINARY <version>" text command, or null if the command is something else.
+    static String negotiate(String command) {
+        if (!command.startsWith(NEGOTIATE + " ")) {
+            return null;
+        }
+        try {
+            int requested = Integer.parseInt(command.substring(NEGOTIATE.length() + 1).trim());
+            if (requested >= VERSION) {
+                return "OK " + NEGOTIATE + " " + VERSION;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the rejection below
+        }
+        return "ERROR Unsupported protocol version";
+    }
+
+    static boolean isAccepted(String negotiationReply) {
+        return negotiationReply.startsWith("OK " + NEGOTIATE);
+    }
+
+    boolean execute(ByteBuffer request) {
+        return execute(request, null);
+    }
+
+    // Executes one request body. The response body is then available from response(), flipped
+    // and ready to write. Returns false when the client sent QUIT. subscriber stands for the
+    // connection in the server's InvalidationTracker, or is null where TRACK is not offered.
+    boolean execute(ByteBuffer request, InvalidationTracker.Subscriber subscriber) {
+        long start = System.nanoTime();
+        response.clear();
+        int bodyStart = 0;
+        byte opcode = 0;
+        try {
+            opcode = request.get();
+            if (opcode == TAGGED) {
+                response.put(TAGGED);
+                response.putInt(request.getInt());
+                bodyStart = response.position();
+                opcode = request.get();
+            }
+            if (readOnly && isWrite(opcode)) {
+                response.put(STATUS_READ_ONLY);
+            } else {
+                switch (opcode) {
+                    case OP_GET:
+                        get(readString(request), subscriber);
+                        break;
+                    case OP_PUT:
+                        put(readString(request), readString(request), optionalString(request));
+                        break;
+                    case OP_DELETE:
+                        delete(readString(request));
+                        break;
+                    case OP_KEYS:
+                        keys();
+                        break;
+                    case OP_EDIT_KEY:
+                        editKey(readString(request), readString(request));
+                        break;
+                    case OP_EDIT_VALUE:
+                        editValue(readString(request), readString(request), optionalString(request));
+                        break;
+                    case OP_EXPIRE:
+                        expire(readString(request), readString(request));
+                        break;
+                    case OP_TTL:
+                        ttl(readString(request));
+                        break;
+                    case OP_MGET:
+                        multiGet(request, subscriber);
+                        break;
+                    case OP_MPUT:
+                        multiPut(request);
+                        break;
+                    case OP_MDELETE:
+                        multiDelete(request);
+                        break;
+                    case OP_SCAN:
+                        scan(readString(request), readString(request), readString(request));
+                        break;
+                    case OP_RANGE:
+                    case OP_PREFIX:
+                        slice(opcode, readString(request), readString(request), readString(request));
+                        break;
+                    case OP_STATS:
+                        response.put(STATUS_OK);
+                        writeResponseString(metrics.describe());
+                        break;
+                    case OP_TRACK:
+                        if (subscriber == null) {
+                            response.put(STATUS_INVALID);
+                        } else {
+                            subscriber.startTracking();
+                            response.put(STATUS_OK);
+                        }
+                        break;
+                    case OP_QUIT:
+                        return false;
+                    default:
+                        response.put(STATUS_INVALID);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            response.position(bodyStart);
+            response.put(STATUS_INVALID);
+            opcode = 0;
+        }
+        response.flip();
+        metrics.recordCommand(ServerMetrics.Command.ofOpcode(opcode), System.nanoTime() - start);
+        return true;
+    }
+
+    ByteBuffer response() {
+        return response;
+    }
+
+    private void get(String key, InvalidationTracker.Subscriber subscriber) {
+        if (key.length() > MAX_KEY_LENGTH) {
+            response.put(STATUS_TOO_LONG);
+            return;
+        }
+        if (subscriber != null) {
+            subscriber.reading(key);
+        }
+        String value = store.get(key);
+        if (value == null) {
+            response.put(STATUS_NOT_FOUND);
+        } else {
+            response.put(STATUS_OK);
+            writeResponseString(value);
+        }
+    }
+
+    private void put(String key, String value, String ttl) {
+        long expiresAt = ttl == null ? KeyValueStore.NO_EXPIRY : expiresAt(ttl);
+        response.put(expiresAt < 0 ? STATUS_INVALID : putStatus(store, key, value, expiresAt));
+    }
+
+    private void delete(String key) {
+        response.put(deleteStatus(store, key));
+    }
+
+    private void multiGet(ByteBuffer request, InvalidationTracker.Subscriber subscriber) {
+        String[] keys = readStrings(request, request.getShort() & 0xFFFF);
+        response.put(STATUS_OK);
+        response.putShort((short) keys.length);
+        for (String key : keys) {
+            if (subscriber != null && key.length() <= MAX_KEY_LENGTH) {
+                subscriber.reading(key);
+            }
+            String value = key.length() > MAX_KEY_LENGTH ? null : store.get(key);
+            ensureResponseCapacity(1);
+            if (key.length() > MAX_KEY_LENGTH) {
+                response.put(STATUS_TOO_LONG);
+            } else if (value == null) {
+                response.put(STATUS_NOT_FOUND);
+            } else {
+                response.put(STATUS_OK);
+                writeResponseString(value);
+            }
+        }
+    }
+
+    private void multiPut(ByteBuffer request) {
+        String[] pairs = readStrings(request, 2 * (request.getShort() & 0xFFFF));
+        response.put(STATUS_OK);
+        response.putShort((short) (pairs.length / 2));
+        for (int i = 0; i < pairs.length; i += 2) {
+            ensureResponseCapacity(1);
+            response.put(putStatus(store, pairs[i], pairs[i + 1]));
+        }
+    }
+
+    private void multiDelete(ByteBuffer request) {
+        String[] keys = readStrings(request, request.getShort() & 0xFFFF);
+        response.put(STATUS_OK);
+        response.putShort((short) keys.length);
+        for (String key : keys) {
+            ensureResponseCapacity(1);
+            response.put(deleteStatus(store, key));
+        }
+    }
+
+    // Per-key semantics shared by single and batch commands in both encodings.
+    static byte putStatus(KeyValueStore store, String key, String value) {
+        return putStatus(store, key, value, KeyValueStore.NO_EXPIRY);
+    }
+
+    static byte putStatus(KeyValueStore store, String key, String value, long expiresAt) {
+        if (key.length() > MAX_KEY_LENGTH || value.length() > MAX_KEY_LENGTH) {
+            return STATUS_TOO_LONG;
+        }
+        return toStatus(store.putIfAbsent(key.toLowerCase(), value, expiresAt));
+    }
+
+    // Parses a TTL of whole seconds, at least 1. Returns the deadline it sets, or -1 if invalid.
+    static long expiresAt(String ttlSeconds) {
+        try {
+            int seconds = Integer.parseInt(ttlSeconds);
+            return seconds > 0 ? System.currentTimeMillis() + seconds * 1000L : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static byte deleteStatus(KeyValueStore store, String key) {
+        if (key.length() > MAX_KEY_LENGTH) {
+            return STATUS_TOO_LONG;
+        }
+        return toStatus(store.remove(key));
+    }
+
+    private void keys() {
+        response.put(STATUS_OK);
+        int countPosition = response.position();
+        response.putInt(0);
+        int count = 0;
+        int bytes = 0;
+        boolean truncated = false;
+        for (String key : store.keys()) {
+            bytes += KeyScanner.encodedSize(key);
+            if (bytes > maxScanBytes) {
+                // One reply cannot carry more, and over UDP it would not fit a datagram.
+                truncated = true;
+                break;
+            }
+            writeResponseString(key);
+            count++;
+        }
+        response.putInt(countPosition, count);
+        ensureResponseCapacity(1);
+        response.put((byte) (truncated ? 1 : 0));
+    }
+
+    private void scan(String cursor, String prefix, String count) {
+        KeyScanner.Page page;
+        try {
+            int pageCount = Integer.parseInt(count);
+            long cursorId = Long.parseLong(cursor);
+            if (pageCount < 1 || cursorId < 0) {
+                response.put(STATUS_INVALID);
+                return;
+            }
+            page = scanner.scan(cursorId, prefix, Math.min(pageCount, KeyScanner.MAX_COUNT), maxScanBytes);
+        } catch (NumberFormatException e) {
+            response.put(STATUS_INVALID);
+            return;
+        }
+        if (page == null) {
+            response.put(STATUS_NOT_FOUND);
+            return;
+        }
+        ensureResponseCapacity(11);
+        response.put(STATUS_OK);
+        response.putLong(page.cursor);
+        response.putShort((short) page.keys.size());
+        for (String key : page.keys) {
+            writeResponseString(key);
+        }
+    }
+
+    private void slice(byte opcode, String first, String second, String limit) {
+        int pageLimit;
+        try {
+            pageLimit = Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            pageLimit = 0;
+        }
+        if (pageLimit < 1) {
+            response.put(STATUS_INVALID);
+            return;
+        }
+        pageLimit = Math.min(pageLimit, KeyScanner.MAX_COUNT);
+        KeyScanner.Slice slice = opcode == OP_RANGE
+                ? scanner.range(first, second, pageLimit, maxScanBytes)
+                : scanner.prefix(first, second, pageLimit, maxScanBytes);
+        ensureResponseCapacity(4);
+        response.put(STATUS_OK);
+        response.putShort((short) slice.keys.size());
+        for (String key : slice.keys) {
+            writeResponseString(key);
+        }
+        ensureResponseCapacity(1);
+        if (slice.next == null) {
+            response.put((byte) 0);
+        } else {
+            response.put((byte) 1);
+            writeResponseString(slice.next);
+        }
+    }
+
+    private void editKey(String oldKey, String newKey) {
+        if (newKey.length() > MAX_KEY_LENGTH) {
+            response.put(STATUS_TOO_LONG);
+        } else {
+            response.put(toStatus(store.rename(oldKey.toLowerCase(), newKey.toLowerCase())));
+        }
+    }
+
+    private void editValue(String key, String newValue, String ttl) {
+        long expiresAt = ttl == null ? KeyValueStore.NO_EXPIRY : expiresAt(ttl);
+        if (expiresAt < 0) {
+            response.put(STATUS_INVALID);
+        } else if (key.length() > MAX_KEY_LENGTH || newValue.length() > MAX_KEY_LENGTH) {
+            response.put(STATUS_TOO_LONG);
+        } else {
+            response.put(toStatus(store.replace(key.toLowerCase(), newValue, expiresAt)));
+        }
+    }
+
+    private void expire(String key, String ttl) {
+        long expiresAt = expiresAt(ttl);
+        if (expiresAt < 0) {
+            response.put(STATUS_INVALID);
+        } else if (key.length() > MAX_KEY_LENGTH) {
+            response.put(STATUS_TOO_LONG);
+        } else {
+            response.put(toStatus(store.expire(key.toLowerCase(), expiresAt)));
+        }
+    }
+
+    private void ttl(String key) {
+        if (key.length() > MAX_KEY_LENGTH) {
+            response.put(STATUS_TOO_LONG);
+            return;
+        }
+        long ttl = store.ttlMillis(key.toLowerCase());
+        if (ttl == -2) {
+            response.put(STATUS_NOT_FOUND);
+        } else {
+            ensureResponseCapacity(9);
+            response.put(STATUS_OK);
+            response.putLong(ttl);
+        }
+    }
+
+    private void writeResponseString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        ensureResponseCapacity(2 + bytes.length);
+        response.putShort((short) bytes.length);
+        response.put(bytes);
+    }
+
+    private void ensureResponseCapacity(int size) {
+        if (response.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(response.capacity() * 2, response.position() + size));
+            response.flip();
+            grown.put(response);
+            response = grown;
+        }
+    }
+
+    private static boolean isWrite(byte opcode) {
+        switch (opcode) {
+            case OP_PUT:
+            case OP_DELETE:
+            case OP_EDIT_KEY:
+            case OP_EDIT_VALUE:
+            case OP_MPUT:
+            case OP_MDELETE:
+            case OP_EXPIRE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static byte toStatus(KeyValueStore.Status status) {
+        switch (status) {
+            case KEY_EXISTS:
+                return STATUS_KEY_EXISTS;
+            case KEY_NOT_FOUND:
+                return STATUS_NOT_FOUND;
+            case TOO_LARGE:
+                return STATUS_TOO_LONG;
+            case STORE_FULL:
+                return STATUS_STORE_FULL;
+            default:
+                return STATUS_OK;
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (in.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    // A trailing argument the client may leave out.
+    private static String optionalString(ByteBuffer in) {
+        return in.hasRemaining() ? readString(in) : null;
+    }
+
+    // Reads every entry up front so a truncated batch is rejected before any of it is applied.
+    private static String[] readStrings(ByteBuffer in, int count) {
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = readString(in);
+        }
+        return strings;
+    }
+
+    static byte opcodeOf(String command) {
+        switch (command) {
+            case "GET":
+                return OP_GET;
+            case "PUT":
+                return OP_PUT;
+            case "DELETE":
+                return OP_DELETE;
+            case "KEYS":
+                return OP_KEYS;
+            case "EDIT_KEY":
+                return OP_EDIT_KEY;
+            case "EDIT_VALUE":
+                return OP_EDIT_VALUE;
+            case "QUIT":
+                return OP_QUIT;
+            case "MGET":
+                return OP_MGET;
+            case "MPUT":
+                return OP_MPUT;
+            case "MDELETE":
+                return OP_MDELETE;
+            case "SCAN":
+                return OP_SCAN;
+            case "RANGE":
+                return OP_RANGE;
+            case "PREFIX":
+                return OP_PREFIX;
+            case "STATS":
+                return OP_STATS;
+            case "EXPIRE":
+                return OP_EXPIRE;
+            case "TTL":
+                return OP_TTL;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    // Client side: encodes a request body (opcode and arguments).
+    static byte[] encodeRequest(byte opcode, String... args) {
+        return encodeRequest(-1, opcode, args);
+    }
+
+    // Client side: encodes a request body tagged with requestId, or untagged when requestId is negative.
+    static byte[] encodeRequest(int requestId, byte opcode, String... args) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (requestId >= 0) {
+                out.writeByte(TAGGED);
+                out.writeInt(requestId);
+            }
+            out.writeByte(opcode);
+            for (String arg : args) {
+                byte[] encoded = arg.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(encoded.length);
+                out.write(encoded);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Server side: the body of an INVALIDATE push for up to MAX_INVALIDATE_KEYS keys, laid out
+    // like a batch request.
+    static byte[] encodeInvalidation(List<String> keys) {
+        return encodeBatchRequest(INVALIDATE, keys.toArray(new String[0]));
+    }
+
+    // Client side: prefixes an encoded request body with TAGGED and requestId.
+    static byte[] tag(int requestId, byte[] body) {
+        byte[] tagged = new byte[5 + body.length];
+        ByteBuffer.wrap(tagged).put(TAGGED).putInt(requestId).put(body);
+        return tagged;
+    }
+
+    // Client side: encodes a batch request; args are keys, or alternating keys and values for MPUT.
+    static byte[] encodeBatchRequest(byte opcode, String... args) {
+        int count = opcode == OP_MPUT ? args.length / 2 : args.length;
+        byte[] entries = encodeRequest(opcode, args);
+        byte[] body = new byte[entries.length + 2];
+        body[0] = opcode;
+        body[1] = (byte) (count >>> 8);
+        body[2] = (byte) count;
+        System.arraycopy(entries, 1, body, 3, entries.length - 1);
+        return body;
+    }
+
+    // Client side: renders a batch response, labelling each per-entry status with its key.
+    static String describeBatchResponse(byte opcode, List<String> keys, ByteBuffer body) {
+        byte status = body.get();
+        if (status != STATUS_OK) {
+            return statusName(status);
+        }
+        int count = body.getShort() & 0xFFFF;
+        StringBuilder results = new StringBuilder("Batch results: ");
+        for (int i = 0; i < count; i++) {
+            byte entryStatus = body.get();
+            if (i > 0) {
+                results.append(", ");
+            }
+            results.append("[").append(keys.get(i)).append("] ");
+            if (opcode == OP_MGET && entryStatus == STATUS_OK) {
+                results.append("= [").append(readString(body)).append("]");
+            } else {
+                results.append(statusCode(entryStatus));
+            }
+        }
+        return results.toString();
+    }
+
+    // Client side: renders a response body for display, prefixed with "#<id> " when tagged.
+    static String describeResponse(byte opcode, ByteBuffer body) {
+        if (body.get(body.position()) == TAGGED) {
+            body.get();
+            return "#" + body.getInt() + " " + describeResponse(opcode, body);
+        }
+        byte status = body.get();
+        if (status != STATUS_OK) {
+            return statusName(status);
+        }
+        switch (opcode) {
+            case OP_GET:
+                return "OK value [" + readString(body) + "]";
+            case OP_KEYS:
+                int count = body.getInt();
+                if (count == 0) {
+                    return "Key Store: Empty";
+                }
+                StringBuilder keys = new StringBuilder("Key Store: ");
+                for (int i = 0; i < count; i++) {
+                    keys.append("[").append(readString(body)).append("]");
+                }
+                if (body.hasRemaining() && body.get() != 0) {
+                    keys.append(" ... (truncated, use SCAN to list every key)");
+                }
+                return keys.toString();
+            case OP_SCAN:
+                StringBuilder page = new StringBuilder("Cursor [").append(body.getLong()).append("] Keys: ");
+                int pageCount = body.getShort() & 0xFFFF;
+                for (int i = 0; i < pageCount; i++) {
+                    page.append("[").append(readString(body)).append("]");
+                }
+                return page.toString();
+            case OP_RANGE:
+            case OP_PREFIX:
+                StringBuilder slice = new StringBuilder("Keys: ");
+                int sliceCount = body.getShort() & 0xFFFF;
+                for (int i = 0; i < sliceCount; i++) {
+                    slice.append("[").append(readString(body)).append("]");
+                }
+                if (body.get() != 0) {
+                    slice.append(" Next: [").append(readString(body)).append("]");
+                }
+                return slice.toString();
+            case OP_STATS:
+                return readString(body);
+            case OP_TTL:
+                long ttl = body.getLong();
+                return ttl < 0 ? "OK no TTL" : "OK expires in [" + ttl + "] ms";
+            default:
+                return statusName(status);
+        }
+    }
+
+    static String statusCode(byte status) {
+        switch (status) {
+            case STATUS_OK:
+                return "OK";
+            case STATUS_NOT_FOUND:
+                return "NOT_FOUND";
+            case STATUS_KEY_EXISTS:
+                return "KEY_EXISTS";
+            case STATUS_TOO_LONG:
+                return "TOO_LONG";
+            case STATUS_STORE_FULL:
+                return "STORE_FULL";
+            default:
+                return "INVALID";
+        }
+    }
+
+    static String statusName(byte status) {
+        switch (status) {
+            case STATUS_OK:
+                return "OK";
+            case STATUS_NOT_FOUND:
+                return "ERROR Key does not exist or not found";
+            case STATUS_KEY_EXISTS:
+                return "ERROR Key already exists";
+            case STATUS_TOO_LONG:
+                return "ERROR Key or value length exceeds 10 characters";
+            case STATUS_INVALID:
+                return "ERROR Invalid command";
+            case STATUS_READ_ONLY:
+                return "ERROR Read-only replica, send writes to the primary";
+            case STATUS_STORE_FULL:
+                return "ERROR Store is full";
+            default:
+                return "ERROR Unknown status " + status;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+// Second-resolution timestamps shared by every server and client. The formatted text is cached
+// and rebuilt at most once per second, so the per-request cost is a clock read and a field load.
+public final class Clock {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+    private static volatile Stamp current = new Stamp(Long.MIN_VALUE);
+
+    private Clock() {
+    }
+
+    // "yyyy-MM-dd HH:mm:ss" for the current second.
+    public static String timeStamp() {
+        return stamp().text;
+    }
+
+    // "[yyyy-MM-dd HH:mm:ss] ", the prefix used on responses and log lines.
+    public static String prefix() {
+        return stamp().prefix;
+    }
+
+    private static Stamp stamp() {
+        long second = System.currentTimeMillis() / 1000;
+        Stamp stamp = current;
+        if (stamp.second != second) {
+            // Threads racing across a second boundary may each format once; the results are identical.
+            stamp = new Stamp(second);
+            current = stamp;
+        }
+        return stamp;
+    }
+
+    private static final class Stamp {
+        private final long second;
+        private final String text;
+        private final String prefix;
+
+        private Stamp(long second) {
+            this.second = second;
+            this.text = second == Long.MIN_VALUE ? "" : FORMAT.format(Instant.ofEpochSecond(second));
+            this.prefix = "[" + text + "] ";
+        }
+    }
+}
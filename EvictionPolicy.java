@@ -0,0 +1,367 @@
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// What a bounded store (--max-keys and/or --max-memory) gives up when it is full, per --eviction:
+//   lru      drops the least recently read of a few sampled keys, an approximation of LRU that
+//            needs no list of keys in access order
+//   tinylfu  puts new keys in a small admission window first; a key leaving the window stays only
+//            if a count-min sketch says it is read more often than the LRU victim it would replace
+//   reject   drops nothing and refuses new keys with STORE_FULL until some are deleted
+// Reads only update fixed-size arrays indexed by the key's hash. The writes are plain and racy,
+// and skipped when they would not change anything, so readers of a hot key do not keep stealing
+// one cache line from each other; losing an update now and then only blurs the estimate.
+abstract class EvictionPolicy {
+    // Keys looked at to choose one victim.
+    private static final int SAMPLES = 5;
+    // Per-entry estimate for --max-memory: two String objects, a map node and the sorted index.
+    private static final long ENTRY_OVERHEAD = 160;
+    private static final int MIN_TABLE = 1 << 10;
+    private static final int MAX_TABLE = 1 << 24;
+
+    // 0 for no limit.
+    final int maxKeys;
+    final long maxBytes;
+    private final LongAdder evictions = new LongAdder();
+
+    private EvictionPolicy(int maxKeys, long maxBytes) {
+        if (maxKeys < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Store limits must not be negative");
+        }
+        this.maxKeys = maxKeys;
+        this.maxBytes = maxBytes;
+    }
+
+    // Null when neither --max-keys nor --max-memory is set.
+    static EvictionPolicy fromConfig(ServerConfig config) {
+        int maxKeys = config.getInt("max-keys", 0);
+        long maxBytes = parseBytes(config.getString("max-memory", "0"));
+        String type = config.getString("eviction", "lru");
+        if (maxKeys == 0 && maxBytes == 0) {
+            return null;
+        }
+        switch (type) {
+            case "lru":
+                return new SampledLru(maxKeys, maxBytes);
+            case "tinylfu":
+                return new TinyLfu(maxKeys, maxBytes);
+            case "reject":
+                return new Reject(maxKeys, maxBytes);
+            default:
+                throw new IllegalArgumentException("Invalid eviction: " + type + ". Use lru, tinylfu or reject");
+        }
+    }
+
+    // A byte count with an optional k, m or g suffix.
+    static long parseBytes(String value) {
+        String number = value.toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (number.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (number.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (number.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) {
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            return Long.parseLong(number) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --max-memory expects a size like 512m, got: " + value);
+        }
+    }
+
+    static long weigh(String key, String value) {
+        return ENTRY_OVERHEAD + 2L * (key.length() + value.length());
+    }
+
+    // True when one more key would break a limit.
+    final boolean atLimit(int size, long bytes) {
+        return (maxKeys > 0 && size >= maxKeys) || (maxBytes > 0 && bytes >= maxBytes);
+    }
+
+    final boolean overLimit(int size, long bytes) {
+        return (maxKeys > 0 && size > maxKeys) || (maxBytes > 0 && bytes > maxBytes);
+    }
+
+    final void evicted() {
+        evictions.increment();
+    }
+
+    final long evictions() {
+        return evictions.sum();
+    }
+
+    // Whether a full store refuses new keys instead of evicting.
+    boolean rejectsWrites() {
+        return false;
+    }
+
+    // A successful GET. On the hot path: keep it to a few array accesses.
+    abstract void recordRead(String key);
+
+    // A key was added, with its lock held.
+    abstract void recordWrite(String key);
+
+    // The key to evict next, or null if there is nothing to evict. Called by one thread at a time.
+    abstract String victim(KeyValueStore store);
+
+    // The number of keys the limits allow, as far as it is known.
+    final long expectedKeys() {
+        return maxKeys > 0 ? maxKeys : maxBytes / ENTRY_OVERHEAD;
+    }
+
+    // Sizes the per-hash tables to expectedKeys().
+    final int tableSize() {
+        long keys = expectedKeys();
+        long size = MIN_TABLE;
+        while (size < keys && size < MAX_TABLE) {
+            size <<= 1;
+        }
+        return (int) size;
+    }
+
+    static int spread(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Approximate LRU: every key's last read time is kept in a table indexed by its hash (keys
+    // sharing a slot share a time), and the victim is the oldest of SAMPLES keys taken from a cursor
+    // that walks the store, so every key comes up for inspection in turn.
+    static class SampledLru extends EvictionPolicy {
+        private final int[] readTimes;
+        private final int mask;
+        private Iterator<String> cursor;
+
+        SampledLru(int maxKeys, long maxBytes) {
+            super(maxKeys, maxBytes);
+            readTimes = new int[tableSize()];
+            mask = readTimes.length - 1;
+        }
+
+        @Override
+        void recordRead(String key) {
+            touch(spread(key));
+        }
+
+        @Override
+        void recordWrite(String key) {
+            touch(spread(key));
+        }
+
+        final void touch(int hash) {
+            int now = now();
+            int slot = hash & mask;
+            if (readTimes[slot] != now) {
+                readTimes[slot] = now;
+            }
+        }
+
+        @Override
+        String victim(KeyValueStore store) {
+            int now = now();
+            String oldest = null;
+            int oldestAge = Integer.MIN_VALUE;
+            for (int i = 0; i < SAMPLES; i++) {
+                String key = sample(store);
+                if (key == null) {
+                    break;
+                }
+                // Subtracting copes with the clock wrapping around.
+                int age = now - readTimes[spread(key) & mask];
+                if (age > oldestAge) {
+                    oldest = key;
+                    oldestAge = age;
+                }
+            }
+            return oldest;
+        }
+
+        private String sample(KeyValueStore store) {
+            if (cursor == null || !cursor.hasNext()) {
+                cursor = store.keys().iterator();
+                if (!cursor.hasNext()) {
+                    return null;
+                }
+            }
+            return cursor.next();
+        }
+
+        // Roughly milliseconds; only differences matter.
+        private static int now() {
+            return (int) (System.nanoTime() >>> 20);
+        }
+    }
+
+    // W-TinyLFU-style admission on top of the sampled LRU. New keys queue in a window of about 1%
+    // of the store; when the window is over that, its oldest key competes with the LRU victim and
+    // the one the frequency sketch has seen less often is evicted. A burst of keys read once (a
+    // scan) then washes through the window without pushing out keys that are read all the time.
+    // Writes trim the window to 2% of the keys the limits allow, so it stays bounded while the
+    // store is below its limit and nothing calls victim(); at the limit victim() keeps it near 1%,
+    // under the trim. Reads only count; the sketch's periodic halving runs on the write and
+    // eviction paths.
+    static final class TinyLfu extends SampledLru {
+        private static final int WINDOW_PERCENT = 1;
+
+        private final FrequencySketch sketch;
+        private final ConcurrentLinkedQueue<String> window = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger windowSize = new AtomicInteger();
+        private final int maxWindow;
+
+        TinyLfu(int maxKeys, long maxBytes) {
+            super(maxKeys, maxBytes);
+            sketch = new FrequencySketch(tableSize());
+            maxWindow = (int) Math.max(2, Math.min(Integer.MAX_VALUE, expectedKeys() * 2 * WINDOW_PERCENT / 100));
+        }
+
+        @Override
+        void recordRead(String key) {
+            int hash = spread(key);
+            touch(hash);
+            sketch.increment(hash);
+        }
+
+        @Override
+        void recordWrite(String key) {
+            int hash = spread(key);
+            touch(hash);
+            sketch.increment(hash);
+            sketch.halveIfDue();
+            window.add(key);
+            // Keys pushed out here join the main area without a contest, as every key does while
+            // the store is below its limit.
+            if (windowSize.incrementAndGet() > maxWindow && window.poll() != null) {
+                windowSize.decrementAndGet();
+            }
+        }
+
+        @Override
+        String victim(KeyValueStore store) {
+            sketch.halveIfDue();
+            int windowLimit = Math.max(1, store.size() * WINDOW_PERCENT / 100);
+            while (windowSize.get() > windowLimit) {
+                String candidate = window.poll();
+                if (candidate == null) {
+                    break;
+                }
+                windowSize.decrementAndGet();
+                if (!store.contains(candidate)) {
+                    continue;
+                }
+                String lru = super.victim(store);
+                if (lru == null || lru.equals(candidate)) {
+                    return candidate;
+                }
+                // Ties go against the newcomer.
+                return sketch.frequency(spread(candidate)) > sketch.frequency(spread(lru)) ? lru : candidate;
+            }
+            return super.victim(store);
+        }
+    }
+
+    // Count-min sketch of 4-bit counters, sixteen to a long, four counters per key. Counters
+    // saturate at 15, so a hot key stops writing to the table at all, and every counter is halved
+    // after ten increments per table slot so that old popularity fades. increment() only notes
+    // that a halving is due; halveIfDue() does it, from the write and eviction paths, so a GET
+    // never walks the table.
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        // Racy like the table: a lost increment only delays the next halving.
+        private int additions;
+        private final AtomicBoolean halving = new AtomicBoolean();
+
+        private FrequencySketch(int size) {
+            table = new long[size];
+            mask = size - 1;
+            sampleSize = 10 * size;
+        }
+
+        private void increment(int hash) {
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = (start + i) << 2;
+                long word = table[index];
+                if (((word >>> offset) & 0xF) != 0xF) {
+                    table[index] = word + (1L << offset);
+                    added = true;
+                }
+            }
+            if (added) {
+                additions++;
+            }
+        }
+
+        private void halveIfDue() {
+            if (additions >= sampleSize && halving.compareAndSet(false, true)) {
+                try {
+                    halve();
+                } finally {
+                    halving.set(false);
+                }
+            }
+        }
+
+        private int frequency(int hash) {
+            int start = (hash & 3) << 2;
+            int frequency = 0xF;
+            for (int i = 0; i < 4; i++) {
+                int count = (int) ((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xF);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        private void halve() {
+            additions = 0;
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+    }
+
+    private static final class Reject extends EvictionPolicy {
+        private Reject(int maxKeys, long maxBytes) {
+            super(maxKeys, maxBytes);
+        }
+
+        @Override
+        boolean rejectsWrites() {
+            return true;
+        }
+
+        @Override
+        void recordRead(String key) {
+        }
+
+        @Override
+        void recordWrite(String key) {
+        }
+
+        @Override
+        String victim(KeyValueStore store) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Consistent-hash ring over named nodes ("host:port"). Each node sits at virtualNodes points on a
+// 64-bit ring and a key belongs to the first point at or after its hash, wrapping around, so the
+// keyspace splits evenly and adding a node moves only the keys that now land on its points, about
+// 1/N of them. Immutable: with() returns a new ring.
+public final class HashRing {
+    private final List<String> nodes;
+    private final int virtualNodes;
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A hash ring needs at least one node and one virtual node per node");
+        }
+        this.nodes = List.copyOf(new LinkedHashSet<>(nodes));
+        this.virtualNodes = virtualNodes;
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // On the rare collision the earlier node keeps the point.
+                points.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    public HashRing with(String node) {
+        List<String> grown = new ArrayList<>(nodes);
+        grown.add(node);
+        return new HashRing(grown, virtualNodes);
+    }
+
+    public String nodeFor(String key) {
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes, then MurmurHash3's finalizer, since FNV alone leaves
+    // similar short strings ("node#1", "node#2") close together on the ring.
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
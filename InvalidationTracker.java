@@ -0,0 +1,111 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Server side of client near caches. A binary TCP connection that sends TRACK has every key it
+// GETs remembered here; the next change to such a key (PUT, DELETE, EDIT_KEY, EDIT_VALUE, expiry
+// or eviction, from any connection or from replication) pushes an invalidation for it to each
+// connection that read it, and the key is forgotten until it is read again.
+//
+// A key is registered before it is read, so a change that lands between the two still notifies
+// the reader; the client drops a GET reply whose key was invalidated while it was in flight. The
+// table holds at most maxKeys keys: past that other keys are invalidated early, which costs their
+// readers a round trip but never serves them a stale value.
+final class InvalidationTracker {
+    // One per binary TCP connection; the transport decides how pushes reach the socket.
+    abstract static class Subscriber {
+        private final InvalidationTracker tracker;
+        private volatile boolean tracking;
+        volatile boolean closed;
+
+        Subscriber(InvalidationTracker tracker) {
+            this.tracker = tracker;
+        }
+
+        final void startTracking() {
+            if (!tracking) {
+                tracking = true;
+                tracker.active = true;
+                started();
+            }
+        }
+
+        // Called before the connection reads key.
+        final void reading(String key) {
+            if (tracking) {
+                tracker.track(key, this);
+            }
+        }
+
+        // Called once, when the connection sends TRACK.
+        void started() {
+        }
+
+        // Called with the changed key's lock held, so it must queue the key and return at once.
+        abstract void push(String key);
+    }
+
+    private final int maxKeys;
+    // Readers of each tracked key. The sets are only touched inside compute() or after the key has
+    // been removed, so they need no locking of their own.
+    private final ConcurrentHashMap<String, Set<Subscriber>> readers = new ConcurrentHashMap<>();
+    // Set by the first TRACK, so servers nobody tracks skip the table on every write.
+    private volatile boolean active;
+
+    InvalidationTracker(int maxKeys) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("tracking-max-keys must be positive: " + maxKeys);
+        }
+        this.maxKeys = maxKeys;
+    }
+
+    private void track(String key, Subscriber subscriber) {
+        boolean[] added = new boolean[1];
+        readers.compute(key, (k, subscribers) -> {
+            if (subscribers == null) {
+                subscribers = new HashSet<>(2);
+                added[0] = true;
+            }
+            subscribers.add(subscriber);
+            return subscribers;
+        });
+        if (added[0] && readers.size() > maxKeys) {
+            for (String other : readers.keySet()) {
+                if (!other.equals(key)) {
+                    invalidate(other);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Called by the store with the changed keys' locks held, for every record it logs.
+    void changed(byte type, String... fields) {
+        if (!active) {
+            return;
+        }
+        switch (type) {
+            case WriteAheadLog.PUT:
+            case WriteAheadLog.DELETE:
+                invalidate(fields[0]);
+                break;
+            case WriteAheadLog.RENAME:
+                invalidate(fields[0]);
+                invalidate(fields[1]);
+                break;
+            default:
+                // A new TTL does not change the value.
+        }
+    }
+
+    private void invalidate(String key) {
+        Set<Subscriber> subscribers = readers.remove(key);
+        if (subscribers == null) {
+            return;
+        }
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.closed) {
+                subscriber.push(key);
+            }
+        }
+    }
+}
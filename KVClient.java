@@ -0,0 +1,644 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Thread-safe client for applications that embed the store, next to the interactive TCPClient and
+// UDPClient. It speaks the binary protocol over a fixed pool of connections, TCP sockets or UDP
+// sockets, and each connection carries any number of outstanding requests: a request is tagged
+// with an ID, sent, and completed by the connection's reader thread when the reply with that tag
+// arrives. Callers take connections round-robin, so a call costs neither a connect nor a lock
+// shared with every other caller.
+//   --protocol=tcp|udp --host=localhost --port=7856 --pool-size=4
+//   --timeout-ms=5000       a request fails with SocketTimeoutException after this long
+//   --retransmit-ms=250     UDP only: first retransmission, doubling after each one
+//   --window=64             UDP only: requests in flight per socket; later ones queue in the client
+//   --near-cache=0          TCP only: keep up to this many GET results locally (see NearCache);
+//                           every connection sends TRACK so the server invalidates them
+// The *Async methods complete on a reader thread; chain slow work with the *Async variants of
+// CompletableFuture so it runs elsewhere. A TCP connection that fails is replaced on next use.
+public final class KVClient implements Closeable {
+    private static final String DEFAULT_HOST = "localhost";
+    private static final int DEFAULT_PORT = 7856;
+    private static final int KEYS_PAGE_COUNT = 1000;
+    private static final int MAX_DATAGRAM = 65507;
+
+    private final String protocol;
+    private final InetAddress address;
+    private final int port;
+    private final long timeoutNanos;
+    private final long retransmitNanos;
+    private final int window;
+    private final AtomicReferenceArray<Connection> pool;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private final ScheduledExecutorService sweeper;
+    // Null when the near cache is off.
+    private final NearCache nearCache;
+    private volatile boolean closed;
+
+    public KVClient(String protocol, String host, int port, int poolSize, int timeoutMs, int retransmitMs, int window)
+            throws IOException {
+        this(protocol, host, port, poolSize, timeoutMs, retransmitMs, window, 0);
+    }
+
+    // nearCacheSize 0 turns the near cache off.
+    public KVClient(String protocol, String host, int port, int poolSize, int timeoutMs, int retransmitMs, int window,
+                    int nearCacheSize) throws IOException {
+        if (!protocol.equals("tcp") && !protocol.equals("udp")) {
+            throw new IllegalArgumentException("Invalid protocol: " + protocol + ". Use tcp or udp");
+        }
+        if (poolSize < 1 || timeoutMs < 1 || retransmitMs < 1 || window < 1) {
+            throw new IllegalArgumentException("pool-size, timeout-ms, retransmit-ms and window must be positive");
+        }
+        if (nearCacheSize < 0 || (nearCacheSize > 0 && !protocol.equals("tcp"))) {
+            throw new IllegalArgumentException("near-cache must not be negative and needs the tcp protocol");
+        }
+        nearCache = nearCacheSize > 0 ? new NearCache(nearCacheSize) : null;
+        this.protocol = protocol;
+        this.address = InetAddress.getByName(host);
+        this.port = port;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.retransmitNanos = TimeUnit.MILLISECONDS.toNanos(retransmitMs);
+        this.window = window;
+        pool = new AtomicReferenceArray<>(poolSize);
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                pool.set(i, open(i));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        // Timeouts and retransmissions are found by one periodic sweep, so sending a request never
+        // has to touch a shared timer queue.
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kv-client-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(10, Math.min(timeoutMs, protocol.equals("udp") ? retransmitMs : timeoutMs) / 4);
+        sweeper.scheduleAtFixedRate(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public static KVClient fromConfig(ServerConfig config) throws IOException {
+        return new KVClient(config.getString("protocol", "tcp"), config.getString("host", DEFAULT_HOST),
+                config.getInt("port", DEFAULT_PORT), config.getInt("pool-size", 4),
+                config.getInt("timeout-ms", 5000), config.getInt("retransmit-ms", 250), config.getInt("window", 64),
+                config.getInt("near-cache", 0));
+    }
+
+    // Null when the key does not exist.
+    public String get(String key) throws IOException {
+        return await(getAsync(key));
+    }
+
+    public KeyValueStore.Status put(String key, String value) throws IOException {
+        return await(putAsync(key, value));
+    }
+
+    public KeyValueStore.Status put(String key, String value, int ttlSeconds) throws IOException {
+        return await(putAsync(key, value, ttlSeconds));
+    }
+
+    public KeyValueStore.Status delete(String key) throws IOException {
+        return await(deleteAsync(key));
+    }
+
+    public List<String> keys() throws IOException {
+        return await(keysAsync());
+    }
+
+    public KeyValueStore.Status editKey(String oldKey, String newKey) throws IOException {
+        return await(editKeyAsync(oldKey, newKey));
+    }
+
+    public KeyValueStore.Status editValue(String key, String newValue) throws IOException {
+        return await(editValueAsync(key, newValue));
+    }
+
+    public KeyValueStore.Status editValue(String key, String newValue, int ttlSeconds) throws IOException {
+        return await(editValueAsync(key, newValue, ttlSeconds));
+    }
+
+    public KeyValueStore.Status expire(String key, int ttlSeconds) throws IOException {
+        return await(expireAsync(key, ttlSeconds));
+    }
+
+    public long ttl(String key) throws IOException {
+        return await(ttlAsync(key));
+    }
+
+    // Completes at once on a near-cache hit.
+    public CompletableFuture<String> getAsync(String key) {
+        if (nearCache == null) {
+            return fetch(key);
+        }
+        String cached = nearCache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        Object loading = nearCache.loading(key);
+        return fetch(key).whenComplete((value, e) -> nearCache.loaded(key, loading, e == null ? value : null));
+    }
+
+    private CompletableFuture<String> fetch(String key) {
+        return request(BinaryProtocol.OP_GET, key).thenApply(reply -> {
+            byte status = reply.get();
+            if (status == BinaryProtocol.STATUS_NOT_FOUND) {
+                return null;
+            }
+            if (status != BinaryProtocol.STATUS_OK) {
+                throw new IllegalArgumentException(BinaryProtocol.statusName(status));
+            }
+            return BinaryProtocol.readString(reply);
+        });
+    }
+
+    public CompletableFuture<KeyValueStore.Status> putAsync(String key, String value) {
+        return changing(request(BinaryProtocol.OP_PUT, key, value), key.toLowerCase()).thenApply(KVClient::status);
+    }
+
+    // The key expires ttlSeconds (at least 1) after the server stores it.
+    public CompletableFuture<KeyValueStore.Status> putAsync(String key, String value, int ttlSeconds) {
+        return changing(request(BinaryProtocol.OP_PUT, key, value, Integer.toString(ttlSeconds)), key.toLowerCase())
+                .thenApply(KVClient::status);
+    }
+
+    public CompletableFuture<KeyValueStore.Status> deleteAsync(String key) {
+        return changing(request(BinaryProtocol.OP_DELETE, key), key).thenApply(KVClient::status);
+    }
+
+    public CompletableFuture<KeyValueStore.Status> editKeyAsync(String oldKey, String newKey) {
+        return changing(request(BinaryProtocol.OP_EDIT_KEY, oldKey, newKey), oldKey.toLowerCase(), newKey.toLowerCase()).thenApply(KVClient::status);
+    }
+
+    // Keeps the key's TTL, if it has one.
+    public CompletableFuture<KeyValueStore.Status> editValueAsync(String key, String newValue) {
+        return changing(request(BinaryProtocol.OP_EDIT_VALUE, key, newValue), key.toLowerCase()).thenApply(KVClient::status);
+    }
+
+    public CompletableFuture<KeyValueStore.Status> editValueAsync(String key, String newValue, int ttlSeconds) {
+        return changing(request(BinaryProtocol.OP_EDIT_VALUE, key, newValue, Integer.toString(ttlSeconds)), key.toLowerCase())
+                .thenApply(KVClient::status);
+    }
+
+    public CompletableFuture<KeyValueStore.Status> expireAsync(String key, int ttlSeconds) {
+        return request(BinaryProtocol.OP_EXPIRE, key, Integer.toString(ttlSeconds)).thenApply(KVClient::status);
+    }
+
+    // Milliseconds the key has left, -1 when it has no TTL and -2 when it does not exist.
+    public CompletableFuture<Long> ttlAsync(String key) {
+        return request(BinaryProtocol.OP_TTL, key).thenApply(reply -> {
+            byte status = reply.get();
+            if (status == BinaryProtocol.STATUS_NOT_FOUND) {
+                return -2L;
+            }
+            if (status != BinaryProtocol.STATUS_OK) {
+                throw new IllegalArgumentException(BinaryProtocol.statusName(status));
+            }
+            return reply.getLong();
+        });
+    }
+
+    // Pages through the keyspace with SCAN, so no single reply has to hold every key.
+    public CompletableFuture<List<String>> keysAsync() {
+        return scanFrom(0, new ArrayList<>());
+    }
+
+    private CompletableFuture<List<String>> scanFrom(long cursor, List<String> keys) {
+        // Async, so the next page is not sent from a reader thread that should be reading replies.
+        return request(BinaryProtocol.OP_SCAN, Long.toString(cursor), "", Integer.toString(KEYS_PAGE_COUNT))
+                .thenComposeAsync(reply -> {
+                    byte status = reply.get();
+                    if (status != BinaryProtocol.STATUS_OK) {
+                        throw new IllegalStateException("SCAN failed: " + BinaryProtocol.statusName(status));
+                    }
+                    long next = reply.getLong();
+                    int count = reply.getShort() & 0xFFFF;
+                    for (int i = 0; i < count; i++) {
+                        keys.add(BinaryProtocol.readString(reply));
+                    }
+                    return next == 0 ? CompletableFuture.completedFuture(keys) : scanFrom(next, keys);
+                });
+    }
+
+    // Drops keys from the near cache once the write is answered, so the writer reads its own write
+    // even if the server's invalidation is still on its way. keys must be in the form the server
+    // stores them under: lower case for PUT and the edits, as given for DELETE.
+    private CompletableFuture<ByteBuffer> changing(CompletableFuture<ByteBuffer> write, String... keys) {
+        if (nearCache == null) {
+            return write;
+        }
+        return write.whenComplete((reply, e) -> {
+            for (String key : keys) {
+                nearCache.invalidate(key);
+            }
+        });
+    }
+
+    private static KeyValueStore.Status status(ByteBuffer reply) {
+        byte status = reply.get();
+        switch (status) {
+            case BinaryProtocol.STATUS_OK:
+                return KeyValueStore.Status.OK;
+            case BinaryProtocol.STATUS_NOT_FOUND:
+                return KeyValueStore.Status.KEY_NOT_FOUND;
+            case BinaryProtocol.STATUS_KEY_EXISTS:
+                return KeyValueStore.Status.KEY_EXISTS;
+            case BinaryProtocol.STATUS_TOO_LONG:
+                return KeyValueStore.Status.TOO_LARGE;
+            case BinaryProtocol.STATUS_STORE_FULL:
+                return KeyValueStore.Status.STORE_FULL;
+            case BinaryProtocol.STATUS_READ_ONLY:
+                throw new IllegalStateException(BinaryProtocol.statusName(status));
+            default:
+                throw new IllegalArgumentException(BinaryProtocol.statusName(status));
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // Completes with the reply body after its tag, positioned at the status byte.
+    private CompletableFuture<ByteBuffer> request(byte opcode, String... args) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Client is closed"));
+        }
+        try {
+            return connection().send(opcode, args);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private Connection connection() throws IOException {
+        int slot = Math.floorMod(nextConnection.getAndIncrement(), pool.length());
+        Connection connection = pool.get(slot);
+        if (connection.open) {
+            return connection;
+        }
+        // Only the rare reconnect takes a lock, and only callers of the same broken slot wait on it.
+        synchronized (connection) {
+            Connection current = pool.get(slot);
+            if (current == connection) {
+                current = open(slot);
+                pool.set(slot, current);
+            }
+            return current;
+        }
+    }
+
+    private Connection open(int slot) throws IOException {
+        return protocol.equals("tcp") ? new TcpConnection(address, port, slot) : new UdpConnection(address, port, slot);
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        for (int i = 0; i < pool.length(); i++) {
+            Connection connection = pool.get(i);
+            if (connection != null) {
+                connection.sweep(now);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        for (int i = 0; i < pool.length(); i++) {
+            Connection connection = pool.get(i);
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private static final class Pending {
+        private static final int WAITING = 0;
+        private static final int SENT = 1;
+        private static final int DONE = 2;
+        private final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+        // The request as sent, kept for UDP retransmission.
+        private final byte[] packet;
+        private final long deadline;
+        // WAITING -> SENT -> DONE, or WAITING -> DONE for a request that timed out in the queue.
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        // Written before the request is marked SENT; after that only the sweeper touches them.
+        private long retransmitAt;
+        private long retransmitAfter;
+
+        private Pending(byte[] packet, long deadline, long retransmitAfter) {
+            this.packet = packet;
+            this.deadline = deadline;
+            this.retransmitAfter = retransmitAfter;
+        }
+    }
+
+    private abstract class Connection {
+        final ConcurrentHashMap<Integer, Pending> pending = new ConcurrentHashMap<>();
+        // Random start so a new connection does not reuse tags still in the server's UDP reply cache.
+        private final AtomicInteger nextRequestId = new AtomicInteger(new Random().nextInt(Integer.MAX_VALUE));
+        // Requests past the window, in send order. Unused by TCP, whose sends are never held back.
+        private final ConcurrentLinkedQueue<Pending> waiting = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        volatile boolean open = true;
+
+        CompletableFuture<ByteBuffer> send(byte opcode, String... args) throws IOException {
+            int requestId = nextRequestId.getAndIncrement() & Integer.MAX_VALUE;
+            byte[] body = BinaryProtocol.encodeRequest(requestId, opcode, args);
+            Pending request = new Pending(packet(body), System.nanoTime() + timeoutNanos, retransmitNanos);
+            pending.put(requestId, request);
+            // failAll() clears open before it walks pending, so a request it missed is caught here.
+            if (!open) {
+                pending.remove(requestId);
+                throw new IOException("Connection to " + address.getHostAddress() + ":" + port + " is closed");
+            }
+            if (retransmits()) {
+                waiting.add(request);
+                sendWaiting();
+                return request.future;
+            }
+            try {
+                transmit(request.packet);
+            } catch (IOException e) {
+                pending.remove(requestId);
+                throw e;
+            }
+            return request.future;
+        }
+
+        // Sends queued requests while fewer than window are in flight. Every caller adds to the queue
+        // or frees a slot before calling, so a request is never left queued with a slot free.
+        private void sendWaiting() {
+            while (!waiting.isEmpty()) {
+                int current = inFlight.get();
+                if (current >= window) {
+                    return;
+                }
+                if (!inFlight.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                Pending request = waiting.poll();
+                if (request == null) {
+                    inFlight.decrementAndGet();
+                    continue;
+                }
+                request.retransmitAt = System.nanoTime() + request.retransmitAfter;
+                if (!request.state.compareAndSet(Pending.WAITING, Pending.SENT)) {
+                    // Timed out while queued.
+                    inFlight.decrementAndGet();
+                    continue;
+                }
+                try {
+                    transmit(request.packet);
+                } catch (IOException e) {
+                    // retransmitted by the sweep until its deadline
+                }
+            }
+        }
+
+        // Called once request has been removed from pending.
+        private void finish(Pending request) {
+            if (request.state.getAndSet(Pending.DONE) == Pending.SENT) {
+                inFlight.decrementAndGet();
+                sendWaiting();
+            }
+        }
+
+        // reply is a response body starting with its TAGGED tag.
+        void complete(ByteBuffer reply) {
+            if (reply.remaining() < 6 || reply.get() != BinaryProtocol.TAGGED) {
+                return;
+            }
+            Pending request = pending.remove(reply.getInt());
+            // Null for a reply that arrives after its request timed out, or a duplicate after a retransmission.
+            if (request != null) {
+                finish(request);
+                request.future.complete(reply.slice());
+            }
+        }
+
+        void failAll(IOException cause) {
+            open = false;
+            for (Integer requestId : pending.keySet()) {
+                Pending request = pending.remove(requestId);
+                if (request != null) {
+                    request.future.completeExceptionally(cause);
+                }
+            }
+        }
+
+        void sweep(long now) {
+            for (Map.Entry<Integer, Pending> entry : pending.entrySet()) {
+                Pending request = entry.getValue();
+                if (now - request.deadline >= 0) {
+                    if (pending.remove(entry.getKey(), request)) {
+                        finish(request);
+                        request.future.completeExceptionally(new SocketTimeoutException(
+                                "No reply from " + address.getHostAddress() + ":" + port + " within "
+                                        + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms"));
+                    }
+                } else if (request.state.get() == Pending.SENT && retransmits() && now - request.retransmitAt >= 0) {
+                    request.retransmitAfter *= 2;
+                    request.retransmitAt = now + request.retransmitAfter;
+                    try {
+                        transmit(request.packet);
+                    } catch (IOException e) {
+                        // the deadline still applies
+                    }
+                }
+            }
+        }
+
+        abstract byte[] packet(byte[] body);
+
+        abstract void transmit(byte[] packet) throws IOException;
+
+        abstract boolean retransmits();
+
+        abstract void close();
+    }
+
+    // Replies come back in request order, but are matched by tag like UDP's so both share one path.
+    private final class TcpConnection extends Connection {
+        private final Socket socket;
+        private final DataInputStream dataIn;
+        private final DataOutputStream dataOut;
+
+        TcpConnection(InetAddress address, int port, int slot) throws IOException {
+            socket = new Socket(address, port);
+            socket.setTcpNoDelay(true);
+            dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            dataOut.writeUTF(BinaryProtocol.NEGOTIATE + " " + BinaryProtocol.VERSION);
+            dataOut.flush();
+            String reply = dataIn.readUTF();
+            if (!BinaryProtocol.isAccepted(reply)) {
+                socket.close();
+                throw new IOException("Server does not support the binary protocol: " + reply);
+            }
+            if (nearCache != null) {
+                track();
+            }
+            Thread reader = new Thread(this::readReplies, "kv-client-tcp-" + slot);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        // Asked for before the reader starts, so no GET goes out untracked.
+        private void track() throws IOException {
+            transmit(packet(BinaryProtocol.encodeRequest(BinaryProtocol.OP_TRACK)));
+            byte[] frame = new byte[dataIn.readInt()];
+            dataIn.readFully(frame);
+            if (frame.length != 1 || frame[0] != BinaryProtocol.STATUS_OK) {
+                socket.close();
+                throw new IOException("Server does not support near-cache invalidations");
+            }
+        }
+
+        private void readReplies() {
+            try {
+                while (true) {
+                    byte[] frame = new byte[dataIn.readInt()];
+                    dataIn.readFully(frame);
+                    if (frame.length > 0 && frame[0] == BinaryProtocol.INVALIDATE) {
+                        invalidated(ByteBuffer.wrap(frame, 1, frame.length - 1));
+                    } else {
+                        complete(ByteBuffer.wrap(frame));
+                    }
+                }
+            } catch (IOException e) {
+                // Invalidations sent after this are lost, so nothing cached can be trusted.
+                if (nearCache != null) {
+                    nearCache.clear();
+                }
+                failAll(closed ? new IOException("Client is closed") : e);
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+            }
+        }
+
+        private void invalidated(ByteBuffer push) {
+            int count = push.getShort() & 0xFFFF;
+            for (int i = 0; i < count; i++) {
+                nearCache.invalidate(BinaryProtocol.readString(push));
+            }
+        }
+
+        @Override
+        byte[] packet(byte[] body) {
+            byte[] frame = new byte[4 + body.length];
+            ByteBuffer.wrap(frame).putInt(body.length).put(body);
+            return frame;
+        }
+
+        @Override
+        void transmit(byte[] packet) throws IOException {
+            synchronized (dataOut) {
+                dataOut.write(packet);
+                dataOut.flush();
+            }
+        }
+
+        @Override
+        boolean retransmits() {
+            return false;
+        }
+
+        @Override
+        void close() {
+            open = false;
+            try {
+                transmit(packet(BinaryProtocol.encodeRequest(BinaryProtocol.OP_QUIT)));
+            } catch (IOException e) {
+                // closing anyway
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Lost requests and replies are retransmitted by the sweep; the server's reply cache keeps a
+    // retransmitted PUT or DELETE from being applied twice.
+    private final class UdpConnection extends Connection {
+        private final DatagramSocket socket;
+
+        UdpConnection(InetAddress address, int port, int slot) throws IOException {
+            socket = new DatagramSocket();
+            socket.connect(address, port);
+            Thread reader = new Thread(this::readReplies, "kv-client-udp-" + slot);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void readReplies() {
+            byte[] receiveData = new byte[MAX_DATAGRAM];
+            DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+            while (true) {
+                try {
+                    receivePacket.setLength(receiveData.length);
+                    socket.receive(receivePacket);
+                } catch (IOException e) {
+                    failAll(closed ? new IOException("Client is closed") : e);
+                    return;
+                }
+                int length = receivePacket.getLength();
+                if (length > 2 && receiveData[0] == BinaryProtocol.MAGIC) {
+                    // Copied out, since receiveData is reused for the next datagram.
+                    complete(ByteBuffer.wrap(Arrays.copyOfRange(receiveData, 2, length)));
+                }
+            }
+        }
+
+        @Override
+        byte[] packet(byte[] body) {
+            return UDPClient.binaryDatagram(body);
+        }
+
+        @Override
+        void transmit(byte[] packet) throws IOException {
+            socket.send(new DatagramPacket(packet, packet.length));
+        }
+
+        @Override
+        boolean retransmits() {
+            return true;
+        }
+
+        @Override
+        void close() {
+            open = false;
+            socket.close();
+        }
+    }
+}
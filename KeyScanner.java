@@ -0,0 +1,261 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// Server-side cursors for SCAN. Each cursor wraps a weakly consistent iterator over the store's
+// keys, so a scan sees every key present for its whole duration at least once and never blocks
+// writers. A page examines at most COUNT keys and stops early when its byte budget is used up.
+// Cursors idle for CURSOR_IDLE_MS are dropped; past MAX_CURSORS the least recently used goes.
+//
+// RANGE and PREFIX walk the store's sorted index instead. They need no cursor: a page that hits
+// its LIMIT or byte budget names the next key, and the client continues from there.
+public class KeyScanner {
+    static final int DEFAULT_COUNT = 100;
+    static final int MAX_COUNT = 10_000;
+    private static final String SCAN_USAGE = "Invalid command. Usage: SCAN <cursor> [MATCH <prefix>] [COUNT <n>]";
+    private static final String RANGE_USAGE = "Invalid command. Usage: RANGE <from> <to> [LIMIT <n>]";
+    private static final String PREFIX_USAGE = "Invalid command. Usage: PREFIX <prefix> [FROM <key>] [LIMIT <n>]";
+    private static final int MAX_CURSORS = 1024;
+    private static final long CURSOR_IDLE_MS = 60_000;
+    private final KeyValueStore store;
+    private final ConcurrentHashMap<Long, Cursor> cursors = new ConcurrentHashMap<>();
+    private final AtomicLong nextCursorId = new AtomicLong(1);
+
+    public KeyScanner(KeyValueStore store) {
+        this.store = store;
+    }
+
+    static final class Page {
+        // 0 once the scan is complete.
+        final long cursor;
+        final List<String> keys;
+
+        private Page(long cursor, List<String> keys) {
+            this.cursor = cursor;
+            this.keys = keys;
+        }
+    }
+
+    static final class Slice {
+        final List<String> keys;
+        // First key left out of this page, or null if the page ends the range.
+        final String next;
+
+        private Slice(List<String> keys, String next) {
+            this.keys = keys;
+            this.next = next;
+        }
+    }
+
+    private static final class Cursor {
+        private final Iterator<String> keys;
+        private final String prefix;
+        // Matched on the previous page but did not fit in its byte budget.
+        private String carried;
+        private volatile long lastUsed;
+
+        private Cursor(Iterator<String> keys, String prefix) {
+            this.keys = keys;
+            this.prefix = prefix;
+        }
+    }
+
+    // Returns the next page of keys starting with prefix, or null if cursorId is unknown or
+    // expired. Cursor 0 starts a new scan; the prefix of a continued scan is the one it began with.
+    Page scan(long cursorId, String prefix, int count, int maxBytes) {
+        Cursor cursor;
+        if (cursorId == 0) {
+            cursor = new Cursor(store.keys().iterator(), prefix);
+            cursorId = register(cursor);
+        } else {
+            cursor = cursors.get(cursorId);
+            if (cursor == null) {
+                return null;
+            }
+        }
+        List<String> keys = new ArrayList<>(Math.min(count, 256));
+        synchronized (cursor) {
+            cursor.lastUsed = System.currentTimeMillis();
+            int bytes = 0;
+            int examined = 0;
+            while (examined < count) {
+                String key = cursor.carried;
+                if (key == null) {
+                    if (!cursor.keys.hasNext()) {
+                        cursors.remove(cursorId);
+                        return new Page(0, keys);
+                    }
+                    key = cursor.keys.next();
+                    examined++;
+                    if (!key.startsWith(cursor.prefix)) {
+                        continue;
+                    }
+                }
+                int size = encodedSize(key);
+                if (bytes + size > maxBytes && !keys.isEmpty()) {
+                    cursor.carried = key;
+                    break;
+                }
+                cursor.carried = null;
+                keys.add(key);
+                bytes += size;
+            }
+        }
+        return new Page(cursorId, keys);
+    }
+
+    // Keys from..to, both inclusive, in sorted order.
+    Slice range(String from, String to, int limit, int maxBytes) {
+        return slice(store.unexpired(sorted().tailSet(from, true)).iterator(), key -> key.compareTo(to) <= 0, limit, maxBytes);
+    }
+
+    // Keys starting with prefix in sorted order, beginning at from when it sorts after prefix.
+    Slice prefix(String prefix, String from, int limit, int maxBytes) {
+        String start = from.compareTo(prefix) > 0 ? from : prefix;
+        return slice(store.unexpired(sorted().tailSet(start, true)).iterator(), key -> key.startsWith(prefix), limit, maxBytes);
+    }
+
+    private NavigableSet<String> sorted() {
+        NavigableSet<String> index = store.sortedKeys();
+        if (index != null) {
+            return index;
+        }
+        // No index: sort a full pass over the keys.
+        NavigableSet<String> keys = new TreeSet<>();
+        for (String key : store.keys()) {
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    private static Slice slice(Iterator<String> keys, Predicate<String> inRange, int limit, int maxBytes) {
+        List<String> page = new ArrayList<>(Math.min(limit, 256));
+        int bytes = 0;
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!inRange.test(key)) {
+                break;
+            }
+            bytes += encodedSize(key);
+            if (page.size() == limit || (bytes > maxBytes && !page.isEmpty())) {
+                return new Slice(page, key);
+            }
+            page.add(key);
+        }
+        return new Slice(page, null);
+    }
+
+    // Text forms shared by both servers:
+    //   SCAN <cursor> [MATCH <prefix>] [COUNT <n>]  ->  Cursor [<next>] Keys: [k1][k2]...
+    //   RANGE <from> <to> [LIMIT <n>]               ->  Keys: [k1][k2]... [Next: [k3]]
+    //   PREFIX <prefix> [FROM <key>] [LIMIT <n>]    ->  Keys: [k1][k2]... [Next: [k3]]
+    String scanCommand(String[] parts, int maxBytes) {
+        Map<String, String> options = options(parts, 2, "MATCH", "COUNT");
+        int count = options == null ? 0 : count(options, "COUNT");
+        long cursorId;
+        try {
+            cursorId = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return SCAN_USAGE;
+        }
+        if (count < 1 || cursorId < 0) {
+            return SCAN_USAGE;
+        }
+        Page page = scan(cursorId, options.getOrDefault("MATCH", ""), count, maxBytes);
+        if (page == null) {
+            return "Error: Cursor [" + cursorId + "] is invalid or has expired";
+        }
+        StringBuilder response = new StringBuilder("Cursor [").append(page.cursor).append("] Keys: ");
+        for (String key : page.keys) {
+            response.append("[").append(key).append("]");
+        }
+        return response.toString();
+    }
+
+    String rangeCommand(String[] parts, int maxBytes) {
+        Map<String, String> options = options(parts, 3, "LIMIT");
+        int limit = options == null ? 0 : count(options, "LIMIT");
+        if (limit < 1) {
+            return RANGE_USAGE;
+        }
+        return describe(range(parts[1], parts[2], limit, maxBytes));
+    }
+
+    String prefixCommand(String[] parts, int maxBytes) {
+        Map<String, String> options = options(parts, 2, "FROM", "LIMIT");
+        int limit = options == null ? 0 : count(options, "LIMIT");
+        if (limit < 1) {
+            return PREFIX_USAGE;
+        }
+        return describe(prefix(parts[1], options.getOrDefault("FROM", ""), limit, maxBytes));
+    }
+
+    static String describe(Slice slice) {
+        StringBuilder response = new StringBuilder("Keys: ");
+        for (String key : slice.keys) {
+            response.append("[").append(key).append("]");
+        }
+        if (slice.next != null) {
+            response.append(" Next: [").append(slice.next).append("]");
+        }
+        return response.toString();
+    }
+
+    // Parses "NAME value" pairs from parts[start] on, keyed by upper-case name. Returns null if a
+    // name is not one of allowed or has no value.
+    private static Map<String, String> options(String[] parts, int start, String... allowed) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = start; i < parts.length; i += 2) {
+            String name = parts[i].toUpperCase();
+            if (i + 1 == parts.length || !Arrays.asList(allowed).contains(name)) {
+                return null;
+            }
+            options.put(name, parts[i + 1]);
+        }
+        return options;
+    }
+
+    // A COUNT or LIMIT option capped at MAX_COUNT, or 0 if it is not a positive number.
+    private static int count(Map<String, String> options, String name) {
+        try {
+            return Math.max(0, Math.min(Integer.parseInt(options.getOrDefault(name, Integer.toString(DEFAULT_COUNT))), MAX_COUNT));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Upper bound for a key in either encoding: brackets or a u16 length, plus up to 3 bytes per char.
+    static int encodedSize(String key) {
+        return 2 + 3 * key.length();
+    }
+
+    private long register(Cursor cursor) {
+        if (cursors.size() >= MAX_CURSORS) {
+            evict();
+        }
+        long cursorId = nextCursorId.getAndIncrement();
+        cursor.lastUsed = System.currentTimeMillis();
+        cursors.put(cursorId, cursor);
+        return cursorId;
+    }
+
+    // Drops idle cursors, and the least recently used one if none were idle.
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Long oldestId = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<Long, Cursor> entry : cursors.entrySet()) {
+            long lastUsed = entry.getValue().lastUsed;
+            if (now - lastUsed > CURSOR_IDLE_MS) {
+                cursors.remove(entry.getKey());
+            } else if (lastUsed < oldest) {
+                oldest = lastUsed;
+                oldestId = entry.getKey();
+            }
+        }
+        if (cursors.size() >= MAX_CURSORS && oldestId != null) {
+            cursors.remove(oldestId);
+        }
+    }
+}
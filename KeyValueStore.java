@@ -0,0 +1,448 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Storage engine shared by both servers. Implementations must be safe for concurrent use, make
+// check-then-act writes and renames atomic, and log every change through the write-ahead log
+// while the affected keys are still locked.
+//
+// Keys may carry a TTL, an absolute System.currentTimeMillis() deadline. An expired key is hidden
+// from reads at once and treated as absent by writes; the timing wheel's sweeper deletes it soon
+// after, so it stays in size() until then.
+//
+// A store given an EvictionPolicy is bounded: writers that take it over a limit evict keys after
+// releasing their locks, or with the reject policy new keys get STORE_FULL. Evictions are logged
+// as deletes, so they reach the write-ahead log and replicas like any other.
+public abstract class KeyValueStore {
+    public enum Status { OK, KEY_EXISTS, KEY_NOT_FOUND, TOO_LARGE, STORE_FULL }
+
+    // The deadline of a key without a TTL.
+    public static final long NO_EXPIRY = 0;
+    private static final long EXPIRY_TICK_MS = 100;
+
+    // Null for a memory-only store.
+    private final WriteAheadLog log;
+    // Every key in sorted order, for RANGE and PREFIX. Updated under the same lock as the entry, so
+    // it agrees with the store once a write returns. Null when the index is turned off.
+    private final ConcurrentSkipListSet<String> sortedKeys;
+    // Set on a primary that serves replicas; null otherwise.
+    private volatile ReplicationLog feed;
+    // Set on a TCP server, which pushes invalidations to client near caches; null otherwise.
+    private volatile InvalidationTracker tracker;
+    // Deadlines of the keys that have a TTL, changed only with the key's lock held.
+    private final ConcurrentHashMap<String, Long> expiries = new ConcurrentHashMap<>();
+    // Set by the first TTL, so a store that never sees one skips the lookup on every read.
+    private volatile boolean expiring;
+    private final TimingWheel wheel = new TimingWheel(EXPIRY_TICK_MS, this::sweep);
+    // The sweeper starts once the log has been replayed, so it never races recovery.
+    private volatile boolean opened;
+    private volatile boolean sweeping;
+    // Null for an unbounded store.
+    private final EvictionPolicy eviction;
+    // Estimated size of the entries, kept only for a bounded store.
+    private final LongAdder usedBytes = new LongAdder();
+    // One evicting writer at a time, so two do not both evict for the same overflow.
+    private final ReentrantLock evicting = new ReentrantLock();
+
+    protected KeyValueStore(WriteAheadLog log, boolean sortedIndex, EvictionPolicy eviction) {
+        this.log = log;
+        this.sortedKeys = sortedIndex ? new ConcurrentSkipListSet<>() : null;
+        this.eviction = eviction;
+    }
+
+    // --store=striped (default) or --store=packed; --data-dir enables persistence for either.
+    // --sorted-index keeps the sorted key index that makes RANGE and PREFIX cheap; without it they
+    // sort on every call. It defaults to on for the striped store and off for the packed store,
+    // whose point is to keep no objects per entry.
+    // --max-keys and --max-memory bound the store (see EvictionPolicy), except on a replica, which
+    // takes its evictions from the primary.
+    public static KeyValueStore fromConfig(ServerConfig config) {
+        WriteAheadLog log = WriteAheadLog.fromConfig(config);
+        EvictionPolicy eviction = config.getString("replica-of", null) == null ? EvictionPolicy.fromConfig(config) : null;
+        String type = config.getString("store", "striped");
+        boolean sortedIndex = config.getBoolean("sorted-index", !type.equals("packed"));
+        switch (type) {
+            case "striped":
+                return new StripedKeyValueStore(log, sortedIndex, eviction);
+            case "packed":
+                return new PackedKeyValueStore(log, sortedIndex, config.getInt("store-capacity", 0), eviction);
+            default:
+                throw new IllegalArgumentException("Invalid store: " + type + ". Use striped or packed");
+        }
+    }
+
+    public abstract String get(String key);
+
+    public abstract boolean containsKey(String key);
+
+    // Like containsKey, but never counts as a read for the eviction policy.
+    abstract boolean contains(String key);
+
+    public abstract boolean isEmpty();
+
+    public abstract int size();
+
+    // Weakly consistent; never throws ConcurrentModificationException.
+    public abstract Iterable<String> keys();
+
+    public final Status putIfAbsent(String key, String value) {
+        return putIfAbsent(key, value, NO_EXPIRY);
+    }
+
+    // Adds key with a TTL ending at expiresAt, or none for NO_EXPIRY.
+    public abstract Status putIfAbsent(String key, String value, long expiresAt);
+
+    public abstract Status remove(String key);
+
+    public final Status replace(String key, String value) {
+        return replace(key, value, NO_EXPIRY);
+    }
+
+    // NO_EXPIRY keeps the key's current TTL, if it has one.
+    public abstract Status replace(String key, String value, long expiresAt);
+
+    // Gives key a TTL ending at expiresAt; NO_EXPIRY removes its TTL.
+    public abstract Status expire(String key, long expiresAt);
+
+    // The key's deadline, or NO_EXPIRY.
+    public final long expiresAt(String key) {
+        Long expiresAt = expiries.get(key);
+        return expiresAt == null ? NO_EXPIRY : expiresAt;
+    }
+
+    // Milliseconds until key expires, -1 when it has no TTL and -2 when it does not exist, as in
+    // Redis's PTTL.
+    public final long ttlMillis(String key) {
+        if (get(key) == null) {
+            return -2;
+        }
+        long expiresAt = expiresAt(key);
+        if (expiresAt == NO_EXPIRY) {
+            return -1;
+        }
+        return Math.max(1, expiresAt - System.currentTimeMillis());
+    }
+
+    // Moves the value of oldKey to newKey. KEY_EXISTS wins over KEY_NOT_FOUND when both apply.
+    public abstract Status rename(String oldKey, String newKey);
+
+    // Keys evicted to stay within the store's limits so far.
+    public long evictions() {
+        return eviction == null ? 0 : eviction.evictions();
+    }
+
+    // Sorted, weakly consistent view of the keys, or null when the index is turned off.
+    public NavigableSet<String> sortedKeys() {
+        return sortedKeys == null ? null : Collections.unmodifiableNavigableSet(sortedKeys);
+    }
+
+    // Replay hooks: apply a logged change without logging it again. Both return the value the key
+    // had, or null.
+    protected abstract String restore(String key, String value);
+
+    protected abstract String restoreRemoval(String key);
+
+    // Removes key if its TTL has passed, taking the key's lock. Called by the sweeper.
+    protected abstract void removeIfExpired(String key);
+
+    // Weakly consistent view of every entry, iterated by the background snapshot writer.
+    protected abstract Iterable<Map.Entry<String, String>> entries();
+
+    // Called once by subclasses at the end of construction: replays the log into the empty store
+    // and starts background snapshots. A log holding more than the limits allow is evicted down.
+    protected final void open() {
+        if (log != null) {
+            recover();
+        }
+        opened = true;
+        if (expiring) {
+            startSweeper();
+        }
+        makeRoom();
+    }
+
+    private void recover() {
+        try {
+            log.recover(new WriteAheadLog.Target() {
+                @Override
+                public void put(String key, String value) {
+                    String previous = restore(key, value);
+                    if (previous == null) {
+                        indexed(key);
+                        weighed(key, value, 1);
+                    } else {
+                        replaced(previous, value);
+                    }
+                }
+
+                @Override
+                public void remove(String key) {
+                    String previous = restoreRemoval(key);
+                    if (previous != null) {
+                        unindexed(key);
+                        weighed(key, previous, -1);
+                    }
+                    expiries.remove(key);
+                }
+
+                @Override
+                public void expire(String key, long expiresAt) {
+                    setExpiry(key, expiresAt);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.startSnapshots(entries(), this::expiresAt);
+    }
+
+    // True once key's TTL has passed; readers use it to hide keys the sweeper has not removed yet.
+    protected final boolean expired(String key) {
+        if (!expiring) {
+            return false;
+        }
+        Long expiresAt = expiries.get(key);
+        return expiresAt != null && expiresAt <= System.currentTimeMillis();
+    }
+
+    // Called with the key's lock held before a write looks at key. If its TTL has passed, forgets
+    // the TTL and returns true; the caller then removes the entry, logging a DELETE, so the write
+    // sees the key as absent.
+    protected final boolean clearIfExpired(String key) {
+        if (!expired(key)) {
+            return false;
+        }
+        expiries.remove(key);
+        return true;
+    }
+
+    // Called with the key's lock held, after the key was written: sets and logs its new deadline.
+    protected final long expiring(String key, long expiresAt) {
+        setExpiry(key, expiresAt);
+        return logged(WriteAheadLog.EXPIRE, key, Long.toString(expiresAt));
+    }
+
+    // Hides expired keys from an iteration over the store's keys.
+    protected final Iterable<String> unexpired(Iterable<String> keys) {
+        if (!expiring) {
+            return keys;
+        }
+        return () -> new Iterator<String>() {
+            private final Iterator<String> all = keys.iterator();
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && all.hasNext()) {
+                    String key = all.next();
+                    if (!expired(key)) {
+                        next = key;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String key = next;
+                next = null;
+                return key;
+            }
+        };
+    }
+
+    private void setExpiry(String key, long expiresAt) {
+        if (expiresAt == NO_EXPIRY) {
+            expiries.remove(key);
+            return;
+        }
+        expiring = true;
+        expiries.put(key, expiresAt);
+        wheel.schedule(key, expiresAt);
+        if (opened && !sweeping) {
+            startSweeper();
+        }
+    }
+
+    private void startSweeper() {
+        sweeping = true;
+        wheel.start();
+    }
+
+    // Called by the wheel when a deadline passes. Entries left behind by a deleted key or an
+    // older TTL no longer match the key's deadline and are dropped.
+    private boolean sweep(String key, long expiresAt) {
+        Long current = expiries.get(key);
+        if (current == null || current != expiresAt) {
+            return true;
+        }
+        if (expiresAt > System.currentTimeMillis()) {
+            return false;
+        }
+        removeIfExpired(key);
+        return true;
+    }
+
+    // Called with the key's lock held, after the key was added to or removed from the store.
+    protected final void added(String key, String value) {
+        indexed(key);
+        weighed(key, value, 1);
+        if (eviction != null) {
+            eviction.recordWrite(key);
+        }
+    }
+
+    protected final void removed(String key, String value) {
+        unindexed(key);
+        weighed(key, value, -1);
+    }
+
+    // Called with the key's lock held, after its value changed.
+    protected final void replaced(String oldValue, String newValue) {
+        if (eviction != null) {
+            usedBytes.add(2L * (newValue.length() - oldValue.length()));
+        }
+    }
+
+    // Called on every successful read; cheap enough for the GET path.
+    protected final void accessed(String key) {
+        if (eviction != null) {
+            eviction.recordRead(key);
+        }
+    }
+
+    // Called with the key's lock held before adding it: true if the store is full and refuses new
+    // keys rather than evicting.
+    protected final boolean rejectingNewKeys() {
+        return eviction != null && eviction.rejectsWrites() && eviction.atLimit(size(), usedBytes.sum());
+    }
+
+    // Called by writers after releasing their locks: evicts until the store is within its limits.
+    // The evictions go through remove(), so they are locked, logged and replicated like a DELETE.
+    protected final void makeRoom() {
+        if (eviction == null || eviction.rejectsWrites() || !eviction.overLimit(size(), usedBytes.sum())) {
+            return;
+        }
+        evicting.lock();
+        try {
+            while (eviction.overLimit(size(), usedBytes.sum())) {
+                String victim = eviction.victim(this);
+                if (victim == null) {
+                    break;
+                }
+                if (remove(victim) == Status.OK) {
+                    eviction.evicted();
+                }
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    private void indexed(String key) {
+        if (sortedKeys != null) {
+            sortedKeys.add(key);
+        }
+    }
+
+    private void unindexed(String key) {
+        if (sortedKeys != null) {
+            sortedKeys.remove(key);
+        }
+    }
+
+    private void weighed(String key, String value, int sign) {
+        if (eviction != null) {
+            usedBytes.add(sign * EvictionPolicy.weigh(key, value));
+        }
+    }
+
+    // Called with the key's lock held; returns -1 when there is no log. Also the source of the
+    // replication feed and of near-cache invalidations, which is why it runs under the lock even
+    // without a log, and keeps TTLs in step with deletes and renames.
+    protected final long logged(byte type, String... fields) {
+        long position = append(type, fields);
+        if (expiring) {
+            if (type == WriteAheadLog.DELETE) {
+                expiries.remove(fields[0]);
+            } else if (type == WriteAheadLog.RENAME) {
+                // The TTL moves with the value. It is logged on its own, since a replayed RENAME is
+                // a put and a remove.
+                Long expiresAt = expiries.remove(fields[0]);
+                if (expiresAt != null) {
+                    position = expiring(fields[1], expiresAt);
+                }
+            }
+        }
+        return position;
+    }
+
+    private long append(byte type, String... fields) {
+        ReplicationLog feed = this.feed;
+        if (feed != null) {
+            feed.append(type, fields);
+        }
+        InvalidationTracker tracker = this.tracker;
+        if (tracker != null) {
+            tracker.changed(type, fields);
+        }
+        return log == null ? -1 : log.append(type, fields);
+    }
+
+    // Every change from now on is also appended to feed.
+    void replicateTo(ReplicationLog feed) {
+        this.feed = feed;
+    }
+
+    // Every change from now on is also reported to tracker.
+    void invalidateTo(InvalidationTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    // Applies a record from a primary's feed through the normal locked paths, so readers never see
+    // a half-applied change and a replica with a --data-dir logs it too. Records are blind sets,
+    // deletes, renames and TTLs, so applying one twice is harmless.
+    void applyReplicated(byte type, String[] fields) {
+        switch (type) {
+            case WriteAheadLog.PUT:
+                set(fields[0], fields[1]);
+                break;
+            case WriteAheadLog.DELETE:
+                remove(fields[0]);
+                break;
+            case WriteAheadLog.RENAME:
+                set(fields[1], fields[2]);
+                remove(fields[0]);
+                break;
+            case WriteAheadLog.EXPIRE:
+                expire(fields[0], Long.parseLong(fields[1]));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown replication record type: " + type);
+        }
+    }
+
+    private void set(String key, String value) {
+        while (putIfAbsent(key, value) == Status.KEY_EXISTS && replace(key, value) == Status.KEY_NOT_FOUND) {
+            // removed in between; try again
+        }
+    }
+
+    // Called after the lock is released, so a slow fsync never blocks other writers.
+    protected final void awaitDurable(long position) {
+        if (position < 0) {
+            return;
+        }
+        try {
+            log.await(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-linear histogram of nanosecond latencies in the style of HdrHistogram. Values below 128 are
+// counted exactly; larger ones fall in buckets 1/64 of their power of two wide, so a reported
+// percentile is never more than 1.6% above the true value. Recording is lock-free and safe from
+// any number of threads; values past MAX_VALUE (about 36 minutes) are clamped.
+public final class LatencyHistogram {
+    static final long MAX_VALUE = (1L << 41) - 1;
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT = 2 * SUB_BUCKETS;
+    private static final int MAX_SHIFT = 63 - Long.numberOfLeadingZeros(MAX_VALUE) - SUB_BUCKET_BITS;
+    private static final int BUCKETS = EXACT + MAX_SHIFT * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.incrementAndGet(index(value));
+        total.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    // Smallest recorded bucket bound at or below which percentile% of the values fall; 0 if empty.
+    public long percentile(double percentile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), max());
+            }
+        }
+        return max();
+    }
+
+    private static int index(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestValue(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long lowest = (long) ((index - EXACT) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,425 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Non-interactive load mode of TCPClient and UDPClient, started with --load:
+//   --connections=16            one thread per connection, each with one request outstanding
+//   --rate=0                    total target ops/sec spread over the connections; 0 is unthrottled
+//   --duration=10 --warmup=2    seconds measured, and seconds run first and discarded
+//   --mix=80:15:5               GET:PUT:DELETE weights
+//   --keys=10000 --distribution=uniform|zipfian --zipf-theta=0.99 --preload=true
+//   --host=localhost --port=7856 --binary --timeout-ms=1000 (UDP only)
+// With a target rate each request is due at a fixed time, and its latency counts from then rather
+// than from when it was sent, so a server stall shows up in the percentiles instead of silently
+// slowing the client down.
+public class LoadGenerator {
+    private static final String DEFAULT_HOST = "localhost";
+    private static final int DEFAULT_PORT = 7856;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private enum Operation {
+        GET(BinaryProtocol.OP_GET),
+        PUT(BinaryProtocol.OP_PUT),
+        DELETE(BinaryProtocol.OP_DELETE);
+
+        private final byte opcode;
+
+        Operation(byte opcode) {
+            this.opcode = opcode;
+        }
+    }
+
+    private final String protocol;
+    private final String host;
+    private final int port;
+    private final boolean binary;
+    private final int connections;
+    private final int rate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final int[] mix;
+    private final int keys;
+    private final String distribution;
+    private final double zipfTheta;
+    private final boolean preload;
+    private final int timeoutMs;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] errors = new LongAdder[Operation.values().length];
+    private final LongAdder completed = new LongAdder();
+
+    private LoadGenerator(String protocol, ServerConfig config) {
+        this.protocol = protocol;
+        host = config.getString("host", DEFAULT_HOST);
+        port = config.getInt("port", DEFAULT_PORT);
+        binary = config.getBoolean("binary", false);
+        connections = config.getInt("connections", 16);
+        rate = config.getInt("rate", 0);
+        durationSeconds = config.getInt("duration", 10);
+        warmupSeconds = config.getInt("warmup", 2);
+        mix = parseMix(config.getString("mix", "80:15:5"));
+        keys = config.getInt("keys", 10_000);
+        distribution = config.getString("distribution", "uniform");
+        zipfTheta = Double.parseDouble(config.getString("zipf-theta", "0.99"));
+        preload = config.getBoolean("preload", true);
+        timeoutMs = config.getInt("timeout-ms", 1000);
+        if (connections < 1 || rate < 0 || durationSeconds < 1 || warmupSeconds < 0 || timeoutMs < 1) {
+            throw new IllegalArgumentException("--connections, --duration and --timeout-ms must be positive; --rate and --warmup not negative");
+        }
+        // "k" plus at most 9 digits stays within the 10-character key limit.
+        if (keys < 1 || keys > 1_000_000_000) {
+            throw new IllegalArgumentException("--keys must be between 1 and 1000000000: " + keys);
+        }
+        if (!distribution.equals("uniform") && !distribution.equals("zipfian")) {
+            throw new IllegalArgumentException("Invalid distribution: " + distribution + ". Use uniform or zipfian");
+        }
+        if (!(zipfTheta > 0 && zipfTheta < 1)) {
+            throw new IllegalArgumentException("--zipf-theta must be between 0 and 1 exclusive: " + zipfTheta);
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    public static void run(String protocol, ServerConfig config) {
+        try {
+            new LoadGenerator(protocol, config).run();
+        } catch (IllegalArgumentException e) {
+            System.out.println("[" + Clock.timeStamp() + "] " + e.getMessage());
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        System.out.println("[" + Clock.timeStamp() + "] " + describe());
+        Zipfian zipfian = distribution.equals("zipfian") ? new Zipfian(keys, zipfTheta) : null;
+        List<Connection> opened = new ArrayList<>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                opened.add(connect());
+            }
+            if (preload) {
+                preload(opened);
+            }
+            long start = System.nanoTime();
+            long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+            long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                Connection connection = opened.get(i);
+                // Stagger the connections so a throttled run does not send in bursts.
+                long firstDue = rate == 0 ? 0 : start + (long) i * 1_000_000_000L / rate;
+                Thread worker = new Thread(() -> drive(connection, zipfian, firstDue, measureStart, end), "load-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+            reportProgress(start, measureStart, end);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            report(end - measureStart);
+        } finally {
+            for (Connection connection : opened) {
+                connection.close();
+            }
+        }
+    }
+
+    private void drive(Connection connection, Zipfian zipfian, long firstDue, long measureStart, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long interval = rate == 0 ? 0 : (long) connections * 1_000_000_000L / rate;
+        long due = firstDue;
+        int total = mix[0] + mix[1] + mix[2];
+        try {
+            while (true) {
+                if (interval == 0) {
+                    due = System.nanoTime();
+                }
+                if (due - end >= 0) {
+                    return;
+                }
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+                int pick = random.nextInt(total);
+                Operation operation = pick < mix[0] ? Operation.GET : pick < mix[0] + mix[1] ? Operation.PUT : Operation.DELETE;
+                String key = "k" + (zipfian == null ? random.nextInt(keys) : zipfian.next(random));
+                boolean answered = operation == Operation.PUT
+                        ? connection.execute(operation, key, "v" + random.nextInt(100_000_000))
+                        : connection.execute(operation, key);
+                long latency = System.nanoTime() - due;
+                if (due - measureStart >= 0) {
+                    histograms[operation.ordinal()].record(latency);
+                    if (!answered) {
+                        errors[operation.ordinal()].increment();
+                    }
+                }
+                completed.increment();
+                due += interval;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Every key is written once, split evenly over the connections, before anything is measured.
+    private void preload(List<Connection> opened) throws InterruptedException {
+        System.out.println("[" + Clock.timeStamp() + "] Preloading " + keys + " keys...");
+        List<Thread> loaders = new ArrayList<>();
+        for (int i = 0; i < opened.size(); i++) {
+            Connection connection = opened.get(i);
+            int first = i;
+            Thread loader = new Thread(() -> {
+                try {
+                    for (int key = first; key < keys; key += opened.size()) {
+                        connection.execute(Operation.PUT, "k" + key, "v" + key);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "preload-" + i);
+            loaders.add(loader);
+            loader.start();
+        }
+        for (Thread loader : loaders) {
+            loader.join();
+        }
+    }
+
+    // Prints throughput once a second until the run ends.
+    private void reportProgress(long start, long measureStart, long end) throws InterruptedException {
+        long last = 0;
+        long tick = start;
+        while (end - System.nanoTime() > 0) {
+            tick += TimeUnit.SECONDS.toNanos(1);
+            long wait = Math.min(tick, end) - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            long now = completed.sum();
+            String phase = tick - measureStart <= 0 ? " (warmup)" : "";
+            System.out.println("[" + Clock.timeStamp() + "] " + (now - last) + " ops/s" + phase);
+            last = now;
+        }
+    }
+
+    private void report(long measuredNanos) {
+        LatencyHistogram all = new LatencyHistogram();
+        long allErrors = 0;
+        for (Operation operation : Operation.values()) {
+            all.add(histograms[operation.ordinal()]);
+            allErrors += errors[operation.ordinal()].sum();
+        }
+        double seconds = measuredNanos / 1e9;
+        System.out.println("[" + Clock.timeStamp() + "] " + all.count() + " ops in " + durationSeconds + " s: "
+                + String.format("%.0f", all.count() / seconds) + " ops/s, " + allErrors + " without a reply");
+        System.out.println(String.format("%-7s %10s %10s %9s %9s %9s %9s %9s %9s",
+                "op", "count", "ops/s", "mean", "p50", "p90", "p99", "p99.9", "max") + "  (latency in us)");
+        for (Operation operation : Operation.values()) {
+            System.out.println(row(operation.name(), histograms[operation.ordinal()], seconds));
+        }
+        System.out.println(row("ALL", all, seconds));
+    }
+
+    private static String row(String name, LatencyHistogram histogram, double seconds) {
+        StringBuilder row = new StringBuilder(String.format("%-7s %10d %10.0f %9.1f", name, histogram.count(),
+                histogram.count() / seconds, histogram.mean() / 1000));
+        for (double percentile : PERCENTILES) {
+            row.append(String.format(" %9.1f", histogram.percentile(percentile) / 1000.0));
+        }
+        return row.append(String.format(" %9.1f", histogram.max() / 1000.0)).toString();
+    }
+
+    private String describe() {
+        return protocol.toUpperCase() + (binary ? " binary" : " text") + " load against " + host + ":" + port
+                + ", " + connections + " connections, " + (rate == 0 ? "unthrottled" : rate + " ops/s target")
+                + ", GET:PUT:DELETE " + mix[0] + ":" + mix[1] + ":" + mix[2] + ", " + keys + " "
+                + (distribution.equals("zipfian") ? "zipfian (theta " + zipfTheta + ")" : "uniform") + " keys, "
+                + warmupSeconds + " s warmup + " + durationSeconds + " s";
+    }
+
+    private static int[] parseMix(String text) {
+        String[] parts = text.split(":");
+        try {
+            int[] mix = {Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2])};
+            if (parts.length == 3 && mix[0] >= 0 && mix[1] >= 0 && mix[2] >= 0 && mix[0] + mix[1] + mix[2] > 0) {
+                return mix;
+            }
+        } catch (RuntimeException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid mix: " + text + ". Usage: --mix=<get>:<put>:<delete>");
+    }
+
+    private Connection connect() throws IOException {
+        switch (protocol) {
+            case "tcp":
+                return new TcpConnection(host, port, binary);
+            case "udp":
+                return new UdpConnection(host, port, binary, timeoutMs);
+            default:
+                throw new IllegalArgumentException("Invalid protocol: " + protocol);
+        }
+    }
+
+    private interface Connection extends Closeable {
+        // Returns false when no reply arrived in time.
+        boolean execute(Operation operation, String... args) throws IOException;
+
+        @Override
+        void close();
+    }
+
+    private static final class TcpConnection implements Connection {
+        private final Socket socket;
+        private final DataInputStream dataIn;
+        private final DataOutputStream dataOut;
+        private final boolean binary;
+        private byte[] replyBody = new byte[256];
+
+        TcpConnection(String host, int port, boolean binary) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.binary = binary;
+            if (binary) {
+                dataOut.writeUTF(BinaryProtocol.NEGOTIATE + " " + BinaryProtocol.VERSION);
+                dataOut.flush();
+                if (!BinaryProtocol.isAccepted(dataIn.readUTF())) {
+                    socket.close();
+                    throw new IOException("Server does not support the binary protocol");
+                }
+            }
+        }
+
+        @Override
+        public boolean execute(Operation operation, String... args) throws IOException {
+            if (!binary) {
+                dataOut.writeUTF(operation.name() + " " + String.join(" ", args));
+                dataOut.flush();
+                dataIn.readUTF();
+                return true;
+            }
+            byte[] body = BinaryProtocol.encodeRequest(operation.opcode, args);
+            dataOut.writeInt(body.length);
+            dataOut.write(body);
+            dataOut.flush();
+            int length = dataIn.readInt();
+            if (length > replyBody.length) {
+                replyBody = new byte[length];
+            }
+            dataIn.readFully(replyBody, 0, length);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (binary) {
+                    byte[] body = BinaryProtocol.encodeRequest(BinaryProtocol.OP_QUIT);
+                    dataOut.writeInt(body.length);
+                    dataOut.write(body);
+                } else {
+                    dataOut.writeUTF("QUIT");
+                }
+                dataOut.flush();
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Requests are tagged like UDPClient's, but a lost one is counted rather than retransmitted.
+    private static final class UdpConnection implements Connection {
+        private final DatagramSocket socket;
+        private final boolean binary;
+        private final byte[] receiveData = new byte[65507];
+        private final DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+        private final long timeoutNanos;
+        private int nextRequestId = new Random().nextInt(Integer.MAX_VALUE);
+
+        UdpConnection(String host, int port, boolean binary, int timeoutMs) throws IOException {
+            socket = new DatagramSocket();
+            socket.connect(InetAddress.getByName(host), port);
+            this.binary = binary;
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        }
+
+        @Override
+        public boolean execute(Operation operation, String... args) throws IOException {
+            int requestId = nextRequestId;
+            nextRequestId = requestId == Integer.MAX_VALUE ? 0 : requestId + 1;
+            byte[] sendData = binary
+                    ? UDPClient.binaryDatagram(BinaryProtocol.encodeRequest(requestId, operation.opcode, args))
+                    : ("#" + requestId + " " + operation.name() + " " + String.join(" ", args)).getBytes();
+            socket.send(new DatagramPacket(sendData, sendData.length));
+            long deadline = System.nanoTime() + timeoutNanos;
+            try {
+                long remaining;
+                while ((remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) > 0) {
+                    socket.setSoTimeout((int) remaining);
+                    receivePacket.setLength(receiveData.length);
+                    socket.receive(receivePacket);
+                    if (UDPClient.matches(receivePacket, requestId, binary)) {
+                        return true;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // counted as an error by the caller
+            }
+            return false;
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+
+    // Zipfian ranks over [0, items) after Gray et al., "Quickly Generating Billion-Record Synthetic
+    // Databases", as used by YCSB. Rank 0 is the hottest key.
+    private static final class Zipfian {
+        private final long items;
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        Zipfian(long items, double theta) {
+            this.items = items;
+            this.theta = theta;
+            this.alpha = 1 / (1 - theta);
+            this.zetaN = zeta(items, theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        long next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, theta)) {
+                return Math.min(1, items - 1);
+            }
+            return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// KVClient's bounded local copy of recent GET results (--near-cache=<entries>). The server pushes
+// an invalidation for every key this client has read once it changes, so a hit is as fresh as a
+// round trip would have been, give or take the push's flight time.
+//
+// A GET that misses leaves a Loading marker under its key and only replaces that marker with the
+// value if nothing invalidated the key in between; otherwise a reply read before a change could
+// land after the change's invalidation and stay cached for good. Hits only read the map and stamp
+// the entry, and a full cache evicts the least recently read of a few entries sampled from a
+// cursor that walks the map, like the server's sampled LRU.
+final class NearCache {
+    private static final int SAMPLES = 5;
+
+    private static final class Loading {
+    }
+
+    private static final class Entry {
+        final String value;
+        // Racy on purpose: only used to pick eviction victims.
+        int lastRead;
+
+        Entry(String value) {
+            this.value = value;
+            lastRead = now();
+        }
+    }
+
+    private final int maxEntries;
+    // Entry or Loading.
+    private final ConcurrentHashMap<String, Object> entries = new ConcurrentHashMap<>();
+    // Only touched while holding evicting.
+    private final Object evicting = new Object();
+    private Iterator<Map.Entry<String, Object>> cursor;
+
+    NearCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("near-cache must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    // The cached value, or null on a miss.
+    String get(String key) {
+        Object cached = entries.get(key);
+        if (!(cached instanceof Entry)) {
+            return null;
+        }
+        Entry entry = (Entry) cached;
+        int now = now();
+        if (entry.lastRead != now) {
+            entry.lastRead = now;
+        }
+        return entry.value;
+    }
+
+    // Called before a GET for key is sent; pass the result to loaded() with its reply.
+    Object loading(String key) {
+        Loading loading = new Loading();
+        entries.put(key, loading);
+        return loading;
+    }
+
+    // value is null when the key does not exist or the GET failed; neither is cached.
+    void loaded(String key, Object loading, String value) {
+        if (value == null) {
+            entries.remove(key, loading);
+            return;
+        }
+        if (entries.replace(key, loading, new Entry(value)) && entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    // After a lost connection, whose invalidations may never arrive.
+    void clear() {
+        entries.clear();
+    }
+
+    private void evict() {
+        synchronized (evicting) {
+            while (entries.size() > maxEntries) {
+                int now = now();
+                Map.Entry<String, Object> oldest = null;
+                int oldestAge = Integer.MIN_VALUE;
+                for (int i = 0; i < SAMPLES; i++) {
+                    if (cursor == null || !cursor.hasNext()) {
+                        cursor = entries.entrySet().iterator();
+                        if (!cursor.hasNext()) {
+                            return;
+                        }
+                    }
+                    Map.Entry<String, Object> sampled = cursor.next();
+                    Object value = sampled.getValue();
+                    // Loading markers go first: their GET is still out and caching it can wait.
+                    int age = value instanceof Entry ? now - ((Entry) value).lastRead : Integer.MAX_VALUE;
+                    if (age > oldestAge) {
+                        oldest = sampled;
+                        oldestAge = age;
+                    }
+                }
+                entries.remove(oldest.getKey(), oldest.getValue());
+            }
+        }
+    }
+
+    // Roughly milliseconds; only differences matter.
+    private static int now() {
+        return (int) (System.nanoTime() >>> 20);
+    }
+}
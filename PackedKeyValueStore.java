@@ -0,0 +1,521 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+
+// Store for short keys and values that allocates no objects per entry. Entries live in fixed-width
+// slots of open-addressing (linear probing) tables held in direct buffers, one table per segment:
+//   u8 state | u8 key length | u8 value length | u8 unused | u32 key hash | key chars | value chars
+// Readers take an optimistic stamp and fall back to the read lock only if a writer got in.
+// The sorted key index is off by default here, since it would add a String and a skip-list node
+// per key; RANGE and PREFIX then sort the keys on every call unless --sorted-index=true.
+public class PackedKeyValueStore extends KeyValueStore {
+    // The length limit the servers already enforce on keys and values.
+    public static final int MAX_LENGTH = 10;
+    private static final int SEGMENTS = 64;
+    private static final int HEADER_SIZE = 8;
+    private static final int KEY_OFFSET = HEADER_SIZE;
+    private static final int VALUE_OFFSET = KEY_OFFSET + 2 * MAX_LENGTH;
+    private static final int SLOT_SIZE = VALUE_OFFSET + 2 * MAX_LENGTH;
+    private static final byte EMPTY = 0;
+    private static final byte FULL = 1;
+    private static final byte DELETED = 2;
+    private static final int MIN_SEGMENT_SLOTS = 1024;
+    // Keeps a segment's table within one ByteBuffer.
+    private static final int MAX_SEGMENT_SLOTS = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_SIZE);
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public PackedKeyValueStore() {
+        this(null, false, 0, null);
+    }
+
+    // expectedEntries presizes the tables so loading that many keys never rehashes. eviction is
+    // null for an unbounded store.
+    public PackedKeyValueStore(WriteAheadLog log, boolean sortedIndex, int expectedEntries, EvictionPolicy eviction) {
+        super(log, sortedIndex, eviction);
+        if (expectedEntries < 0) {
+            throw new IllegalArgumentException("expectedEntries must not be negative: " + expectedEntries);
+        }
+        long perSegment = (long) expectedEntries / SEGMENTS * 4 / 3 + 1;
+        int slots = MIN_SEGMENT_SLOTS;
+        while (slots < perSegment && slots < MAX_SEGMENT_SLOTS) {
+            slots <<= 1;
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(slots);
+        }
+        open();
+    }
+
+    @Override
+    public String get(String key) {
+        String value = lookup(key);
+        if (value != null) {
+            accessed(key);
+        }
+        return value;
+    }
+
+    // The unexpired value of key, or null; does not count as a read.
+    private String lookup(String key) {
+        if (key.length() > MAX_LENGTH) {
+            return null;
+        }
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        String value = segment.lookup(key, hash);
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                value = segment.lookup(key, hash);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        if (value == null || expired(key)) {
+            return null;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    @Override
+    boolean contains(String key) {
+        return lookup(key) != null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    @Override
+    public Iterable<String> keys() {
+        return unexpired(scan((table, base) -> readChars(table, base + KEY_OFFSET, table.get(base + 1))));
+    }
+
+    @Override
+    public Status putIfAbsent(String key, String value, long expiresAt) {
+        if (key.length() > MAX_LENGTH || value.length() > MAX_LENGTH) {
+            return Status.TOO_LARGE;
+        }
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long position;
+        long stamp = segment.lock.writeLock();
+        try {
+            dropIfExpired(segment, key, hash);
+            if (segment.find(key, hash) >= 0) {
+                return Status.KEY_EXISTS;
+            }
+            if (rejectingNewKeys()) {
+                return Status.STORE_FULL;
+            }
+            segment.insert(key, hash, value);
+            added(key, value);
+            position = logged(WriteAheadLog.PUT, key, value);
+            if (expiresAt != NO_EXPIRY) {
+                position = expiring(key, expiresAt);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        awaitDurable(position);
+        makeRoom();
+        return Status.OK;
+    }
+
+    @Override
+    public Status remove(String key) {
+        if (key.length() > MAX_LENGTH) {
+            return Status.KEY_NOT_FOUND;
+        }
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long position;
+        long stamp = segment.lock.writeLock();
+        try {
+            dropIfExpired(segment, key, hash);
+            int slot = segment.find(key, hash);
+            if (slot < 0) {
+                return Status.KEY_NOT_FOUND;
+            }
+            String value = segment.readValue(slot);
+            segment.delete(slot);
+            removed(key, value);
+            position = logged(WriteAheadLog.DELETE, key);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        awaitDurable(position);
+        return Status.OK;
+    }
+
+    @Override
+    public Status replace(String key, String value, long expiresAt) {
+        if (key.length() > MAX_LENGTH) {
+            return Status.KEY_NOT_FOUND;
+        }
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long position;
+        long stamp = segment.lock.writeLock();
+        try {
+            dropIfExpired(segment, key, hash);
+            int slot = segment.find(key, hash);
+            if (slot < 0) {
+                return Status.KEY_NOT_FOUND;
+            }
+            if (value.length() > MAX_LENGTH) {
+                return Status.TOO_LARGE;
+            }
+            String oldValue = segment.readValue(slot);
+            segment.writeValue(slot, value);
+            replaced(oldValue, value);
+            position = logged(WriteAheadLog.PUT, key, value);
+            if (expiresAt != NO_EXPIRY) {
+                position = expiring(key, expiresAt);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        awaitDurable(position);
+        makeRoom();
+        return Status.OK;
+    }
+
+    @Override
+    public Status rename(String oldKey, String newKey) {
+        if (oldKey.length() > MAX_LENGTH) {
+            return newKey.length() <= MAX_LENGTH && containsKey(newKey) ? Status.KEY_EXISTS : Status.KEY_NOT_FOUND;
+        }
+        if (newKey.length() > MAX_LENGTH) {
+            return containsKey(oldKey) ? Status.TOO_LARGE : Status.KEY_NOT_FOUND;
+        }
+        int oldHash = hash(oldKey);
+        int newHash = hash(newKey);
+        Segment from = segmentFor(oldHash);
+        Segment to = segmentFor(newHash);
+        // Lock in segment order so two opposite renames cannot deadlock.
+        Segment first = segmentIndex(oldHash) <= segmentIndex(newHash) ? from : to;
+        Segment second = first == from ? to : from;
+        long position;
+        long firstStamp = first.lock.writeLock();
+        long secondStamp = second == first ? 0 : second.lock.writeLock();
+        try {
+            dropIfExpired(from, oldKey, oldHash);
+            dropIfExpired(to, newKey, newHash);
+            if (to.find(newKey, newHash) >= 0) {
+                return Status.KEY_EXISTS;
+            }
+            int slot = from.find(oldKey, oldHash);
+            if (slot < 0) {
+                return Status.KEY_NOT_FOUND;
+            }
+            String value = from.readValue(slot);
+            // Delete first: inserting may rehash the table and move the old slot.
+            from.delete(slot);
+            to.insert(newKey, newHash, value);
+            added(newKey, value);
+            removed(oldKey, value);
+            position = logged(WriteAheadLog.RENAME, oldKey, newKey, value);
+        } finally {
+            if (second != first) {
+                second.lock.unlockWrite(secondStamp);
+            }
+            first.lock.unlockWrite(firstStamp);
+        }
+        awaitDurable(position);
+        return Status.OK;
+    }
+
+    @Override
+    public Status expire(String key, long expiresAt) {
+        if (key.length() > MAX_LENGTH) {
+            return Status.KEY_NOT_FOUND;
+        }
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long position;
+        long stamp = segment.lock.writeLock();
+        try {
+            dropIfExpired(segment, key, hash);
+            if (segment.find(key, hash) < 0) {
+                return Status.KEY_NOT_FOUND;
+            }
+            position = expiring(key, expiresAt);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        awaitDurable(position);
+        return Status.OK;
+    }
+
+    @Override
+    protected void removeIfExpired(String key) {
+        if (key.length() > MAX_LENGTH) {
+            return;
+        }
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            dropIfExpired(segment, key, hash);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    // Caller holds the segment's write lock. As in the striped store, nothing waits for the DELETE
+    // to be durable.
+    private void dropIfExpired(Segment segment, String key, int hash) {
+        if (!clearIfExpired(key)) {
+            return;
+        }
+        int slot = segment.find(key, hash);
+        if (slot >= 0) {
+            String value = segment.readValue(slot);
+            segment.delete(slot);
+            removed(key, value);
+            logged(WriteAheadLog.DELETE, key);
+        }
+    }
+
+    @Override
+    protected String restore(String key, String value) {
+        if (key.length() > MAX_LENGTH || value.length() > MAX_LENGTH) {
+            throw new IllegalStateException("Logged entry too large for the packed store: " + key);
+        }
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        int slot = segment.find(key, hash);
+        if (slot < 0) {
+            segment.insert(key, hash, value);
+            return null;
+        }
+        String previous = segment.readValue(slot);
+        segment.writeValue(slot, value);
+        return previous;
+    }
+
+    @Override
+    protected String restoreRemoval(String key) {
+        if (key.length() > MAX_LENGTH) {
+            return null;
+        }
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        int slot = segment.find(key, hash);
+        if (slot < 0) {
+            return null;
+        }
+        String previous = segment.readValue(slot);
+        segment.delete(slot);
+        return previous;
+    }
+
+    @Override
+    protected Iterable<Map.Entry<String, String>> entries() {
+        return scan((table, base) -> new AbstractMap.SimpleImmutableEntry<>(
+                readChars(table, base + KEY_OFFSET, table.get(base + 1)),
+                readChars(table, base + VALUE_OFFSET, table.get(base + 2))));
+    }
+
+    // Copies out one segment at a time under its read lock, so iteration is weakly consistent like
+    // the striped store's and never holds a lock between calls to next().
+    private <T> Iterable<T> scan(BiFunction<ByteBuffer, Integer, T> reader) {
+        return () -> new Iterator<T>() {
+            private int nextSegment;
+            private Iterator<T> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && nextSegment < segments.length) {
+                    current = segments[nextSegment++].collect(reader).iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[segmentIndex(hash)];
+    }
+
+    // Top bits pick the segment, low bits the slot, so the two stay independent.
+    private static int segmentIndex(int hash) {
+        return hash >>> 26;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static String readChars(ByteBuffer table, int offset, int length) {
+        // An optimistic reader may see a torn length; never read past the slot.
+        length = Math.min(length & 0xFF, MAX_LENGTH);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = table.getChar(offset + 2 * i);
+        }
+        return new String(chars);
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private ByteBuffer table;
+        // FULL slots, and FULL plus DELETED slots; the table is rebuilt when used passes 3/4.
+        private int size;
+        private int used;
+
+        private Segment(int slots) {
+            table = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+        }
+
+        // Safe without the lock: every index is bounded by the table it was read from.
+        private String lookup(String key, int hash) {
+            ByteBuffer current = table;
+            int slot = find(current, key, hash);
+            return slot < 0 ? null : readChars(current, slot * SLOT_SIZE + VALUE_OFFSET, current.get(slot * SLOT_SIZE + 2));
+        }
+
+        private int find(String key, int hash) {
+            return find(table, key, hash);
+        }
+
+        // Returns the slot holding key, or -1 if it is absent.
+        private static int find(ByteBuffer table, String key, int hash) {
+            int slots = table.capacity() / SLOT_SIZE;
+            int mask = slots - 1;
+            for (int probe = 0, slot = hash & mask; probe < slots; probe++, slot = (slot + 1) & mask) {
+                int base = slot * SLOT_SIZE;
+                byte state = table.get(base);
+                if (state == EMPTY) {
+                    return -1;
+                }
+                if (state == FULL && table.getInt(base + 4) == hash && keyEquals(table, base, key)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean keyEquals(ByteBuffer table, int base, String key) {
+            if (table.get(base + 1) != key.length()) {
+                return false;
+            }
+            for (int i = 0; i < key.length(); i++) {
+                if (table.getChar(base + KEY_OFFSET + 2 * i) != key.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Caller holds the write lock and has checked that key is absent.
+        private void insert(String key, int hash, String value) {
+            int slots = table.capacity() / SLOT_SIZE;
+            if (used + 1 > slots / 4 * 3) {
+                // Mostly tombstones: rebuild at the same size. Otherwise double.
+                int newSlots = size + 1 > slots / 2 ? slots * 2 : slots;
+                if (newSlots > MAX_SEGMENT_SLOTS) {
+                    throw new IllegalStateException("Packed store segment is full (" + size + " entries)");
+                }
+                rehash(newSlots);
+            }
+            int mask = table.capacity() / SLOT_SIZE - 1;
+            int slot = hash & mask;
+            while (table.get(slot * SLOT_SIZE) == FULL) {
+                slot = (slot + 1) & mask;
+            }
+            int base = slot * SLOT_SIZE;
+            if (table.get(base) == EMPTY) {
+                used++;
+            }
+            size++;
+            table.put(base + 1, (byte) key.length());
+            table.putInt(base + 4, hash);
+            for (int i = 0; i < key.length(); i++) {
+                table.putChar(base + KEY_OFFSET + 2 * i, key.charAt(i));
+            }
+            writeValue(slot, value);
+            table.put(base, FULL);
+        }
+
+        private void writeValue(int slot, String value) {
+            int base = slot * SLOT_SIZE;
+            table.put(base + 2, (byte) value.length());
+            for (int i = 0; i < value.length(); i++) {
+                table.putChar(base + VALUE_OFFSET + 2 * i, value.charAt(i));
+            }
+        }
+
+        private String readValue(int slot) {
+            int base = slot * SLOT_SIZE;
+            return readChars(table, base + VALUE_OFFSET, table.get(base + 2));
+        }
+
+        private void delete(int slot) {
+            table.put(slot * SLOT_SIZE, DELETED);
+            size--;
+        }
+
+        private void rehash(int newSlots) {
+            ByteBuffer fresh = ByteBuffer.allocateDirect(newSlots * SLOT_SIZE);
+            int mask = newSlots - 1;
+            int oldSlots = table.capacity() / SLOT_SIZE;
+            for (int slot = 0; slot < oldSlots; slot++) {
+                int base = slot * SLOT_SIZE;
+                if (table.get(base) != FULL) {
+                    continue;
+                }
+                int target = table.getInt(base + 4) & mask;
+                while (fresh.get(target * SLOT_SIZE) != EMPTY) {
+                    target = (target + 1) & mask;
+                }
+                fresh.put(target * SLOT_SIZE, table, base, SLOT_SIZE);
+            }
+            table = fresh;
+            used = size;
+        }
+
+        private <T> List<T> collect(BiFunction<ByteBuffer, Integer, T> reader) {
+            long stamp = lock.readLock();
+            try {
+                List<T> items = new ArrayList<>(size);
+                int slots = table.capacity() / SLOT_SIZE;
+                for (int slot = 0; slot < slots; slot++) {
+                    if (table.get(slot * SLOT_SIZE) == FULL) {
+                        items.add(reader.apply(table, slot * SLOT_SIZE));
+                    }
+                }
+                return items;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.*;
+import java.net.*;
+import java.util.HashSet;
+import java.util.Set;
+
+// Replica side of replication (--replica-of=<primary host>:<replication port>). One thread keeps a
+// connection to the primary's ReplicationServer, applies the feed to the local store in order, and
+// reconnects with a doubling delay when the connection drops. It remembers the feed id and the
+// offset it has applied up to, so a short disconnect only replays what it missed; after a primary
+// restart or a long outage the primary sends a full snapshot instead. A primary silent for several
+// heartbeats counts as gone.
+final class ReplicaSync implements Runnable {
+    private static final int READ_TIMEOUT_MS = 5 * ReplicationServer.HEARTBEAT_MS;
+    private static final long MIN_RETRY_MS = 100;
+    private static final long MAX_RETRY_MS = 5000;
+
+    private final KeyValueStore store;
+    private final String host;
+    private final int port;
+    private final RequestLog requestLog;
+    // Only the sync thread touches these.
+    private String feedId = "?";
+    private long nextOffset;
+    private long retryMs = MIN_RETRY_MS;
+
+    ReplicaSync(KeyValueStore store, String primary, RequestLog requestLog) {
+        int colon = primary.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Invalid replica-of: " + primary + ". Use host:port");
+        }
+        this.store = store;
+        this.host = primary.substring(0, colon);
+        try {
+            this.port = Integer.parseInt(primary.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid replica-of: " + primary + ". Use host:port");
+        }
+        this.requestLog = requestLog;
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "replica-sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                sync();
+            } catch (IOException e) {
+                log("Lost primary " + host + ":" + port + " (" + e.getMessage() + "), retrying in " + retryMs + " ms");
+            }
+            try {
+                Thread.sleep(retryMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            retryMs = Math.min(MAX_RETRY_MS, retryMs * 2);
+        }
+    }
+
+    private void sync() throws IOException {
+        try (
+                Socket socket = new Socket(host, port);
+                DataInputStream dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+                DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))
+        ) {
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            dataOut.writeUTF("SYNC " + feedId + " " + nextOffset);
+            dataOut.flush();
+            String[] reply = dataIn.readUTF().split(" ");
+            if (reply.length != 3 || !(reply[0].equals("FULL") || reply[0].equals("CONTINUE"))) {
+                throw new IOException("Unexpected reply from primary: " + String.join(" ", reply));
+            }
+            long offset = Long.parseLong(reply[2]);
+            if (reply[0].equals("FULL")) {
+                int entries = loadSnapshot(dataIn);
+                log("Full resync from primary " + host + ":" + port + ": " + entries + " keys");
+            }
+            // Only now, so a snapshot cut short is asked for again.
+            feedId = reply[1];
+            nextOffset = offset;
+            retryMs = MIN_RETRY_MS;
+            log("Replicating from primary " + host + ":" + port + " at offset " + nextOffset);
+            while (true) {
+                byte type = dataIn.readByte();
+                if (type == ReplicationServer.HEARTBEAT) {
+                    continue;
+                }
+                store.applyReplicated(type, ReplicationServer.readFields(dataIn, type));
+                nextOffset++;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected offset from primary: " + e.getMessage());
+        }
+    }
+
+    // Applies the snapshot over the current contents, then drops every key the primary did not send.
+    private int loadSnapshot(DataInputStream dataIn) throws IOException {
+        Set<String> seen = new HashSet<>();
+        while (true) {
+            byte type = dataIn.readByte();
+            if (type == ReplicationServer.SNAPSHOT_DONE) {
+                break;
+            }
+            if (type != ReplicationServer.SNAPSHOT_ENTRY) {
+                throw new IOException("Unexpected record in snapshot: " + type);
+            }
+            String[] entry = ReplicationServer.readFields(dataIn, type);
+            store.applyReplicated(WriteAheadLog.PUT, new String[] {entry[0], entry[1]});
+            // Always, to clear a TTL the key had here but no longer has on the primary.
+            store.applyReplicated(WriteAheadLog.EXPIRE, new String[] {entry[0], entry[2]});
+            seen.add(entry[0]);
+        }
+        for (String key : store.keys()) {
+            if (!seen.contains(key)) {
+                store.applyReplicated(WriteAheadLog.DELETE, new String[] {key});
+            }
+        }
+        return seen.size();
+    }
+
+    private void log(String message) {
+        if (requestLog.connectionEvents()) {
+            requestLog.log(message);
+        }
+    }
+}
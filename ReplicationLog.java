@@ -0,0 +1,119 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The primary's ordered feed of store changes, kept in memory for replicas. Records are the write-
+// ahead log's blind sets, deletes and renames, numbered from 0 and appended by KeyValueStore while
+// the changed keys are still locked, so a key's records are numbered in the order it changed.
+// Appending is one atomic increment plus a slot write; nothing waits for replicas. A replica that
+// has caught up blocks in await() instead of polling, and only then does an append take a lock, to
+// wake it.
+//
+// The feed keeps the newest capacity records. A replica that falls further behind than that, or
+// that last synced with a previous run of the primary (a different id), needs a full resync.
+final class ReplicationLog {
+    static final class Record {
+        final long sequence;
+        final byte type;
+        final String[] fields;
+
+        private Record(long sequence, byte type, String[] fields) {
+            this.sequence = sequence;
+            this.type = type;
+            this.fields = fields;
+        }
+    }
+
+    // Names this run of the primary; offsets from another run mean nothing here.
+    final String id = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    private final AtomicReferenceArray<Record> ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Readers blocked in await(); appends skip the lock while there are none.
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+
+    // capacity is rounded up to a power of two.
+    ReplicationLog(int capacity) {
+        if (capacity < 2 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("replication backlog must be between 2 and 2^30 records: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        ring = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    void append(byte type, String... fields) {
+        long sequence = tail.getAndIncrement();
+        Record record = new Record(sequence, type, fields);
+        int slot = (int) sequence & mask;
+        while (true) {
+            Record current = ring.get(slot);
+            // A writer a whole lap ahead already took the slot; the replicas reading this record
+            // would have lost it anyway.
+            if (current != null && current.sequence > sequence) {
+                return;
+            }
+            if (ring.compareAndSet(slot, current, record)) {
+                break;
+            }
+        }
+        // Read after the record is published, and await() counts itself before looking for the
+        // record, so either the reader sees the record or this sees the reader.
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                appended.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Sequence the next record will get.
+    long tail() {
+        return tail.get();
+    }
+
+    // Whether every record from sequence on is still here or yet to come.
+    boolean covers(long sequence) {
+        long tail = tail();
+        return sequence <= tail && tail - sequence <= mask;
+    }
+
+    // The record at sequence, or null if it is not published yet. Throws once it has been
+    // overwritten, i.e. the reader fell more than capacity records behind.
+    Record read(long sequence) {
+        Record record = ring.get((int) sequence & mask);
+        if (record == null || record.sequence < sequence) {
+            return null;
+        }
+        if (record.sequence > sequence) {
+            throw new IllegalStateException("Replica fell more than " + (mask + 1) + " records behind");
+        }
+        return record;
+    }
+
+    // Like read(), but waits up to timeoutNanos for the record to be published.
+    Record await(long sequence, long timeoutNanos) throws InterruptedException {
+        Record record = read(sequence);
+        if (record != null) {
+            return record;
+        }
+        lock.lock();
+        waiting.incrementAndGet();
+        try {
+            while ((record = read(sequence)) == null && timeoutNanos > 0) {
+                timeoutNanos = appended.awaitNanos(timeoutNanos);
+            }
+            return record;
+        } finally {
+            waiting.decrementAndGet();
+            lock.unlock();
+        }
+    }
+}
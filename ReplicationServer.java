@@ -0,0 +1,180 @@
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.TimeUnit;
+
+// Primary side of replication, listening on --replication-port. A replica connects and sends
+//   SYNC <feed id> <next offset>            ("SYNC ? 0" the first time)
+// and gets back "CONTINUE <id> <offset>" when the feed still holds everything from that offset,
+// or "FULL <id> <offset>" followed by a snapshot of the store (SNAPSHOT_ENTRY records, then
+// SNAPSHOT_DONE). Either way the feed then streams from offset for as long as the connection
+// lasts, in batches of whatever has accumulated, with a HEARTBEAT after a second of quiet. An idle
+// sender sleeps in ReplicationLog.await() until the next write or heartbeat is due.
+//
+// A record is a u8 type followed by its fields as writeUTF strings: PUT carries key and value,
+// DELETE the key, RENAME old key, new key and value, EXPIRE key and deadline (epoch milliseconds,
+// 0 for none), and SNAPSHOT_ENTRY key, value and deadline. The snapshot is read while
+// writers carry on, which is safe for the same reason as the write-ahead log's: the feed from the
+// offset taken before it is replayed on top, and every record is a blind set or delete.
+final class ReplicationServer {
+    static final byte SNAPSHOT_ENTRY = 10;
+    static final byte SNAPSHOT_DONE = 11;
+    static final byte HEARTBEAT = 12;
+    static final int HEARTBEAT_MS = 1000;
+    private static final int BATCH_RECORDS = 4096;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final KeyValueStore store;
+    private final ReplicationLog feed;
+    private final int port;
+    private final RequestLog requestLog;
+
+    ReplicationServer(KeyValueStore store, ReplicationLog feed, int port, RequestLog requestLog) {
+        this.store = store;
+        this.feed = feed;
+        this.port = port;
+        this.requestLog = requestLog;
+    }
+
+    void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket replica = serverSocket.accept();
+                    Thread sender = new Thread(() -> serve(replica), "replication-" + replica.getPort());
+                    sender.setDaemon(true);
+                    sender.start();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Replication feed " + feed.id + " on port " + port);
+    }
+
+    private void serve(Socket socket) {
+        String replica = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        try (
+                socket;
+                DataInputStream dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE))
+        ) {
+            socket.setTcpNoDelay(true);
+            String[] hello = dataIn.readUTF().split(" ");
+            if (hello.length != 3 || !hello[0].equals("SYNC")) {
+                return;
+            }
+            long next = continueFrom(hello[1], hello[2]);
+            if (next >= 0) {
+                dataOut.writeUTF("CONTINUE " + feed.id + " " + next);
+                log("Replica " + replica + " continuing from offset " + next);
+            } else {
+                next = feed.tail();
+                dataOut.writeUTF("FULL " + feed.id + " " + next);
+                int entries = sendSnapshot(dataOut);
+                log("Replica " + replica + " sent a full snapshot of " + entries + " keys, streaming from offset " + next);
+            }
+            dataOut.flush();
+            stream(dataOut, next);
+        } catch (IOException | IllegalStateException e) {
+            log("Replica " + replica + " disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The offset to continue from, or -1 when the replica needs a full resync.
+    private long continueFrom(String id, String offset) {
+        if (!id.equals(feed.id)) {
+            return -1;
+        }
+        try {
+            long next = Long.parseLong(offset);
+            return next >= 0 && feed.covers(next) ? next : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int sendSnapshot(DataOutputStream dataOut) throws IOException {
+        int entries = 0;
+        for (java.util.Map.Entry<String, String> entry : store.entries()) {
+            writeRecord(dataOut, SNAPSHOT_ENTRY, entry.getKey(), entry.getValue(),
+                    Long.toString(store.expiresAt(entry.getKey())));
+            entries++;
+        }
+        dataOut.writeByte(SNAPSHOT_DONE);
+        return entries;
+    }
+
+    // Runs until the replica goes away or falls out of the feed.
+    private void stream(DataOutputStream dataOut, long next) throws IOException, InterruptedException {
+        long heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MS);
+        long lastSent = System.nanoTime();
+        while (true) {
+            int batch = 0;
+            ReplicationLog.Record record;
+            while (batch < BATCH_RECORDS && (record = feed.read(next)) != null) {
+                writeRecord(dataOut, record.type, record.fields);
+                next++;
+                batch++;
+            }
+            long now = System.nanoTime();
+            if (batch > 0) {
+                dataOut.flush();
+                lastSent = now;
+                continue;
+            }
+            long untilHeartbeat = lastSent + heartbeatNanos - now;
+            if (untilHeartbeat <= 0) {
+                dataOut.writeByte(HEARTBEAT);
+                dataOut.flush();
+                lastSent = now;
+                continue;
+            }
+            feed.await(next, untilHeartbeat);
+        }
+    }
+
+    private void log(String message) {
+        if (requestLog.connectionEvents()) {
+            requestLog.log(message);
+        }
+    }
+
+    static void writeRecord(DataOutputStream dataOut, byte type, String... fields) throws IOException {
+        dataOut.writeByte(type);
+        for (String field : fields) {
+            dataOut.writeUTF(field);
+        }
+    }
+
+    // Reads the fields of a record whose type byte has been read already.
+    static String[] readFields(DataInputStream dataIn, byte type) throws IOException {
+        String[] fields = new String[fieldCount(type)];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = dataIn.readUTF();
+        }
+        return fields;
+    }
+
+    private static int fieldCount(byte type) throws IOException {
+        switch (type) {
+            case WriteAheadLog.DELETE:
+                return 1;
+            case WriteAheadLog.PUT:
+            case WriteAheadLog.EXPIRE:
+                return 2;
+            case WriteAheadLog.RENAME:
+            case SNAPSHOT_ENTRY:
+                return 3;
+            case SNAPSHOT_DONE:
+            case HEARTBEAT:
+                return 0;
+            default:
+                throw new IOException("Unknown replication record type: " + type);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Request and connection logging. Lines go through an AsyncLogWriter, so a request thread only
+// claims a ring slot; under load the log can also be sampled or switched off:
+//   --request-log=all (default) | sampled | off
+//   --log-sample-rate=100      with sampled, about one request in this many is logged
+//   --log-file=<path>          rotating log file instead of the console
+//   --log-max-bytes=67108864 --log-files=5   rotate past this size, keeping this many old files
+//   --log-buffer=65536 --log-overflow=drop|block   ring size, and what a full ring does to callers
+// Connection open/close lines are logged unless the log is off.
+final class RequestLog {
+    private enum Mode { ALL, SAMPLED, OFF }
+
+    private final Mode mode;
+    private final int sampleRate;
+    // Null when the log is off.
+    private final AsyncLogWriter writer;
+
+    private RequestLog(Mode mode, int sampleRate, AsyncLogWriter writer) {
+        this.mode = mode;
+        this.sampleRate = sampleRate;
+        this.writer = writer;
+    }
+
+    static RequestLog fromConfig(ServerConfig config) {
+        String modeName = config.getString("request-log", "all");
+        int sampleRate = config.getInt("log-sample-rate", 100);
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("log-sample-rate must be positive: " + sampleRate);
+        }
+        Mode mode;
+        AsyncLogWriter.OverflowPolicy overflow;
+        try {
+            mode = Mode.valueOf(modeName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid request log: " + modeName + ". Use all, sampled or off");
+        }
+        String overflowName = config.getString("log-overflow", "drop");
+        try {
+            overflow = AsyncLogWriter.OverflowPolicy.valueOf(overflowName.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid log overflow: " + overflowName + ". Use drop or block");
+        }
+        if (mode == Mode.OFF) {
+            return new RequestLog(mode, sampleRate, null);
+        }
+        String file = config.getString("log-file", null);
+        try {
+            AsyncLogWriter writer = new AsyncLogWriter(file == null ? null : Paths.get(file),
+                    config.getInt("log-buffer", 65536), overflow, config.getInt("log-max-bytes", 64 << 20),
+                    config.getInt("log-files", 5));
+            return new RequestLog(mode, sampleRate, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Whether to log this request. Callers check before building the message.
+    boolean sampleRequest() {
+        switch (mode) {
+            case ALL:
+                return true;
+            case SAMPLED:
+                return ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+            default:
+                return false;
+        }
+    }
+
+    boolean connectionEvents() {
+        return mode != Mode.OFF;
+    }
+
+    void log(String message) {
+        writer.append(message, null, null, -1);
+    }
+
+    // The parts are joined by the writer thread, so callers pass them separately.
+    void log(String message, String detail) {
+        writer.append(message, detail, null, -1);
+    }
+
+    void log(String message, String detail, InetAddress address, int port) {
+        writer.append(message, detail, address, port);
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.*;
+
+public class ServerConfig {
+    private final Map<String, String> options = new HashMap<>();
+
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Invalid option: " + arg + ". Usage: --name=value");
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                config.options.put(arg.substring(2), "true");
+            } else {
+                config.options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return config;
+    }
+
+    public String getString(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    public int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + name + " expects a number, got: " + value);
+        }
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
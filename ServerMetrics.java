@@ -0,0 +1,320 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters shared by every thread of one server: per-command counts and latencies, connections,
+// bytes on the wire and UDP retry handling. Counters are LongAdders and each command's latency
+// histogram is striped by thread, so recording never makes request threads contend on one cache
+// line. Read through the STATS command or JMX.
+public final class ServerMetrics implements ServerMetricsMXBean {
+    public enum Command {
+        GET, PUT, DELETE, KEYS, EDIT_KEY, EDIT_VALUE, MGET, MPUT, MDELETE, SCAN, RANGE, PREFIX, STATS, EXPIRE, TTL, TRACK, INVALID;
+
+        private static final Command[] BY_OPCODE = {
+                INVALID, GET, PUT, DELETE, KEYS, EDIT_KEY, EDIT_VALUE, INVALID, MGET, MPUT, MDELETE, SCAN, RANGE,
+                PREFIX, STATS, EXPIRE, TTL, TRACK
+        };
+
+        static Command of(String name) {
+            switch (name) {
+                case "GET":
+                    return GET;
+                case "PUT":
+                    return PUT;
+                case "DELETE":
+                    return DELETE;
+                case "KEYS":
+                    return KEYS;
+                case "EDIT_KEY":
+                    return EDIT_KEY;
+                case "EDIT_VALUE":
+                    return EDIT_VALUE;
+                case "MGET":
+                    return MGET;
+                case "MPUT":
+                    return MPUT;
+                case "MDELETE":
+                    return MDELETE;
+                case "SCAN":
+                    return SCAN;
+                case "RANGE":
+                    return RANGE;
+                case "PREFIX":
+                    return PREFIX;
+                case "STATS":
+                    return STATS;
+                case "EXPIRE":
+                    return EXPIRE;
+                case "TTL":
+                    return TTL;
+                default:
+                    return INVALID;
+            }
+        }
+
+        static Command ofOpcode(byte opcode) {
+            return opcode > 0 && opcode < BY_OPCODE.length ? BY_OPCODE[opcode] : INVALID;
+        }
+    }
+
+    private final IntSupplier storeSize;
+    private final LongSupplier evictions;
+    private final int stripeMask;
+    // [command][stripe]
+    private final LatencyHistogram[][] latencies;
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder totalConnections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder idleClosedConnections = new LongAdder();
+    private final LongAdder backpressurePauses = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder udpRetransmissions = new LongAdder();
+    private final LongAdder udpRetriesInFlight = new LongAdder();
+    private final LongAdder udpDropped = new LongAdder();
+
+    public ServerMetrics(IntSupplier storeSize, LongSupplier evictions) {
+        this.storeSize = storeSize;
+        this.evictions = evictions;
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+        stripeMask = stripes - 1;
+        latencies = new LatencyHistogram[Command.values().length][stripes];
+        for (LatencyHistogram[] stripesOfCommand : latencies) {
+            for (int i = 0; i < stripes; i++) {
+                stripesOfCommand[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    // Registers the JMX view; a second server of the same class in one JVM keeps the first's name.
+    void register(String serverName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("protocols:type=" + serverName));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void recordCommand(Command command, long nanos) {
+        latencies[command.ordinal()][(int) Thread.currentThread().getId() & stripeMask].record(nanos);
+    }
+
+    void connectionOpened() {
+        activeConnections.increment();
+        totalConnections.increment();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    // Turned away at the connection limit.
+    void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    void connectionIdleClosed() {
+        idleClosedConnections.increment();
+    }
+
+    // Reading from a client stopped because its unsent responses reached the output buffer cap.
+    void backpressurePaused() {
+        backpressurePauses.increment();
+    }
+
+    void bytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    void bytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    // A retried request answered from the dedup cache.
+    void udpRetransmission() {
+        udpRetransmissions.increment();
+    }
+
+    // A retry that arrived while the original was still executing; the original's reply answers it.
+    void udpRetryInFlight() {
+        udpRetriesInFlight.increment();
+    }
+
+    // A reply that could not be sent.
+    void udpDropped() {
+        udpDropped.increment();
+    }
+
+    // Wraps a socket stream so everything read through it counts as bytes in.
+    InputStream meter(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesIn.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    bytesIn.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    OutputStream meter(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesOut.increment();
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                out.write(buffer, offset, length);
+                bytesOut.add(length);
+            }
+        };
+    }
+
+    // One line for the STATS command; latencies are in microseconds.
+    String describe() {
+        StringBuilder stats = new StringBuilder("Stats (latencies in us): connections=").append(getActiveConnections())
+                .append(" total_connections=").append(getTotalConnections())
+                .append(" rejected=").append(getRejectedConnections())
+                .append(" idle_closed=").append(getIdleClosedConnections())
+                .append(" backpressure_pauses=").append(getBackpressurePauses())
+                .append(" bytes_in=").append(getBytesIn())
+                .append(" bytes_out=").append(getBytesOut())
+                .append(" keys=").append(getStoreSize())
+                .append(" evictions=").append(getEvictions())
+                .append(" udp_retransmissions=").append(getUdpRetransmissions())
+                .append(" udp_retries_in_flight=").append(getUdpRetriesInFlight())
+                .append(" udp_dropped=").append(getUdpDropped());
+        for (Command command : Command.values()) {
+            LatencyHistogram histogram = latency(command);
+            if (histogram.count() > 0) {
+                stats.append(" | ").append(command).append(" n=").append(histogram.count())
+                        .append(" p50=").append(micros(histogram.percentile(50)))
+                        .append(" p99=").append(micros(histogram.percentile(99)))
+                        .append(" p99.9=").append(micros(histogram.percentile(99.9)));
+            }
+        }
+        return stats.toString();
+    }
+
+    private LatencyHistogram latency(Command command) {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram stripe : latencies[command.ordinal()]) {
+            merged.add(stripe);
+        }
+        return merged;
+    }
+
+    private static long micros(long nanos) {
+        return (nanos + 999) / 1000;
+    }
+
+    private Map<String, Long> perCommand(double percentile) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Command command : Command.values()) {
+            LatencyHistogram histogram = latency(command);
+            if (histogram.count() > 0) {
+                values.put(command.name(), percentile < 0 ? histogram.count() : micros(histogram.percentile(percentile)));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    @Override
+    public long getTotalConnections() {
+        return totalConnections.sum();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    @Override
+    public long getIdleClosedConnections() {
+        return idleClosedConnections.sum();
+    }
+
+    @Override
+    public long getBackpressurePauses() {
+        return backpressurePauses.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getStoreSize() {
+        return storeSize.getAsInt();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.getAsLong();
+    }
+
+    @Override
+    public long getUdpRetransmissions() {
+        return udpRetransmissions.sum();
+    }
+
+    @Override
+    public long getUdpRetriesInFlight() {
+        return udpRetriesInFlight.sum();
+    }
+
+    @Override
+    public long getUdpDropped() {
+        return udpDropped.sum();
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        return perCommand(-1);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP50Micros() {
+        return perCommand(50);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP99Micros() {
+        return perCommand(99);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP999Micros() {
+        return perCommand(99.9);
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.Map;
+
+// JMX view of ServerMetrics, registered as protocols:type=<server class>.
+public interface ServerMetricsMXBean {
+    long getActiveConnections();
+
+    long getTotalConnections();
+
+    long getRejectedConnections();
+
+    long getIdleClosedConnections();
+
+    long getBackpressurePauses();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getStoreSize();
+
+    // Keys a bounded store dropped to stay within its limits.
+    long getEvictions();
+
+    long getUdpRetransmissions();
+
+    long getUdpRetriesInFlight();
+
+    long getUdpDropped();
+
+    // Per command name, for commands seen at least once.
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getLatencyP50Micros();
+
+    Map<String, Long> getLatencyP99Micros();
+
+    Map<String, Long> getLatencyP999Micros();
+}
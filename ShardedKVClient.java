@@ -0,0 +1,381 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+// Spreads the keyspace over several servers. Every key lives on exactly one node, picked by a
+// HashRing shared by all clients, and each node is reached through its own KVClient pool; KEYS asks
+// every node and merges the answers. Options are KVClient's (except --host and --port) plus:
+//   --nodes=localhost:7856,localhost:7857   every node of the cluster, the same list in every client
+//   --vnodes=128                            ring points per node
+// Keys are routed by their lower-case form, the form PUT stores them under. A key that moves to
+// another node, by a join or a cross-node EDIT_KEY, takes its remaining TTL with it.
+//
+// Adding a node: java ShardedKVClient --nodes=<current nodes> --join=<new node> moves the keys the
+// new node now owns from the old nodes, after which clients are started with the longer list. While
+// join() runs, this client also looks for a key on its old node, so its reads and writes see keys
+// that have not moved yet. A write to a key at the moment that key is moved may be lost, so join at
+// a quiet time. Follow-up requests are chained with thenComposeAsync, as in KVClient, so none is
+// sent from a connection's reader thread.
+public final class ShardedKVClient implements Closeable {
+    // Keys moved concurrently during a join.
+    private static final int MOVE_BATCH = 1000;
+
+    private final String protocol;
+    private final int poolSize;
+    private final int timeoutMs;
+    private final int retransmitMs;
+    private final int window;
+    private final ConcurrentHashMap<String, KVClient> clients = new ConcurrentHashMap<>();
+    private volatile HashRing ring;
+    // The ring before the node being joined; null outside join().
+    private volatile HashRing previousRing;
+
+    public ShardedKVClient(List<String> nodes, int virtualNodes, String protocol, int poolSize, int timeoutMs,
+                           int retransmitMs, int window) throws IOException {
+        this.protocol = protocol;
+        this.poolSize = poolSize;
+        this.timeoutMs = timeoutMs;
+        this.retransmitMs = retransmitMs;
+        this.window = window;
+        ring = new HashRing(nodes, virtualNodes);
+        try {
+            for (String node : ring.nodes()) {
+                clients.put(node, open(node));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public static ShardedKVClient fromConfig(ServerConfig config) throws IOException {
+        List<String> nodes = Arrays.asList(config.getString("nodes", "localhost:7856").split(","));
+        return new ShardedKVClient(nodes, config.getInt("vnodes", 128), config.getString("protocol", "tcp"),
+                config.getInt("pool-size", 4), config.getInt("timeout-ms", 5000), config.getInt("retransmit-ms", 250),
+                config.getInt("window", 64));
+    }
+
+    private KVClient open(String node) throws IOException {
+        int colon = node.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Invalid node: " + node + ". Use host:port");
+        }
+        int port;
+        try {
+            port = Integer.parseInt(node.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid node: " + node + ". Use host:port");
+        }
+        return new KVClient(protocol, node.substring(0, colon), port, poolSize, timeoutMs, retransmitMs, window);
+    }
+
+    public List<String> nodes() {
+        return ring.nodes();
+    }
+
+    public String get(String key) throws IOException {
+        return await(getAsync(key));
+    }
+
+    public KeyValueStore.Status put(String key, String value) throws IOException {
+        return await(putAsync(key, value));
+    }
+
+    public KeyValueStore.Status put(String key, String value, int ttlSeconds) throws IOException {
+        return await(putAsync(key, value, ttlSeconds));
+    }
+
+    public KeyValueStore.Status delete(String key) throws IOException {
+        return await(deleteAsync(key));
+    }
+
+    public List<String> keys() throws IOException {
+        return await(keysAsync());
+    }
+
+    public KeyValueStore.Status editKey(String oldKey, String newKey) throws IOException {
+        return await(editKeyAsync(oldKey, newKey));
+    }
+
+    public KeyValueStore.Status editValue(String key, String newValue) throws IOException {
+        return await(editValueAsync(key, newValue));
+    }
+
+    public KeyValueStore.Status editValue(String key, String newValue, int ttlSeconds) throws IOException {
+        return await(editValueAsync(key, newValue, ttlSeconds));
+    }
+
+    public KeyValueStore.Status expire(String key, int ttlSeconds) throws IOException {
+        return await(expireAsync(key, ttlSeconds));
+    }
+
+    public long ttl(String key) throws IOException {
+        return await(ttlAsync(key));
+    }
+
+    public CompletableFuture<String> getAsync(String key) {
+        KVClient owner = owner(key);
+        KVClient previous = previousOwner(key);
+        if (previous == null) {
+            return owner.getAsync(key);
+        }
+        return owner.getAsync(key).thenComposeAsync(value -> value != null
+                ? CompletableFuture.completedFuture(value) : previous.getAsync(key));
+    }
+
+    public CompletableFuture<KeyValueStore.Status> putAsync(String key, String value) {
+        return put(key, client -> client.putAsync(key, value));
+    }
+
+    public CompletableFuture<KeyValueStore.Status> putAsync(String key, String value, int ttlSeconds) {
+        return put(key, client -> client.putAsync(key, value, ttlSeconds));
+    }
+
+    // PUT only adds a missing key, so while a join runs the key must also be absent from its old node.
+    private CompletableFuture<KeyValueStore.Status> put(String key, Function<KVClient, CompletableFuture<KeyValueStore.Status>> write) {
+        KVClient owner = owner(key);
+        KVClient previous = previousOwner(key);
+        if (previous == null) {
+            return write.apply(owner);
+        }
+        return previous.getAsync(key.toLowerCase()).thenComposeAsync(existing -> existing != null
+                ? CompletableFuture.completedFuture(KeyValueStore.Status.KEY_EXISTS) : write.apply(owner));
+    }
+
+    public CompletableFuture<KeyValueStore.Status> deleteAsync(String key) {
+        KVClient owner = owner(key);
+        KVClient previous = previousOwner(key);
+        if (previous == null) {
+            return owner.deleteAsync(key);
+        }
+        return owner.deleteAsync(key).thenCombine(previous.deleteAsync(key), (first, second) ->
+                first == KeyValueStore.Status.OK ? first : second);
+    }
+
+    public CompletableFuture<KeyValueStore.Status> editValueAsync(String key, String newValue) {
+        return change(key, client -> client.editValueAsync(key, newValue));
+    }
+
+    public CompletableFuture<KeyValueStore.Status> editValueAsync(String key, String newValue, int ttlSeconds) {
+        return change(key, client -> client.editValueAsync(key, newValue, ttlSeconds));
+    }
+
+    public CompletableFuture<KeyValueStore.Status> expireAsync(String key, int ttlSeconds) {
+        return change(key, client -> client.expireAsync(key, ttlSeconds));
+    }
+
+    // Milliseconds the key has left, -1 when it has no TTL and -2 when it does not exist.
+    public CompletableFuture<Long> ttlAsync(String key) {
+        KVClient owner = owner(key);
+        KVClient previous = previousOwner(key);
+        if (previous == null) {
+            return owner.ttlAsync(key);
+        }
+        return owner.ttlAsync(key).thenComposeAsync(ttl -> ttl == -2
+                ? previous.ttlAsync(key) : CompletableFuture.completedFuture(ttl));
+    }
+
+    // Applies a change to an existing key; while a join runs, on its old node if the new one lacks it.
+    private CompletableFuture<KeyValueStore.Status> change(String key, Function<KVClient, CompletableFuture<KeyValueStore.Status>> write) {
+        KVClient owner = owner(key);
+        KVClient previous = previousOwner(key);
+        if (previous == null) {
+            return write.apply(owner);
+        }
+        return write.apply(owner).thenComposeAsync(status -> status == KeyValueStore.Status.KEY_NOT_FOUND
+                ? write.apply(previous) : CompletableFuture.completedFuture(status));
+    }
+
+    // A rename within one node is atomic. Across nodes it copies the value to the new key's node and
+    // then deletes the old key, so another client can briefly see both keys.
+    public CompletableFuture<KeyValueStore.Status> editKeyAsync(String oldKey, String newKey) {
+        KVClient from = owner(oldKey);
+        KVClient to = owner(newKey);
+        if (from == to && previousRing == null) {
+            return from.editKeyAsync(oldKey, newKey);
+        }
+        if (newKey.length() > BinaryProtocol.MAX_KEY_LENGTH) {
+            return CompletableFuture.completedFuture(KeyValueStore.Status.TOO_LARGE);
+        }
+        String key = oldKey.toLowerCase();
+        return getAsync(key).thenCombine(ttlAsync(key), Entry::new).thenComposeAsync(entry -> {
+            if (entry.value == null || entry.ttl == -2) {
+                return CompletableFuture.completedFuture(KeyValueStore.Status.KEY_NOT_FOUND);
+            }
+            CompletableFuture<KeyValueStore.Status> put = entry.ttl < 0
+                    ? putAsync(newKey, entry.value) : putAsync(newKey, entry.value, entry.ttlSeconds());
+            return put.thenComposeAsync(status -> status != KeyValueStore.Status.OK
+                    ? CompletableFuture.completedFuture(status)
+                    : deleteAsync(key).thenApply(deleted -> KeyValueStore.Status.OK));
+        });
+    }
+
+    // A value and its TTL as read for a copy to another node.
+    private static final class Entry {
+        final String value;
+        // As from ttlAsync.
+        final long ttl;
+
+        Entry(String value, long ttl) {
+            this.value = value;
+            this.ttl = ttl;
+        }
+
+        // Rounded up, since PUT takes whole seconds: the copy may outlive the original by under a second.
+        int ttlSeconds() {
+            return (int) Math.min(Integer.MAX_VALUE, (ttl + 999) / 1000);
+        }
+    }
+
+    // Asks every node at once; the nodes hold disjoint keys, so the lists are simply joined.
+    public CompletableFuture<List<String>> keysAsync() {
+        List<CompletableFuture<List<String>>> perNode = new ArrayList<>();
+        for (KVClient client : clients.values()) {
+            perNode.add(client.keysAsync());
+        }
+        return CompletableFuture.allOf(perNode.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            // A set, since during a join a key can briefly be on two nodes.
+            Set<String> keys = new LinkedHashSet<>();
+            for (CompletableFuture<List<String>> node : perNode) {
+                keys.addAll(node.join());
+            }
+            return new ArrayList<>(keys);
+        });
+    }
+
+    private KVClient owner(String key) {
+        return clients.get(ring.nodeFor(key.toLowerCase()));
+    }
+
+    // The node that owned key before the join in progress, or null if there is none or it is the same.
+    private KVClient previousOwner(String key) {
+        HashRing previous = previousRing;
+        if (previous == null) {
+            return null;
+        }
+        KVClient client = clients.get(previous.nodeFor(key.toLowerCase()));
+        return client == owner(key) ? null : client;
+    }
+
+    // Adds node to the ring and moves to it every key it now owns. Returns the number of keys moved;
+    // throws if some could not be moved, naming them. Those stay on their old nodes.
+    public synchronized int join(String node) throws IOException {
+        if (ring.nodes().contains(node)) {
+            throw new IllegalArgumentException("Node " + node + " is already part of the ring");
+        }
+        KVClient joined = open(node);
+        clients.put(node, joined);
+        previousRing = ring;
+        ring = ring.with(node);
+        try {
+            int moved = 0;
+            List<String> failed = new ArrayList<>();
+            for (String source : previousRing.nodes()) {
+                KVClient from = clients.get(source);
+                List<String> leaving = new ArrayList<>();
+                for (String key : from.keys()) {
+                    if (ring.nodeFor(key).equals(node)) {
+                        leaving.add(key);
+                    }
+                }
+                for (int start = 0; start < leaving.size(); start += MOVE_BATCH) {
+                    moved += move(from, joined, leaving.subList(start, Math.min(leaving.size(), start + MOVE_BATCH)), failed);
+                }
+            }
+            if (!failed.isEmpty()) {
+                throw new IOException("Moved " + moved + " keys to " + node + ", but " + failed.size()
+                        + " could not be moved and are still on their old nodes: "
+                        + String.join(", ", failed.subList(0, Math.min(failed.size(), 10)))
+                        + (failed.size() > 10 ? ", ..." : ""));
+            }
+            return moved;
+        } finally {
+            previousRing = null;
+        }
+    }
+
+    // Copies each key with its remaining TTL, then deletes it from its old node. PUT never
+    // overwrites, so the old copy is only deleted once the new node holds the same value; a key the
+    // new node refuses (STORE_FULL, say) or already holds with another value stays where it is and
+    // is added to failed as "key (status)".
+    private static int move(KVClient from, KVClient to, List<String> keys, List<String> failed) throws IOException {
+        List<CompletableFuture<KeyValueStore.Status>> moves = new ArrayList<>();
+        for (String key : keys) {
+            moves.add(from.getAsync(key).thenCombine(from.ttlAsync(key), Entry::new).thenComposeAsync(entry ->
+                    entry.value == null || entry.ttl == -2
+                    ? CompletableFuture.completedFuture(KeyValueStore.Status.KEY_NOT_FOUND)
+                    : copy(to, key, entry).thenComposeAsync(status -> status != KeyValueStore.Status.OK
+                            ? CompletableFuture.completedFuture(status)
+                            : from.deleteAsync(key).thenApply(deleted -> KeyValueStore.Status.OK))));
+        }
+        int moved = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            KeyValueStore.Status status = await(moves.get(i));
+            if (status == KeyValueStore.Status.OK) {
+                moved++;
+            } else if (status != KeyValueStore.Status.KEY_NOT_FOUND) {
+                // KEY_NOT_FOUND: deleted or expired since it was listed, so there is nothing to move.
+                failed.add(keys.get(i) + " (" + status + ")");
+            }
+        }
+        return moved;
+    }
+
+    // OK once to holds the value under key, whether this PUT stored it or an earlier one did.
+    private static CompletableFuture<KeyValueStore.Status> copy(KVClient to, String key, Entry entry) {
+        CompletableFuture<KeyValueStore.Status> put = entry.ttl < 0
+                ? to.putAsync(key, entry.value) : to.putAsync(key, entry.value, entry.ttlSeconds());
+        return put.thenComposeAsync(status -> status != KeyValueStore.Status.KEY_EXISTS
+                ? CompletableFuture.completedFuture(status)
+                : to.getAsync(key).thenApply(existing -> entry.value.equals(existing) ? KeyValueStore.Status.OK : status));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the servers");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (KVClient client : clients.values()) {
+            client.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        String join = config.getString("join", null);
+        if (join == null) {
+            System.out.println("Usage: java ShardedKVClient --nodes=<host:port>,... --join=<host:port> [--protocol=tcp|udp]");
+            return;
+        }
+        try (ShardedKVClient client = fromConfig(config)) {
+            long start = System.nanoTime();
+            int moved = client.join(join);
+            System.out.println("[" + Clock.timeStamp() + "] Moved " + moved + " keys to " + join + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms. Start clients with --nodes="
+                    + String.join(",", client.nodes()));
+        } catch (IllegalArgumentException e) {
+            System.out.println("[" + Clock.timeStamp() + "] " + e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+// Point-in-time copy of the store, written so startup can skip the log records it covers.
+//   header:  u32 magic | u16 version | u64 last log segment covered
+//   entries: u16 key length | key UTF-8 | u16 value length | value UTF-8 | u64 TTL deadline, repeated
+//            (the deadline is epoch milliseconds, 0 for none; version 1 files have no deadlines)
+//   trailer: u64 entry count | u32 CRC32C of the entries
+final class SnapshotFile {
+    private static final int MAGIC = 0x4B56534E;
+    private static final short VERSION = 2;
+    private static final int HEADER_SIZE = 14;
+    private static final int TRAILER_SIZE = 12;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private SnapshotFile() {
+    }
+
+    // Streams entries to file and forces it to disk; returns the number of entries written.
+    static long write(Path file, long coveredSegment, Iterable<Map.Entry<String, String>> entries,
+                      ToLongFunction<String> expiries) throws IOException {
+        CRC32C crc = new CRC32C();
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream fileOut = new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE);
+            DataOutputStream header = new DataOutputStream(fileOut);
+            header.writeInt(MAGIC);
+            header.writeShort(VERSION);
+            header.writeLong(coveredSegment);
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+            for (Map.Entry<String, String> entry : entries) {
+                writeField(out, entry.getKey());
+                writeField(out, entry.getValue());
+                out.writeLong(expiries.applyAsLong(entry.getKey()));
+                count++;
+            }
+            out.flush();
+            header.writeLong(count);
+            header.writeInt((int) crc.getValue());
+            header.flush();
+            channel.force(true);
+        }
+        return count;
+    }
+
+    // Maps the file read-only and feeds every entry to target; returns the number loaded.
+    static long load(Path file, WriteAheadLog.Target target) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot size " + size + ": " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            short version = mapped.getShort(4);
+            if (mapped.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("Not a version 1 to " + VERSION + " snapshot: " + file);
+            }
+            int entriesEnd = (int) size - TRAILER_SIZE;
+            long count = mapped.getLong(entriesEnd);
+            ByteBuffer entries = mapped.duplicate();
+            entries.position(HEADER_SIZE).limit(entriesEnd);
+            CRC32C crc = new CRC32C();
+            crc.update(entries.duplicate());
+            if ((int) crc.getValue() != mapped.getInt(entriesEnd + 8)) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+            byte[] scratch = new byte[0xFFFF];
+            for (long i = 0; i < count; i++) {
+                String key = readField(entries, scratch);
+                target.put(key, readField(entries, scratch));
+                long expiresAt = version == 1 ? 0 : entries.getLong();
+                if (expiresAt != 0) {
+                    target.expire(key, expiresAt);
+                }
+            }
+            return count;
+        }
+    }
+
+    private static void writeField(DataOutputStream out, String field) throws IOException {
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Field too long for a snapshot: " + bytes.length + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readField(ByteBuffer in, byte[] scratch) {
+        int length = in.getShort() & 0xFFFF;
+        in.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
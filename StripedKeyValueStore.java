@@ -0,0 +1,235 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The default store: a ConcurrentHashMap with lock-striped writers.
+public class StripedKeyValueStore extends KeyValueStore {
+    private static final int STRIPES = 64;
+    private final ConcurrentHashMap<String, String> entries = new ConcurrentHashMap<>();
+    // Writers lock the stripe of every key they touch, so check-then-act sequences and
+    // two-key renames are atomic. Readers go straight to the map without locking.
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    public StripedKeyValueStore() {
+        this(null, true, null);
+    }
+
+    // eviction is null for an unbounded store.
+    public StripedKeyValueStore(WriteAheadLog log, boolean sortedIndex, EvictionPolicy eviction) {
+        super(log, sortedIndex, eviction);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        open();
+    }
+
+    @Override
+    public String get(String key) {
+        String value = entries.get(key);
+        if (value == null || expired(key)) {
+            return null;
+        }
+        accessed(key);
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return contains(key);
+    }
+
+    @Override
+    boolean contains(String key) {
+        return entries.containsKey(key) && !expired(key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public Iterable<String> keys() {
+        return unexpired(Collections.unmodifiableSet(entries.keySet()));
+    }
+
+    @Override
+    public Status putIfAbsent(String key, String value, long expiresAt) {
+        ReentrantLock lock = lockFor(key);
+        long position;
+        lock.lock();
+        try {
+            dropIfExpired(key);
+            if (rejectingNewKeys() && !entries.containsKey(key)) {
+                return Status.STORE_FULL;
+            }
+            if (entries.putIfAbsent(key, value) != null) {
+                return Status.KEY_EXISTS;
+            }
+            added(key, value);
+            position = logged(WriteAheadLog.PUT, key, value);
+            if (expiresAt != NO_EXPIRY) {
+                position = expiring(key, expiresAt);
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(position);
+        makeRoom();
+        return Status.OK;
+    }
+
+    @Override
+    public Status remove(String key) {
+        ReentrantLock lock = lockFor(key);
+        long position;
+        lock.lock();
+        try {
+            dropIfExpired(key);
+            String value = entries.remove(key);
+            if (value == null) {
+                return Status.KEY_NOT_FOUND;
+            }
+            removed(key, value);
+            position = logged(WriteAheadLog.DELETE, key);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(position);
+        return Status.OK;
+    }
+
+    @Override
+    public Status replace(String key, String value, long expiresAt) {
+        ReentrantLock lock = lockFor(key);
+        long position;
+        lock.lock();
+        try {
+            dropIfExpired(key);
+            String oldValue = entries.replace(key, value);
+            if (oldValue == null) {
+                return Status.KEY_NOT_FOUND;
+            }
+            replaced(oldValue, value);
+            position = logged(WriteAheadLog.PUT, key, value);
+            if (expiresAt != NO_EXPIRY) {
+                position = expiring(key, expiresAt);
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(position);
+        makeRoom();
+        return Status.OK;
+    }
+
+    @Override
+    public Status rename(String oldKey, String newKey) {
+        int first = stripe(oldKey);
+        int second = stripe(newKey);
+        if (first > second) {
+            int swap = first;
+            first = second;
+            second = swap;
+        }
+        long position;
+        locks[first].lock();
+        if (second != first) {
+            locks[second].lock();
+        }
+        try {
+            dropIfExpired(oldKey);
+            dropIfExpired(newKey);
+            if (entries.containsKey(newKey)) {
+                return Status.KEY_EXISTS;
+            }
+            String value = entries.get(oldKey);
+            if (value == null) {
+                return Status.KEY_NOT_FOUND;
+            }
+            entries.put(newKey, value);
+            entries.remove(oldKey);
+            added(newKey, value);
+            removed(oldKey, value);
+            position = logged(WriteAheadLog.RENAME, oldKey, newKey, value);
+        } finally {
+            if (second != first) {
+                locks[second].unlock();
+            }
+            locks[first].unlock();
+        }
+        awaitDurable(position);
+        return Status.OK;
+    }
+
+    @Override
+    public Status expire(String key, long expiresAt) {
+        ReentrantLock lock = lockFor(key);
+        long position;
+        lock.lock();
+        try {
+            dropIfExpired(key);
+            if (!entries.containsKey(key)) {
+                return Status.KEY_NOT_FOUND;
+            }
+            position = expiring(key, expiresAt);
+        } finally {
+            lock.unlock();
+        }
+        awaitDurable(position);
+        return Status.OK;
+    }
+
+    @Override
+    protected void removeIfExpired(String key) {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            dropIfExpired(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the key's lock. An expired key is removed before a write looks at it. Nothing
+    // waits for the DELETE to be durable: replay would find the key expired again.
+    private void dropIfExpired(String key) {
+        if (!clearIfExpired(key)) {
+            return;
+        }
+        String value = entries.remove(key);
+        if (value != null) {
+            removed(key, value);
+            logged(WriteAheadLog.DELETE, key);
+        }
+    }
+
+    @Override
+    protected String restore(String key, String value) {
+        return entries.put(key, value);
+    }
+
+    @Override
+    protected String restoreRemoval(String key) {
+        return entries.remove(key);
+    }
+
+    @Override
+    protected Iterable<Map.Entry<String, String>> entries() {
+        return entries.entrySet();
+    }
+
+    private ReentrantLock lockFor(String key) {
+        return locks[stripe(key)];
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+}
@@ -1,7 +1,9 @@
 import java.io.*;
 import java.net.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class TCPClient {
@@ -15,15 +17,38 @@ public class TCPClient {
     private static final String EDIT = "EDIT";
     private static final String EDIT_KEY = "EDIT_KEY";
     private static final String EDIT_VALUE = "EDIT_VALUE";
+    private static final String MGET = "MGET";
+    private static final String MPUT = "MPUT";
+    private static final String MDELETE = "MDELETE";
+    private static final String SCAN = "SCAN";
+    private static final String RANGE = "RANGE";
+    private static final String PREFIX = "PREFIX";
+    private static final String STATS = "STATS";
+    private static final String EXPIRE = "EXPIRE";
+    private static final String TTL = "TTL";
+    private static final String SCAN_USAGE = "Invalid command. Usage: SCAN <cursor> [MATCH <prefix>] [COUNT <n>]";
+    private static final int KEYS_PAGE_COUNT = 1000;
+    private static final String PIPELINE = "PIPELINE";
+    // Keeps each batch reply well under the 64 KB writeUTF limit.
+    private static final int MAX_BATCH_ENTRIES = 500;
+    private static final String END = "END";
     private static DataInputStream dataIn;
     private static DataOutputStream dataOut;
     private static Socket socket;
+    private static boolean binaryMode;
 
     public static void main(String[] args) {
+        if (Arrays.asList(args).contains("--load")) {
+            LoadGenerator.run("tcp", ServerConfig.fromArgs(args));
+            return;
+        }
         try {
-            socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-            dataIn = new DataInputStream(socket.getInputStream());
-            dataOut = new DataOutputStream(socket.getOutputStream());
+            socket = new Socket(SERVER_ADDRESS, ServerConfig.fromArgs(args).getInt("port", SERVER_PORT));
+            dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (Arrays.asList(args).contains("--binary")) {
+                negotiateBinary();
+            }
             Scanner scanner = new Scanner(System.in);
             while (true) {
                 displayMenu();
@@ -33,7 +58,11 @@ public class TCPClient {
                 String command = parts[0].toUpperCase();
                 switch (command) {
                     case QUIT:
-                        sendCommand(QUIT);
+                        if (binaryMode) {
+                            sendBinary(BinaryProtocol.OP_QUIT);
+                        } else {
+                            sendCommand(QUIT);
+                        }
                         System.out.println("["+timeStamp+"] Thank you for cooperation!");
                         cleanUp();
                         return;
@@ -45,11 +74,25 @@ public class TCPClient {
                         handleKeysRequest();
                         break;
                     case PUT:
-                        if (parts.length < 3 || parts.length > 3) {
-                            System.out.println("["+timeStamp+"] Invalid command. Usage: PUT <key> <value>");
+                        if (parts.length < 3 || parts.length > 4) {
+                            System.out.println("["+timeStamp+"] Invalid command. Usage: PUT <key> <value> [<ttl seconds>]");
+                            break;
+                        }
+                        handlePutRequest(parts[1], parts[2], parts.length == 4 ? parts[3] : null);
+                        break;
+                    case EXPIRE:
+                        if (parts.length != 3) {
+                            System.out.println("["+timeStamp+"] Invalid command. Usage: EXPIRE <key> <ttl seconds>");
                             break;
                         }
-                        handlePutRequest(parts[1], parts[2]);
+                        System.out.println(exchange(EXPIRE, parts[1], parts[2]));
+                        break;
+                    case TTL:
+                        if (parts.length != 2) {
+                            System.out.println("["+timeStamp+"] Invalid command. Usage: TTL <key>");
+                            break;
+                        }
+                        System.out.println(exchange(TTL, parts[1]));
                         break;
                     case DELETE:
                         if (parts.length < 2 || parts.length > 2) {
@@ -72,6 +115,54 @@ public class TCPClient {
                         }
                         handleEditMenu();
                         break;
+                    case MGET:
+                    case MDELETE:
+                        if (parts.length < 2) {
+                            System.out.println("["+timeStamp+"] Invalid command. Usage: " + command + " <key> [<key> ...]");
+                            break;
+                        }
+                        handleBatchRequest(command, Arrays.copyOfRange(parts, 1, parts.length));
+                        break;
+                    case SCAN:
+                        if (parts.length < 2 || !handleScanRequest(parts)) {
+                            System.out.println("["+timeStamp+"] " + SCAN_USAGE);
+                        }
+                        break;
+                    case RANGE:
+                        if (parts.length != 3) {
+                            System.out.println("["+timeStamp+"] Invalid command. Usage: RANGE <from> <to>");
+                            break;
+                        }
+                        handleRangeRequest(parts[1], parts[2]);
+                        break;
+                    case STATS:
+                        if (parts.length != 1) {
+                            System.out.println("[" + timeStamp + "] Invalid command. Usage: STATS");
+                            break;
+                        }
+                        System.out.println(exchange(STATS));
+                        break;
+                    case PREFIX:
+                        if (parts.length != 2) {
+                            System.out.println("["+timeStamp+"] Invalid command. Usage: PREFIX <prefix>");
+                            break;
+                        }
+                        handlePrefixRequest(parts[1]);
+                        break;
+                    case MPUT:
+                        if (parts.length < 3 || parts.length % 2 == 0) {
+                            System.out.println("["+timeStamp+"] Invalid command. Usage: MPUT <key> <value> [<key> <value> ...]");
+                            break;
+                        }
+                        handleBatchRequest(command, Arrays.copyOfRange(parts, 1, parts.length));
+                        break;
+                    case PIPELINE:
+                        if (parts.length!=1) {
+                            System.out.println("["+timeStamp+"] Invalid command. Usage: PIPELINE");
+                            break;
+                        }
+                        handlePipeline(scanner);
+                        break;
                     default:
                         System.out.println("["+timeStamp+"] Invalid command.");
                         break;
@@ -85,11 +176,21 @@ public class TCPClient {
     private static void displayMenu() {
         System.out.println("\nChoose an option:");
         System.out.println("1. GET <key>");
-        System.out.println("2. PUT <key> <value>");
+        System.out.println("2. PUT <key> <value> [<ttl seconds>]");
         System.out.println("3. DELETE <key>");
         System.out.println("4. KEYS");
         System.out.println("5. EDIT");
-        System.out.println("6. QUIT");
+        System.out.println("6. MGET <key> [<key> ...]");
+        System.out.println("7. MPUT <key> <value> [<key> <value> ...]");
+        System.out.println("8. MDELETE <key> [<key> ...]");
+        System.out.println("9. PIPELINE");
+        System.out.println("10. SCAN <cursor> [MATCH <prefix>] [COUNT <n>]");
+        System.out.println("11. RANGE <from> <to>");
+        System.out.println("12. PREFIX <prefix>");
+        System.out.println("13. STATS");
+        System.out.println("14. EXPIRE <key> <ttl seconds>");
+        System.out.println("15. TTL <key>");
+        System.out.println("16. QUIT");
         System.out.print("Enter your choice: ");
     }
 
@@ -132,8 +233,7 @@ public class TCPClient {
             String oldKey = scanner.nextLine().trim();
             System.out.print("Enter the new key: ");
             String newKey = scanner.nextLine().trim();
-            sendCommand(EDIT_KEY + " " + oldKey + " " + newKey);
-            String response = dataIn.readUTF();
+            String response = exchange(EDIT_KEY, oldKey, newKey);
             System.out.println(response);
         } catch (IOException e) {
             e.printStackTrace();
@@ -147,8 +247,9 @@ public class TCPClient {
             String key = scanner.nextLine().trim();
             System.out.print("Enter the new value: ");
             String newValue = scanner.nextLine().trim();
-            sendCommand(EDIT_VALUE + " " + key + " " + newValue);
-            String response = dataIn.readUTF();
+            System.out.print("Enter a new TTL in seconds (blank keeps the current one): ");
+            String ttl = scanner.nextLine().trim();
+            String response = ttl.isEmpty() ? exchange(EDIT_VALUE, key, newValue) : exchange(EDIT_VALUE, key, newValue, ttl);
             System.out.println(response);
         } catch (IOException e) {
             e.printStackTrace();
@@ -156,36 +257,271 @@ public class TCPClient {
     }
 
 
+    private static void negotiateBinary() throws IOException {
+        sendCommand(BinaryProtocol.NEGOTIATE + " " + BinaryProtocol.VERSION);
+        String reply = dataIn.readUTF();
+        binaryMode = BinaryProtocol.isAccepted(reply);
+        if (!binaryMode) {
+            System.out.println("[" + getTimeStamp() + "] Server does not support the binary protocol, using text commands.");
+        }
+    }
+
+    // Sends a batch of commands without waiting for replies, then reads all responses.
+    // Each request carries its position as an ID so the replies can be matched back.
+    private static void handlePipeline(Scanner scanner) throws IOException {
+        System.out.println("Enter one command per line (GET, PUT, DELETE, KEYS, EDIT_KEY, EDIT_VALUE), then " + END + ":");
+        List<String> commands = new ArrayList<>();
+        while (scanner.hasNextLine()) {
+            String line = scanner.nextLine().trim();
+            if (line.equalsIgnoreCase(END)) {
+                break;
+            }
+            String[] parts = line.split(" ");
+            parts[0] = parts[0].toUpperCase();
+            if (!isPipelineCommand(parts)) {
+                System.out.println("[" + getTimeStamp() + "] Skipping invalid command: " + line);
+                continue;
+            }
+            int requestId = commands.size() + 1;
+            String[] args = Arrays.copyOfRange(parts, 1, parts.length);
+            if (binaryMode) {
+                writeBinary(requestId, BinaryProtocol.opcodeOf(parts[0]), args);
+            } else {
+                dataOut.writeUTF("#" + requestId + " " + String.join(" ", parts));
+            }
+            commands.add(String.join(" ", parts));
+        }
+        dataOut.flush();
+        for (int i = 0; i < commands.size(); i++) {
+            String response;
+            if (binaryMode) {
+                byte[] body = new byte[dataIn.readInt()];
+                dataIn.readFully(body);
+                String command = commands.get(i);
+                byte opcode = BinaryProtocol.opcodeOf(command.split(" ")[0]);
+                response = BinaryProtocol.describeResponse(opcode, ByteBuffer.wrap(body));
+            } else {
+                response = dataIn.readUTF();
+            }
+            System.out.println(describePipelined(commands, response));
+        }
+    }
+
+    // Large batches are split into chunks that are all sent before any reply is read.
+    private static void handleBatchRequest(String command, String[] args) throws IOException {
+        int step = command.equals(MPUT) ? 2 : 1;
+        byte opcode = BinaryProtocol.opcodeOf(command);
+        List<String[]> chunks = new ArrayList<>();
+        for (int from = 0; from < args.length; from += MAX_BATCH_ENTRIES * step) {
+            String[] chunk = Arrays.copyOfRange(args, from, Math.min(args.length, from + MAX_BATCH_ENTRIES * step));
+            chunks.add(chunk);
+            if (binaryMode) {
+                byte[] body = BinaryProtocol.encodeBatchRequest(opcode, chunk);
+                dataOut.writeInt(body.length);
+                dataOut.write(body);
+            } else {
+                dataOut.writeUTF(command + " " + String.join(" ", chunk));
+            }
+        }
+        dataOut.flush();
+        for (String[] chunk : chunks) {
+            if (!binaryMode) {
+                System.out.println(dataIn.readUTF());
+                continue;
+            }
+            byte[] body = new byte[dataIn.readInt()];
+            dataIn.readFully(body);
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < chunk.length; i += step) {
+                keys.add(chunk[i]);
+            }
+            System.out.println("[" + getTimeStamp() + "] " + BinaryProtocol.describeBatchResponse(opcode, keys, ByteBuffer.wrap(body)));
+        }
+    }
+
+    private static boolean isPipelineCommand(String[] parts) {
+        switch (parts[0]) {
+            case GET:
+            case DELETE:
+                return parts.length == 2;
+            case PUT:
+            case EDIT_KEY:
+            case EDIT_VALUE:
+                return parts.length == 3;
+            case KEYS:
+                return parts.length == 1;
+            default:
+                return false;
+        }
+    }
+
+    private static String describePipelined(List<String> commands, String response) {
+        if (response.startsWith("#")) {
+            int space = response.indexOf(' ');
+            try {
+                int requestId = Integer.parseInt(response.substring(1, space));
+                return commands.get(requestId - 1) + " -> " + response.substring(space + 1);
+            } catch (RuntimeException e) {
+                // not one of our tags; print the response as is
+            }
+        }
+        return response;
+    }
+
     private static void sendCommand(String command) throws IOException {
         dataOut.writeUTF(command);
+        dataOut.flush();
+    }
+
+    private static void sendBinary(byte opcode, String... args) throws IOException {
+        writeBinary(-1, opcode, args);
+        dataOut.flush();
+    }
+
+    private static void writeBinary(int requestId, byte opcode, String... args) throws IOException {
+        byte[] body = BinaryProtocol.encodeRequest(requestId, opcode, args);
+        dataOut.writeInt(body.length);
+        dataOut.write(body);
+    }
+
+    private static String exchange(String command, String... args) throws IOException {
+        if (!binaryMode) {
+            sendCommand(args.length == 0 ? command : command + " " + String.join(" ", args));
+            return dataIn.readUTF();
+        }
+        byte opcode = BinaryProtocol.opcodeOf(command);
+        sendBinary(opcode, args);
+        byte[] body = new byte[dataIn.readInt()];
+        dataIn.readFully(body);
+        return "[" + getTimeStamp() + "] " + BinaryProtocol.describeResponse(opcode, ByteBuffer.wrap(body));
     }
 
     private static void handleGetRequest(String key) throws IOException {
-        sendCommand(GET + " " + key);
-        String response = dataIn.readUTF();
+        String response = exchange(GET, key);
         System.out.println(response);
     }
 
-    private static void handlePutRequest(String key, String value) throws IOException {
-        sendCommand(PUT + " " + key + " " + value);
-        String response = dataIn.readUTF();
+    private static void handlePutRequest(String key, String value, String ttl) throws IOException {
+        String response = ttl == null ? exchange(PUT, key, value) : exchange(PUT, key, value, ttl);
         System.out.println(response);
     }
 
     private static void handleDelRequest(String key) throws IOException {
-        sendCommand(DELETE + " " + key);
-        String response = dataIn.readUTF();
+        String response = exchange(DELETE, key);
         System.out.println(response);
     }
 
+    // Lists the keyspace one SCAN page at a time, so no single reply has to hold every key.
     private static void handleKeysRequest() throws IOException {
-        sendCommand(KEYS);
-        String response = dataIn.readUTF();
-        System.out.println(response);
+        long cursor = 0;
+        boolean empty = true;
+        do {
+            String response = scanPage(cursor, "", KEYS_PAGE_COUNT);
+            cursor = nextCursor(response);
+            if (cursor < 0) {
+                System.out.println(response);
+                return;
+            }
+            String keys = response.substring(response.indexOf("Keys: ") + "Keys: ".length());
+            if (!keys.isEmpty()) {
+                System.out.println("[" + getTimeStamp() + "] Key Store: " + keys);
+                empty = false;
+            }
+        } while (cursor != 0);
+        if (empty) {
+            System.out.println("[" + getTimeStamp() + "] Key Store: Empty");
+        }
+    }
+
+    // Returns false when the arguments do not parse.
+    private static boolean handleScanRequest(String[] parts) throws IOException {
+        long cursor;
+        String prefix = "";
+        int count = KeyScanner.DEFAULT_COUNT;
+        try {
+            cursor = Long.parseLong(parts[1]);
+            for (int i = 2; i < parts.length; i += 2) {
+                if (i + 1 == parts.length) {
+                    return false;
+                } else if (parts[i].equalsIgnoreCase("MATCH")) {
+                    prefix = parts[i + 1];
+                } else if (parts[i].equalsIgnoreCase("COUNT")) {
+                    count = Integer.parseInt(parts[i + 1]);
+                } else {
+                    return false;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        System.out.println(scanPage(cursor, prefix, count));
+        return true;
+    }
+
+    // Both encodings render a page as "Cursor [<next>] Keys: [k1][k2]...".
+    private static String scanPage(long cursor, String prefix, int count) throws IOException {
+        if (binaryMode) {
+            return exchange(SCAN, Long.toString(cursor), prefix, Integer.toString(count));
+        }
+        List<String> args = new ArrayList<>();
+        args.add(Long.toString(cursor));
+        if (!prefix.isEmpty()) {
+            args.add("MATCH");
+            args.add(prefix);
+        }
+        args.add("COUNT");
+        args.add(Integer.toString(count));
+        return exchange(SCAN, args.toArray(new String[0]));
+    }
+
+    // Pages through the keys from..to in sorted order; each reply names the key the next page starts at.
+    private static void handleRangeRequest(String from, String to) throws IOException {
+        String next = from;
+        String limit = Integer.toString(KEYS_PAGE_COUNT);
+        do {
+            String response = binaryMode ? exchange(RANGE, next, to, limit) : exchange(RANGE, next, to, "LIMIT", limit);
+            System.out.println(response);
+            next = nextKey(response);
+        } while (next != null);
+    }
+
+    private static void handlePrefixRequest(String prefix) throws IOException {
+        String next = "";
+        String limit = Integer.toString(KEYS_PAGE_COUNT);
+        do {
+            String response;
+            if (binaryMode) {
+                response = exchange(PREFIX, prefix, next, limit);
+            } else if (next.isEmpty()) {
+                response = exchange(PREFIX, prefix, "LIMIT", limit);
+            } else {
+                response = exchange(PREFIX, prefix, "FROM", next, "LIMIT", limit);
+            }
+            System.out.println(response);
+            next = nextKey(response);
+        } while (next != null);
+    }
+
+    // The "Next: [key]" continuation of a RANGE or PREFIX reply, or null on the last page.
+    private static String nextKey(String response) {
+        int start = response.lastIndexOf(" Next: [");
+        if (start < 0 || !response.endsWith("]")) {
+            return null;
+        }
+        return response.substring(start + " Next: [".length(), response.length() - 1);
+    }
+
+    // The cursor from a SCAN reply, or -1 if the reply is an error.
+    private static long nextCursor(String response) {
+        int start = response.indexOf("Cursor [");
+        if (start < 0) {
+            return -1;
+        }
+        start += "Cursor [".length();
+        return Long.parseLong(response.substring(start, response.indexOf(']', start)));
     }
     private static String getTimeStamp() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return dateFormat.format(new Date());
+        return Clock.timeStamp();
     }
     private static void cleanUp() {
         try {
@@ -0,0 +1,516 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TCPEventLoopServer {
+    // writeUTF frames carry an unsigned 16-bit length prefix.
+    private static final int MAX_FRAME = 65535;
+    private final TCPServer server;
+    private final int port;
+    private final EventLoop[] loops;
+    private final Semaphore connectionPermits;
+
+    public TCPEventLoopServer(TCPServer server, int port, int loopCount, int maxConnections) {
+        if (loopCount < 1) {
+            throw new IllegalArgumentException("loopCount must be positive: " + loopCount);
+        }
+        this.server = server;
+        this.port = port;
+        this.loops = new EventLoop[loopCount];
+        this.connectionPermits = new Semaphore(maxConnections);
+    }
+
+    public void startServer() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop();
+                Thread thread = new Thread(loops[i], "tcp-event-loop-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("Server started on port " + port + " with " + loops.length + " event loops, waiting for clients...");
+            int next = 0;
+            while (true) {
+                SocketChannel clientChannel = serverChannel.accept();
+                if (!connectionPermits.tryAcquire()) {
+                    rejectBusy(clientChannel);
+                    continue;
+                }
+                if (server.requestLog.connectionEvents()) {
+                    server.requestLog.log("Client connected: ", clientChannel.socket().getInetAddress().getHostAddress());
+                }
+                server.metrics.connectionOpened();
+                loops[next].register(clientChannel);
+                next = (next + 1) % loops.length;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Still blocking, straight from accept(), so the short reply goes out in one write.
+    private void rejectBusy(SocketChannel clientChannel) {
+        server.metrics.connectionRejected();
+        try (SocketChannel channel = clientChannel) {
+            String response = server.busyResponse();
+            ByteBuffer out = ByteBuffer.allocate(2 + utfLength(response));
+            encodeUTF(response, utfLength(response), out);
+            out.flip();
+            channel.write(out);
+        } catch (IOException e) {
+            // The client is gone already; nothing to tell it.
+        }
+    }
+
+    private static final class Connection {
+        // Received bytes not processed yet: an incomplete frame, or whole frames held back while
+        // reading is paused.
+        private ByteBuffer partialInput;
+        // Response bytes the socket has not accepted yet.
+        private ByteBuffer pendingOutput;
+        // Set once the client has negotiated the binary protocol.
+        private boolean binary;
+        // Set while pendingOutput is over the cap and OP_READ is off.
+        private boolean paused;
+        // System.nanoTime() of the last byte read or written.
+        private long lastActive = System.nanoTime();
+        // Created with the switch to binary; null before that.
+        private InvalidationTracker.Subscriber subscriber;
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        // Tracking connections with invalidations waiting to be sent.
+        private final Queue<LoopSubscriber> pushes = new ConcurrentLinkedQueue<>();
+        // Shared by every connection on this loop; a partial frame is at most MAX_FRAME + 2 bytes.
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(2 * (MAX_FRAME + 2));
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(2 * (MAX_FRAME + 2));
+        private final char[] chars = new char[MAX_FRAME];
+        private final BinaryProtocol binaryProtocol;
+        private long lastIdleSweep = System.nanoTime();
+
+        private EventLoop() throws IOException {
+            selector = Selector.open();
+            binaryProtocol = server.newBinaryProtocol();
+        }
+
+        private void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            // With an idle timeout, wake up at least once a second to look for idle connections.
+            long selectTimeout = server.idleTimeoutMillis == 0 ? 0 : Math.min(server.idleTimeoutMillis, 1000);
+            while (true) {
+                try {
+                    selector.select(selectTimeout);
+                    registerNewChannels();
+                    sendPushes();
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                handleWrite(key);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                handleRead(key);
+                            }
+                        } catch (IOException e) {
+                            close(key);
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                            close(key);
+                        }
+                    }
+                    if (selectTimeout > 0) {
+                        closeIdleConnections();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void closeIdleConnections() {
+            long now = System.nanoTime();
+            if (now - lastIdleSweep < 1_000_000_000L) {
+                return;
+            }
+            lastIdleSweep = now;
+            long idleNanos = server.idleTimeoutMillis * 1_000_000L;
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && now - connection.lastActive > idleNanos) {
+                    close(key);
+                    server.logIdleClosed();
+                }
+            }
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    channel.register(selector, SelectionKey.OP_READ, new Connection());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    closeChannel(channel);
+                }
+            }
+        }
+
+        // Invalidations are queued by whichever thread made the change and written here, between
+        // responses, so they never interleave with a frame.
+        private void sendPushes() {
+            LoopSubscriber subscriber;
+            while ((subscriber = pushes.poll()) != null) {
+                SelectionKey key = subscriber.key;
+                subscriber.scheduled.set(false);
+                if (!key.isValid()) {
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                List<String> batch = new ArrayList<>();
+                writeBuffer.clear();
+                try {
+                    String changed;
+                    while ((changed = subscriber.keys.poll()) != null) {
+                        batch.add(changed);
+                        if (batch.size() == BinaryProtocol.MAX_INVALIDATE_KEYS) {
+                            queuePush(key, connection, batch);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        queuePush(key, connection, batch);
+                    }
+                    flush(key, connection);
+                } catch (IOException e) {
+                    close(key);
+                }
+            }
+        }
+
+        private void queuePush(SelectionKey key, Connection connection, List<String> batch) throws IOException {
+            byte[] body = BinaryProtocol.encodeInvalidation(batch);
+            ByteBuffer out = reserve(key, connection, 4 + body.length);
+            out.putInt(body.length);
+            out.put(body);
+            batch.clear();
+        }
+
+        private void handleRead(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            ByteBuffer in = readBuffer;
+            in.clear();
+            if (connection.partialInput != null) {
+                connection.partialInput.flip();
+                in.put(connection.partialInput);
+                connection.partialInput = null;
+            }
+            int read = channel.read(in);
+            if (read < 0) {
+                close(key);
+                return;
+            }
+            server.metrics.bytesIn(read);
+            connection.lastActive = System.nanoTime();
+            in.flip();
+            processInput(key, connection, in);
+        }
+
+        // Runs every complete frame in in, until the client's unsent responses reach the cap; the
+        // rest waits in partialInput until handleWrite has drained them.
+        private void processInput(SelectionKey key, Connection connection, ByteBuffer in) throws IOException {
+            writeBuffer.clear();
+            while (true) {
+                if (connection.pendingOutput != null && connection.pendingOutput.position() >= server.maxOutputBuffer) {
+                    connection.paused = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    server.metrics.backpressurePaused();
+                    break;
+                }
+                int frameLength = connection.binary ? binaryFrameLength(in) : textFrameLength(in);
+                if (frameLength < 0 || in.remaining() < frameLength) {
+                    break;
+                }
+                boolean open = connection.binary ? handleBinaryFrame(key, connection, in) : handleTextFrame(key, connection, in);
+                if (!open) {
+                    flush(key, connection);
+                    close(key);
+                    return;
+                }
+            }
+            if (in.hasRemaining()) {
+                int frameLength = connection.binary ? binaryFrameLength(in) : textFrameLength(in);
+                connection.partialInput = ByteBuffer.allocate(Math.max(frameLength, in.remaining()));
+                connection.partialInput.put(in);
+            }
+            flush(key, connection);
+        }
+
+        // Called once a paused client has read its backlog: runs the frames held back, then
+        // goes back to reading from the socket unless that filled the backlog again.
+        private void resume(SelectionKey key, Connection connection) throws IOException {
+            connection.paused = false;
+            ByteBuffer in = readBuffer;
+            in.clear();
+            if (connection.partialInput != null) {
+                connection.partialInput.flip();
+                in.put(connection.partialInput);
+                connection.partialInput = null;
+            }
+            in.flip();
+            processInput(key, connection, in);
+            if (key.isValid() && !connection.paused) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        // Total size of the next frame including its length prefix, or -1 if the prefix is incomplete.
+        private int textFrameLength(ByteBuffer in) {
+            return in.remaining() < 2 ? -1 : 2 + (in.getShort(in.position()) & 0xFFFF);
+        }
+
+        private int binaryFrameLength(ByteBuffer in) throws IOException {
+            if (in.remaining() < 4) {
+                return -1;
+            }
+            int length = in.getInt(in.position());
+            if (length < 1 || length > BinaryProtocol.MAX_REQUEST_FRAME) {
+                throw new IOException("Invalid binary frame length: " + length);
+            }
+            return 4 + length;
+        }
+
+        private boolean handleTextFrame(SelectionKey key, Connection connection, ByteBuffer in) throws IOException {
+            int length = in.getShort() & 0xFFFF;
+            String command = decodeUTF(in, length, chars);
+            if (server.requestLog.sampleRequest()) {
+                server.requestLog.log("Received command from client: ", command);
+            }
+            String negotiation = BinaryProtocol.negotiate(command);
+            if (negotiation != null) {
+                queueResponse(key, connection, negotiation);
+                connection.binary = BinaryProtocol.isAccepted(negotiation);
+                if (connection.binary) {
+                    connection.subscriber = new LoopSubscriber(key);
+                }
+                return true;
+            }
+            String response = server.processCommand(command);
+            if (response == null) {
+                return false;
+            }
+            queueResponse(key, connection, response);
+            return true;
+        }
+
+        private boolean handleBinaryFrame(SelectionKey key, Connection connection, ByteBuffer in) throws IOException {
+            int length = in.getInt();
+            ByteBuffer request = in.slice(in.position(), length);
+            in.position(in.position() + length);
+            if (!binaryProtocol.execute(request, connection.subscriber)) {
+                return false;
+            }
+            ByteBuffer body = binaryProtocol.response();
+            ByteBuffer out = reserve(key, connection, 4 + body.remaining());
+            out.putInt(body.remaining());
+            out.put(body);
+            return true;
+        }
+
+        private void queueResponse(SelectionKey key, Connection connection, String response) throws IOException {
+            int length = utfLength(response);
+            if (length > MAX_FRAME) {
+                flush(key, connection);
+                throw new UTFDataFormatException("encoded string too long: " + length + " bytes");
+            }
+            encodeUTF(response, length, reserve(key, connection, 2 + length));
+        }
+
+        // Returns a buffer with room for size more bytes: the loop's batch buffer while the socket
+        // keeps up, otherwise the connection's backlog so responses stay in order.
+        private ByteBuffer reserve(SelectionKey key, Connection connection, int size) throws IOException {
+            if (connection.pendingOutput == null && writeBuffer.remaining() < size) {
+                flush(key, connection);
+            }
+            if (connection.pendingOutput == null) {
+                if (writeBuffer.remaining() >= size) {
+                    return writeBuffer;
+                }
+                connection.pendingOutput = ByteBuffer.allocate(size);
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            connection.pendingOutput = ensureCapacity(connection.pendingOutput, size);
+            return connection.pendingOutput;
+        }
+
+        // Writes the batched responses in one go; whatever the socket does not take waits for OP_WRITE.
+        private void flush(SelectionKey key, Connection connection) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            writeBuffer.flip();
+            if (writeBuffer.hasRemaining()) {
+                server.metrics.bytesOut(channel.write(writeBuffer));
+            }
+            if (writeBuffer.hasRemaining()) {
+                connection.pendingOutput = ByteBuffer.allocate(Math.max(writeBuffer.remaining(), 1024));
+                connection.pendingOutput.put(writeBuffer);
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            writeBuffer.clear();
+        }
+
+        private void handleWrite(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            ByteBuffer out = connection.pendingOutput;
+            if (out != null) {
+                out.flip();
+                int written = channel.write(out);
+                server.metrics.bytesOut(written);
+                if (written > 0) {
+                    connection.lastActive = System.nanoTime();
+                }
+                if (out.hasRemaining()) {
+                    out.compact();
+                    return;
+                }
+                connection.pendingOutput = null;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (connection.paused) {
+                resume(key, connection);
+            }
+        }
+
+        private void close(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            if (connection.subscriber != null) {
+                connection.subscriber.closed = true;
+            }
+            key.cancel();
+            closeChannel((SocketChannel) key.channel());
+        }
+
+        private void closeChannel(SocketChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            server.metrics.connectionClosed();
+            connectionPermits.release();
+            server.logClosed();
+        }
+
+        // Queues keys for sendPushes and wakes the loop, once per batch however many keys arrive.
+        private final class LoopSubscriber extends InvalidationTracker.Subscriber {
+            private final SelectionKey key;
+            private final Queue<String> keys = new ConcurrentLinkedQueue<>();
+            private final AtomicBoolean scheduled = new AtomicBoolean();
+
+            LoopSubscriber(SelectionKey key) {
+                super(server.tracker);
+                this.key = key;
+            }
+
+            @Override
+            void push(String changed) {
+                keys.add(changed);
+                if (scheduled.compareAndSet(false, true)) {
+                    pushes.add(this);
+                    selector.wakeup();
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    // Same encoding as DataOutputStream.writeUTF, so legacy TCPClient frames stay byte-compatible.
+    static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    static void encodeUTF(String s, int utfLength, ByteBuffer out) {
+        out.putShort((short) utfLength);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                out.put((byte) c);
+            } else if (c > 0x07FF) {
+                out.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                out.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    static String decodeUTF(ByteBuffer in, int utfLength, char[] chars) throws UTFDataFormatException {
+        int end = in.position() + utfLength;
+        int count = 0;
+        while (in.position() < end) {
+            int c = in.get() & 0xFF;
+            if (c < 0x80) {
+                chars[count++] = (char) c;
+            } else if ((c & 0xE0) == 0xC0) {
+                if (in.position() + 1 > end) {
+                    throw new UTFDataFormatException("malformed input: partial character at end");
+                }
+                int c2 = in.get();
+                if ((c2 & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("malformed input around byte " + in.position());
+                }
+                chars[count++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+            } else if ((c & 0xF0) == 0xE0) {
+                if (in.position() + 2 > end) {
+                    throw new UTFDataFormatException("malformed input: partial character at end");
+                }
+                int c2 = in.get();
+                int c3 = in.get();
+                if ((c2 & 0xC0) != 0x80 || (c3 & 0xC0) != 0x80) {
+                    throw new UTFDataFormatException("malformed input around byte " + in.position());
+                }
+                chars[count++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+            } else {
+                throw new UTFDataFormatException("malformed input around byte " + in.position());
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
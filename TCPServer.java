@@ -1,11 +1,40 @@
 import java.io.*;
 import java.net.*;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class TCPServer {
+    private static final int DEFAULT_PORT = 7856;
+    private static final int DEFAULT_MAX_CONNECTIONS = 256;
+    private static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 300;
+    private static final int DEFAULT_MAX_OUTPUT_BUFFER = 1 << 20;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    // Key bytes per KEYS or SCAN reply; leaves room for the prefix within one writeUTF frame.
+    private static final int MAX_KEYS_BYTES = 60_000;
+    private static final int DEFAULT_REPLICATION_BACKLOG = 1 << 20;
+    private static final int DEFAULT_TRACKING_MAX_KEYS = 1 << 20;
     private ServerSocket serverSocket;
-    private HashMap<String, String> keyValStore;
+    private KeyValueStore keyValStore;
+    private KeyScanner keyScanner;
+    private final int port;
+    private final int maxConnections;
+    // 0 keeps idle connections open forever.
+    final int idleTimeoutMillis;
+    // Event-loop mode stops reading from a client once this many response bytes are waiting for it.
+    final int maxOutputBuffer;
+    private final boolean timestampResponses;
+    // host:port of the primary's replication feed on a read-only replica; null on a primary.
+    private final String replicaOf;
+    // 0 when this server does not feed replicas.
+    private final int replicationPort;
+    private final ReplicationLog replicationFeed;
+    // Keys read by connections that sent TRACK, for client near caches.
+    final InvalidationTracker tracker;
+    private final Semaphore connectionPermits;
+    final ServerMetrics metrics;
+    final RequestLog requestLog;
+    private final ExecutorService clientExecutor;
     private final String QUIT = "QUIT";
     private final String KEYS = "KEYS";
     private final String PUT = "PUT";
@@ -13,155 +42,534 @@ public class TCPServer {
     private final String GET = "GET";
     private final String EDIT_KEY = "EDIT_KEY";
     private final String EDIT_VALUE = "EDIT_VALUE";
+    private final String MGET = "MGET";
+    private final String MPUT = "MPUT";
+    private final String MDELETE = "MDELETE";
+    private final String SCAN = "SCAN";
+    private final String RANGE = "RANGE";
+    private final String PREFIX = "PREFIX";
+    private final String STATS = "STATS";
+    private final String EXPIRE = "EXPIRE";
+    private final String TTL = "TTL";
+    private final String INVALID_TTL = "Invalid TTL. Use a whole number of seconds greater than 0.";
+    private final String STORE_FULL = "Error: Store is full. Delete keys before adding new ones.";
 
     public TCPServer() {
-        keyValStore = new HashMap<>();
+        this(ServerConfig.fromArgs(new String[0]));
+    }
+
+    public TCPServer(ServerConfig config) {
+        port = config.getInt("port", DEFAULT_PORT);
+        maxConnections = config.getInt("max-connections", DEFAULT_MAX_CONNECTIONS);
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        }
+        int idleTimeoutSeconds = config.getInt("idle-timeout", DEFAULT_IDLE_TIMEOUT_SECONDS);
+        // setSoTimeout takes an int, so timeouts past about 24 days are capped there.
+        idleTimeoutMillis = (int) Math.min(idleTimeoutSeconds * 1000L, Integer.MAX_VALUE);
+        maxOutputBuffer = config.getInt("max-output-buffer", DEFAULT_MAX_OUTPUT_BUFFER);
+        if (idleTimeoutSeconds < 0 || maxOutputBuffer < 1) {
+            throw new IllegalArgumentException("idle-timeout must not be negative and max-output-buffer must be positive");
+        }
+        timestampResponses = config.getBoolean("timestamps", true);
+        keyValStore = KeyValueStore.fromConfig(config);
+        keyScanner = new KeyScanner(keyValStore);
+        tracker = new InvalidationTracker(config.getInt("tracking-max-keys", DEFAULT_TRACKING_MAX_KEYS));
+        keyValStore.invalidateTo(tracker);
+        replicaOf = config.getString("replica-of", null);
+        replicationPort = config.getInt("replication-port", 0);
+        if (replicationPort > 0) {
+            replicationFeed = new ReplicationLog(config.getInt("replication-backlog", DEFAULT_REPLICATION_BACKLOG));
+            keyValStore.replicateTo(replicationFeed);
+        } else {
+            replicationFeed = null;
+        }
+        metrics = new ServerMetrics(keyValStore::size, keyValStore::evictions);
+        requestLog = RequestLog.fromConfig(config);
+        connectionPermits = new Semaphore(maxConnections);
+        clientExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "tcp-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // A replica can feed replicas of its own, so both may be set.
+    void startReplication() {
+        try {
+            if (replicationFeed != null) {
+                new ReplicationServer(keyValStore, replicationFeed, replicationPort, requestLog).start();
+            }
+            if (replicaOf != null) {
+                new ReplicaSync(keyValStore, replicaOf, requestLog).start();
+                System.out.println("Read-only replica of " + replicaOf);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void startServer() {
         try {
-            serverSocket = new ServerSocket(7856);
-            System.out.println("Server started, waiting for clients...");
+            serverSocket = new ServerSocket(port);
+            System.out.println("Server started on port " + port + ", waiting for clients (max " + maxConnections + " connections)...");
             while (true) {
-                String timeStamp = getTimeStamp();
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("["+timeStamp+"] Client connected: " + clientSocket.getInetAddress().getHostAddress());
-                handleClient(clientSocket);
+                // Past the cap a client is told so at once instead of waiting in the listen backlog.
+                if (!connectionPermits.tryAcquire()) {
+                    rejectBusy(clientSocket);
+                    continue;
+                }
+                if (requestLog.connectionEvents()) {
+                    requestLog.log("Client connected: ", clientSocket.getInetAddress().getHostAddress());
+                }
+                metrics.connectionOpened();
+                try {
+                    clientExecutor.execute(() -> {
+                        try {
+                            handleClient(clientSocket);
+                        } finally {
+                            metrics.connectionClosed();
+                            connectionPermits.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    metrics.connectionClosed();
+                    connectionPermits.release();
+                    clientSocket.close();
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            clientExecutor.shutdownNow();
+        }
+    }
+
+    private void rejectBusy(Socket clientSocket) {
+        metrics.connectionRejected();
+        try (Socket socket = clientSocket) {
+            DataOutputStream dataOut = new DataOutputStream(socket.getOutputStream());
+            dataOut.writeUTF(busyResponse());
+            dataOut.flush();
+        } catch (IOException e) {
+            // The client is gone already; nothing to tell it.
         }
     }
 
+    String busyResponse() {
+        return responsePrefix() + "Error: Server is at its limit of " + maxConnections + " connections, try again later";
+    }
+
     private void handleClient(Socket clientSocket) {
+        try {
+            clientSocket.setSoTimeout(idleTimeoutMillis);
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
         try (
-                DataInputStream dataIn = new DataInputStream(clientSocket.getInputStream());
-                DataOutputStream dataOut = new DataOutputStream(clientSocket.getOutputStream());
+                DataInputStream dataIn = new DataInputStream(new BufferedInputStream(metrics.meter(clientSocket.getInputStream())));
+                DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(metrics.meter(clientSocket.getOutputStream()), OUTPUT_BUFFER_SIZE));
         ) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
             while (true) {
-                String timeStamp = getTimeStamp();
                 String command;
                 try {
                     command = dataIn.readUTF();
-                } catch (SocketException e) {
-                    System.out.println("["+timeStamp+"] Client connection closed.");
+                } catch (SocketException | EOFException e) {
+                    logClosed();
                     break;
                 }
-                System.out.println("[" + getTimeStamp() + "] Received command from client: " + command);
-                String[] parts = command.split(" ");
-                switch (parts[0]) {
-                    case PUT:
-                        handlePutRequest(dataOut, parts[1], parts[2]);
-                        break;
-                    case DELETE:
-                        handleDelRequest(dataOut, parts[1]);
-                        break;
-                    case GET:
-                        handleGetRequest(dataOut, parts[1]);
-                        break;
-                    case KEYS:
-                        handleKeysRequest(dataOut);
-                        break;
-                    case EDIT_KEY:
-                        handleEditKeyRequest(dataOut, parts[1], parts[2]);
-                        break;
-                    case EDIT_VALUE:
-                        handleEditValueRequest(dataOut, parts[1], parts[2]);
-                        break;
-                    case QUIT:
-                        cleanUp(dataIn, dataOut, clientSocket);
-                        System.out.println("["+timeStamp+"] Client connection closed.");
+                if (requestLog.sampleRequest()) {
+                    requestLog.log("Received command from client: ", command);
+                }
+                String negotiation = BinaryProtocol.negotiate(command);
+                if (negotiation != null) {
+                    dataOut.writeUTF(negotiation);
+                    flushIfDrained(dataIn, dataOut);
+                    if (BinaryProtocol.isAccepted(negotiation)) {
+                        handleBinaryClient(clientSocket, dataIn, dataOut);
+                        logClosed();
                         return;
-                    default:
-                        dataOut.writeUTF("["+timeStamp+"] Invalid command");
+                    }
+                    continue;
+                }
+                String response = processCommand(command);
+                if (response == null) {
+                    cleanUp(dataIn, dataOut, clientSocket);
+                    logClosed();
+                    return;
                 }
+                dataOut.writeUTF(response);
+                flushIfDrained(dataIn, dataOut);
             }
+        } catch (SocketTimeoutException e) {
+            logIdleClosed();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void handlePutRequest(DataOutputStream dataOut, String key, String value) throws IOException {
+    private void handleBinaryClient(Socket clientSocket, DataInputStream dataIn, DataOutputStream dataOut) throws IOException {
+        BinaryProtocol protocol = newBinaryProtocol();
+        Pusher pusher = new Pusher(tracker, clientSocket, dataOut);
+        byte[] frame = new byte[256];
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = dataIn.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < 1 || length > BinaryProtocol.MAX_REQUEST_FRAME) {
+                    throw new IOException("Invalid binary frame length: " + length);
+                }
+                if (length > frame.length) {
+                    frame = new byte[Math.max(length, frame.length * 2)];
+                }
+                dataIn.readFully(frame, 0, length);
+                if (!protocol.execute(ByteBuffer.wrap(frame, 0, length), pusher)) {
+                    return;
+                }
+                ByteBuffer response = protocol.response();
+                // The pusher writes to the same stream.
+                synchronized (dataOut) {
+                    dataOut.writeInt(response.remaining());
+                    dataOut.write(response.array(), response.arrayOffset() + response.position(), response.remaining());
+                    flushIfDrained(dataIn, dataOut);
+                }
+            }
+        } finally {
+            pusher.close();
+        }
+    }
+
+    // Sends a tracking connection its invalidations from a pooled thread of its own, since the
+    // writer that causes one holds the key's lock and must not wait on a slow socket. Keys that
+    // pile up while a frame is being written go out together in the next one.
+    private final class Pusher extends InvalidationTracker.Subscriber implements Runnable {
+        private static final String STOP = "";
+
+        private final Socket socket;
+        private final DataOutputStream dataOut;
+        private final LinkedBlockingQueue<String> keys = new LinkedBlockingQueue<>();
+
+        Pusher(InvalidationTracker tracker, Socket socket, DataOutputStream dataOut) {
+            super(tracker);
+            this.socket = socket;
+            this.dataOut = dataOut;
+        }
+
+        @Override
+        void started() {
+            // A push followed by a response is two small writes; Nagle would hold the second back
+            // until the client's delayed ACK for the first.
+            try {
+                socket.setTcpNoDelay(true);
+            } catch (SocketException e) {
+                e.printStackTrace();
+            }
+            clientExecutor.execute(this);
+        }
+
+        @Override
+        void push(String key) {
+            keys.add(key);
+        }
+
+        void close() {
+            closed = true;
+            keys.add(STOP);
+        }
+
+        @Override
+        public void run() {
+            List<String> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(keys.take());
+                    keys.drainTo(batch, BinaryProtocol.MAX_INVALIDATE_KEYS - 1);
+                    // Identity check: an empty key read by the client is a real key.
+                    for (String key : batch) {
+                        if (key == STOP) {
+                            return;
+                        }
+                    }
+                    byte[] body = BinaryProtocol.encodeInvalidation(batch);
+                    synchronized (dataOut) {
+                        dataOut.writeInt(body.length);
+                        dataOut.write(body);
+                        dataOut.flush();
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // The connection's own thread sees the failure and cleans up.
+                closed = true;
+            }
+        }
+    }
+
+    // Pipelined clients send many commands before reading; only flush once their input runs dry
+    // so a burst of responses goes out in as few writes as possible.
+    private void flushIfDrained(DataInputStream dataIn, DataOutputStream dataOut) throws IOException {
+        if (dataIn.available() == 0) {
+            dataOut.flush();
+        }
+    }
+
+    BinaryProtocol newBinaryProtocol() {
+        return new BinaryProtocol(keyValStore, keyScanner, MAX_KEYS_BYTES, metrics, replicaOf != null);
+    }
+
+    void logClosed() {
+        if (requestLog.connectionEvents()) {
+            requestLog.log("Client connection closed.");
+        }
+    }
+
+    void logIdleClosed() {
+        metrics.connectionIdleClosed();
+        if (requestLog.connectionEvents()) {
+            requestLog.log("Client connection closed after " + idleTimeoutMillis / 1000 + " s idle.");
+        }
+    }
+
+    // Returns the response frame for a command, or null when the client asked to QUIT.
+    // A leading "#<id> " tag is echoed back on the response so pipelined clients can match them up.
+    String processCommand(String command) {
+        if (command.startsWith("#")) {
+            int space = command.indexOf(' ');
+            if (space > 1) {
+                String response = processCommand(command.substring(space + 1));
+                return response == null ? null : command.substring(0, space) + " " + response;
+            }
+        }
+        long start = System.nanoTime();
+        String[] parts = command.split(" ");
+        String response = dispatch(parts);
+        if (response != null) {
+            metrics.recordCommand(ServerMetrics.Command.of(parts[0]), System.nanoTime() - start);
+        }
+        return response;
+    }
+
+    private String dispatch(String[] parts) {
+        if (replicaOf != null && isWrite(parts[0])) {
+            return responsePrefix() + "Error: Read-only replica of " + replicaOf + ", send writes to the primary";
+        }
+        switch (parts[0]) {
+            case PUT:
+                if (parts.length < 3) break;
+                return handlePutRequest(parts[1], parts[2], parts.length > 3 ? parts[3] : null);
+            case DELETE:
+                if (parts.length < 2) break;
+                return handleDelRequest(parts[1]);
+            case GET:
+                if (parts.length < 2) break;
+                return handleGetRequest(parts[1]);
+            case KEYS:
+                return handleKeysRequest();
+            case SCAN:
+                if (parts.length < 2) break;
+                return responsePrefix() + keyScanner.scanCommand(parts, MAX_KEYS_BYTES);
+            case RANGE:
+                if (parts.length < 3) break;
+                return responsePrefix() + keyScanner.rangeCommand(parts, MAX_KEYS_BYTES);
+            case PREFIX:
+                if (parts.length < 2) break;
+                return responsePrefix() + keyScanner.prefixCommand(parts, MAX_KEYS_BYTES);
+            case EDIT_KEY:
+                if (parts.length < 3) break;
+                return handleEditKeyRequest(parts[1], parts[2]);
+            case EDIT_VALUE:
+                if (parts.length < 3) break;
+                return handleEditValueRequest(parts[1], parts[2], parts.length > 3 ? parts[3] : null);
+            case EXPIRE:
+                if (parts.length < 3) break;
+                return handleExpireRequest(parts[1], parts[2]);
+            case TTL:
+                if (parts.length < 2) break;
+                return handleTtlRequest(parts[1]);
+            case MGET:
+            case MDELETE:
+                if (parts.length < 2) break;
+                return handleBatchRequest(parts);
+            case MPUT:
+                if (parts.length < 3 || parts.length % 2 == 0) break;
+                return handleBatchRequest(parts);
+            case STATS:
+                return responsePrefix() + metrics.describe();
+            case QUIT:
+                return null;
+        }
+        return responsePrefix() + "Invalid command";
+    }
+
+    private boolean isWrite(String command) {
+        switch (command) {
+            case PUT:
+            case DELETE:
+            case EDIT_KEY:
+            case EDIT_VALUE:
+            case MPUT:
+            case MDELETE:
+            case EXPIRE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // ttl is null when the command has none.
+    private String handlePutRequest(String key, String value, String ttl) {
+        long expiresAt = ttl == null ? KeyValueStore.NO_EXPIRY : BinaryProtocol.expiresAt(ttl);
+        if (expiresAt < 0) {
+            return responsePrefix() + INVALID_TTL;
+        }
         if (key.length() > 10 || value.length() > 10) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key or value length exceeds 10 characters.");
+            return responsePrefix() + "Key or value length exceeds 10 characters.";
+        }
+        KeyValueStore.Status status = keyValStore.putIfAbsent(key.toLowerCase(), value, expiresAt);
+        if (status == KeyValueStore.Status.KEY_EXISTS) {
+            return responsePrefix() + "Key already exists. Cannot add duplicate keys.";
         }
-        else if (keyValStore.containsKey(key.toLowerCase())) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key already exists. Cannot add duplicate keys.");
+        else if (status == KeyValueStore.Status.STORE_FULL) {
+            return responsePrefix() + STORE_FULL;
         }else {
-            keyValStore.put(key.toLowerCase(), value);
-            dataOut.writeUTF("[" + getTimeStamp() + "] Successfully: Key ["+key+"] with value ["+value+"] added successfully");
+            return responsePrefix() + "Successfully: Key ["+key+"] with value ["+value+"] added successfully"
+                    + (ttl == null ? "" : ", expires in " + ttl + " s");
         }
     }
 
-    private void handleDelRequest(DataOutputStream dataOut, String key) throws IOException {
+    private String handleDelRequest(String key) {
         if (key.length() > 10) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key length exceeds 10 characters.");
+            return responsePrefix() + "Key length exceeds 10 characters.";
         }
-        else if (keyValStore.containsKey(key)) {
-            keyValStore.remove(key);
-            dataOut.writeUTF("[" + getTimeStamp() + "] Successfully: Key ["+key+"] removed successfully");
+        else if (keyValStore.remove(key) == KeyValueStore.Status.OK) {
+            return responsePrefix() + "Successfully: Key ["+key+"] removed successfully";
         }
         else {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Error: Key does not exist or not found");
+            return responsePrefix() + "Error: Key does not exist or not found";
         }
     }
 
-    private void handleGetRequest(DataOutputStream dataOut, String key) throws IOException {
+    private String handleGetRequest(String key) {
         if (key.length() > 10) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key length exceeds 10 characters.");
+            return responsePrefix() + "Key length exceeds 10 characters.";
         }
-        else if (keyValStore.containsKey(key)) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key ["+key+"] with value ["+keyValStore.get(key)+"] ");
+        String value = keyValStore.get(key);
+        if (value != null) {
+            return responsePrefix() + "Key ["+key+"] with value ["+value+"] ";
         }
         else {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Error: Key does not exist or not found");
+            return responsePrefix() + "Error: Key does not exist or not found";
         }
     }
 
-    private void handleKeysRequest(DataOutputStream dataOut) throws IOException {
-        if (keyValStore.isEmpty()) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key Store: Empty");
-        } 
-        else {
-            StringBuilder keys = new StringBuilder();
-            for (String key : keyValStore.keySet()) {
-                keys.append("[").append(key).append("]");
+    private String handleBatchRequest(String[] parts) {
+        StringBuilder results = new StringBuilder();
+        int step = parts[0].equals(MPUT) ? 2 : 1;
+        for (int i = 1; i < parts.length; i += step) {
+            if (i > 1) {
+                results.append(", ");
+            }
+            String key = parts[i];
+            results.append("[").append(key).append("] ");
+            if (parts[0].equals(MPUT)) {
+                results.append(BinaryProtocol.statusCode(BinaryProtocol.putStatus(keyValStore, key, parts[i + 1])));
+            } else if (parts[0].equals(MDELETE)) {
+                results.append(BinaryProtocol.statusCode(BinaryProtocol.deleteStatus(keyValStore, key)));
+            } else {
+                String value = key.length() > 10 ? null : keyValStore.get(key);
+                if (key.length() > 10) {
+                    results.append(BinaryProtocol.statusCode(BinaryProtocol.STATUS_TOO_LONG));
+                } else if (value == null) {
+                    results.append(BinaryProtocol.statusCode(BinaryProtocol.STATUS_NOT_FOUND));
+                } else {
+                    results.append("= [").append(value).append("]");
+                }
             }
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key Store: " + keys.toString());
         }
+        return responsePrefix() + "Batch results: " + results;
+    }
+
+    private String handleKeysRequest() {
+        StringBuilder keys = new StringBuilder();
+        int bytes = 0;
+        for (String key : keyValStore.keys()) {
+            bytes += KeyScanner.encodedSize(key);
+            if (bytes > MAX_KEYS_BYTES) {
+                // One reply cannot carry more; SCAN pages through the rest.
+                keys.append(" ... (truncated, use SCAN to list every key)");
+                break;
+            }
+            keys.append("[").append(key).append("]");
+        }
+        // Checked after the loop, since keys that have expired but are not yet swept are skipped.
+        if (keys.length() == 0) {
+            return responsePrefix() + "Key Store: Empty";
+        }
+        return responsePrefix() + "Key Store: " + keys.toString();
     }
 
 
 
-    private void handleEditKeyRequest(DataOutputStream dataOut, String oldKey, String newKey) throws IOException {
+    private String handleEditKeyRequest(String oldKey, String newKey) {
         if (newKey.length() > 10) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] New key length exceeds 10 characters.");
-        } else if (keyValStore.containsKey(newKey.toLowerCase())) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key with this name already exists. Please edit it again!");
-        } else if (!keyValStore.containsKey(oldKey.toLowerCase())) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key does not exist.");
+            return responsePrefix() + "New key length exceeds 10 characters.";
+        }
+        switch (keyValStore.rename(oldKey.toLowerCase(), newKey.toLowerCase())) {
+            case KEY_EXISTS:
+                return responsePrefix() + "Key with this name already exists. Please edit it again!";
+            case KEY_NOT_FOUND:
+                return responsePrefix() + "Key does not exist.";
+            default:
+                return responsePrefix() + "Key updated successfully.";
+        }
+    }
+
+    // Without a ttl the key keeps the TTL it has, if any.
+    private String handleEditValueRequest(String key, String newValue, String ttl) {
+        long expiresAt = ttl == null ? KeyValueStore.NO_EXPIRY : BinaryProtocol.expiresAt(ttl);
+        if (expiresAt < 0) {
+            return responsePrefix() + INVALID_TTL;
+        } else if (key.length() > 10 || newValue.length() > 10) {
+            return responsePrefix() + "Key or value length exceeds 10 characters.";
+        } else if (keyValStore.replace(key.toLowerCase(), newValue, expiresAt) == KeyValueStore.Status.KEY_NOT_FOUND) {
+            return responsePrefix() + "Key does not exist.";
         } else {
-            String value = keyValStore.remove(oldKey.toLowerCase());
-            keyValStore.put(newKey.toLowerCase(), value);
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key updated successfully.");
+            return responsePrefix() + "Value updated successfully.";
         }
     }
 
-    private void handleEditValueRequest(DataOutputStream dataOut, String key, String newValue) throws IOException {
-        if (key.length() > 10 || newValue.length() > 10) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key or value length exceeds 10 characters.");
-        } else if (!keyValStore.containsKey(key.toLowerCase())) {
-            dataOut.writeUTF("[" + getTimeStamp() + "] Key does not exist.");
+    private String handleExpireRequest(String key, String ttl) {
+        long expiresAt = BinaryProtocol.expiresAt(ttl);
+        if (expiresAt < 0) {
+            return responsePrefix() + INVALID_TTL;
+        } else if (key.length() > 10 || keyValStore.expire(key.toLowerCase(), expiresAt) == KeyValueStore.Status.KEY_NOT_FOUND) {
+            return responsePrefix() + "Error: Key does not exist or not found";
         } else {
-            keyValStore.put(key.toLowerCase(), newValue);
-            dataOut.writeUTF("[" + getTimeStamp() + "] Value updated successfully.");
+            return responsePrefix() + "Successfully: Key [" + key + "] expires in " + ttl + " s";
         }
     }
 
-    private String getTimeStamp() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return dateFormat.format(new Date());
+    private String handleTtlRequest(String key) {
+        long ttl = key.length() > 10 ? -2 : keyValStore.ttlMillis(key.toLowerCase());
+        if (ttl == -2) {
+            return responsePrefix() + "Error: Key does not exist or not found";
+        } else if (ttl == -1) {
+            return responsePrefix() + "Key [" + key + "] has no TTL";
+        } else {
+            return responsePrefix() + "Key [" + key + "] expires in " + (ttl + 999) / 1000 + " s";
+        }
+    }
+
+    // --timestamps=false drops the "[time] " prefix from responses entirely.
+    private String responsePrefix() {
+        return timestampResponses ? Clock.prefix() : "";
     }
 
     private void cleanUp(DataInputStream dataIn, DataOutputStream dataOut, Socket clientSocket) {
@@ -175,7 +583,15 @@ public class TCPServer {
     }
 
     public static void main(String[] args) {
-        TCPServer server = new TCPServer();
-        server.startServer();
+        ServerConfig config = ServerConfig.fromArgs(args);
+        TCPServer server = new TCPServer(config);
+        server.metrics.register("TCPServer");
+        server.startReplication();
+        if ("nio".equals(config.getString("mode", "blocking"))) {
+            int loops = config.getInt("event-loops", Runtime.getRuntime().availableProcessors());
+            new TCPEventLoopServer(server, server.port, loops, server.maxConnections).startServer();
+        } else {
+            server.startServer();
+        }
     }
 }
@@ -0,0 +1,164 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+// Hierarchical timing wheel that finds keys whose TTL has run out without scanning the store or
+// keeping a timer per key. Level 0 has 64 slots of one tick each, and every level above has 64
+// slots each as wide as the whole level below: with 100 ms ticks the four levels reach about
+// 19 days, and anything later waits in an overflow list. A deadline goes into the lowest level
+// that spans it; when a slot of a higher level comes due its entries are cascaded into the levels
+// below, so each entry is moved at most once per level.
+//
+// Scheduling pushes onto a lock-free inbox and never waits; one sweeper thread owns the wheel,
+// drains the inbox every tick, advances to the current time and hands due keys to the Expirer.
+// Entries are never cancelled: a deleted key or one given a new TTL leaves a stale entry that the
+// Expirer recognises by its deadline and skips.
+final class TimingWheel {
+    interface Expirer {
+        // Called on the sweeper thread once expiresAt has passed. Returns false to be asked again
+        // a tick later, e.g. when the clock went back and the key is not due after all.
+        boolean expire(String key, long expiresAt);
+    }
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final class Entry {
+        final String key;
+        final long expiresAt;
+        Entry next;
+
+        Entry(String key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long tickMs;
+    private final Expirer expirer;
+    private final AtomicReference<Entry> inbox = new AtomicReference<>();
+    // Only the sweeper thread touches the rest.
+    private final Entry[][] slots = new Entry[LEVELS][SLOTS];
+    private Entry overflow;
+    private long currentTick;
+    private Thread sweeper;
+
+    TimingWheel(long tickMs, Expirer expirer) {
+        if (tickMs < 1) {
+            throw new IllegalArgumentException("tickMs must be positive: " + tickMs);
+        }
+        this.tickMs = tickMs;
+        this.expirer = expirer;
+        currentTick = System.currentTimeMillis() / tickMs;
+    }
+
+    // Safe from any thread. Entries scheduled before start() wait in the inbox.
+    void schedule(String key, long expiresAt) {
+        Entry entry = new Entry(key, expiresAt);
+        Entry head;
+        do {
+            head = inbox.get();
+            entry.next = head;
+        } while (!inbox.compareAndSet(head, entry));
+    }
+
+    synchronized void start() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(tickMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                advance(System.currentTimeMillis());
+            }
+        }, "expiry-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    private void advance(long now) {
+        placeAll(inbox.getAndSet(null));
+        long targetTick = now / tickMs;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+            int slot = (int) (currentTick & (SLOTS - 1));
+            Entry due = slots[0][slot];
+            slots[0][slot] = null;
+            while (due != null) {
+                Entry next = due.next;
+                fire(due);
+                due = next;
+            }
+        }
+    }
+
+    // A level's slot comes due when the tick reaches the start of its span. Higher levels go
+    // first, so entries they hand down into a slot that is also due now are cascaded again.
+    private void cascade() {
+        if ((currentTick & spanMask(LEVELS)) == 0) {
+            Entry waiting = overflow;
+            overflow = null;
+            placeAll(waiting);
+        }
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            if ((currentTick & spanMask(level)) == 0) {
+                int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                Entry entries = slots[level][slot];
+                slots[level][slot] = null;
+                placeAll(entries);
+            }
+        }
+    }
+
+    private void placeAll(Entry entry) {
+        while (entry != null) {
+            Entry next = entry.next;
+            place(entry);
+            entry = next;
+        }
+    }
+
+    private void place(Entry entry) {
+        // The first tick at or after the deadline.
+        long tick = (entry.expiresAt + tickMs - 1) / tickMs;
+        long delta = tick - currentTick;
+        if (delta <= 0) {
+            fire(entry);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta <= spanMask(level + 1)) {
+                int slot = (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                entry.next = slots[level][slot];
+                slots[level][slot] = entry;
+                return;
+            }
+        }
+        entry.next = overflow;
+        overflow = entry;
+    }
+
+    private void fire(Entry entry) {
+        boolean done;
+        try {
+            done = expirer.expire(entry.key, entry.expiresAt);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            done = true;
+        }
+        if (!done) {
+            int slot = (int) ((currentTick + 1) & (SLOTS - 1));
+            entry.next = slots[0][slot];
+            slots[0][slot] = entry;
+        }
+    }
+
+    // Ticks spanned by one slot of the given level, minus one.
+    private static long spanMask(int level) {
+        return (1L << (SLOT_BITS * level)) - 1;
+    }
+}
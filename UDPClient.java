@@ -1,7 +1,8 @@
 import java.io.*;
 import java.net.*;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public class UDPClient {
     private static final String SERVER_ADDRESS = "localhost";
@@ -14,17 +15,55 @@ public class UDPClient {
     private static final String EDIT = "EDIT";
     private static final String EDIT_KEY = "EDIT_KEY";
     private static final String EDIT_VALUE = "EDIT_VALUE";
+    private static final String MGET = "MGET";
+    private static final String MPUT = "MPUT";
+    private static final String MDELETE = "MDELETE";
+    private static final String SCAN = "SCAN";
+    private static final String RANGE = "RANGE";
+    private static final String PREFIX = "PREFIX";
+    private static final String STATS = "STATS";
+    private static final String EXPIRE = "EXPIRE";
+    private static final String TTL = "TTL";
+    private static final String SCAN_USAGE = "Invalid command. Usage: SCAN <cursor> [MATCH <prefix>] [COUNT <n>]";
+    private static final int KEYS_PAGE_COUNT = 1000;
+    private static final int DEFAULT_MAX_DATAGRAM = 1024;
+    // Room for the command name, timestamp and framing around the batch entries.
+    private static final int DATAGRAM_HEADROOM = 64;
+    // ", [key] KEY_EXISTS" style separators and status text around each key in a reply.
+    private static final int RESPONSE_ENTRY_OVERHEAD = 16;
+    // Values are at most 10 characters, i.e. 30 bytes of UTF-8.
+    private static final int MAX_VALUE_BYTES = 30;
+    private static int maxDatagramSize = DEFAULT_MAX_DATAGRAM;
+    // First wait for a reply; doubled on every retransmission.
+    private static final long INITIAL_TIMEOUT_MS = 250;
+    private static final int MAX_ATTEMPTS = 5;
+    // Random start so a restarted client does not collide with its old IDs in the server's cache.
+    private static int nextRequestId = new Random().nextInt(Integer.MAX_VALUE);
     private static DatagramSocket clientSocket;
     private static InetAddress serverAddress;
     private static int serverPort;
+    private static boolean binaryMode;
 
     public static String timeStamp =getTimeStamp();
 
     public static void main(String[] args) {
+        if (Arrays.asList(args).contains("--load")) {
+            LoadGenerator.run("udp", ServerConfig.fromArgs(args));
+            return;
+        }
         try {
             clientSocket = new DatagramSocket();
             serverAddress = InetAddress.getByName(SERVER_ADDRESS);
             serverPort = SERVER_PORT;
+            for (String arg : args) {
+                if (arg.equals("--binary")) {
+                    binaryMode = true;
+                } else if (arg.startsWith("--max-datagram=")) {
+                    maxDatagramSize = Integer.parseInt(arg.substring("--max-datagram=".length()));
+                } else if (arg.startsWith("--port=")) {
+                    serverPort = Integer.parseInt(arg.substring("--port=".length()));
+                }
+            }
 
 
             Scanner scanner = new Scanner(System.in);
@@ -36,7 +75,11 @@ public class UDPClient {
 
                 switch (command) {
                     case QUIT:
-                        sendCommand(QUIT);
+                        if (binaryMode) {
+                            sendBinary(BinaryProtocol.OP_QUIT);
+                        } else {
+                            sendCommand(QUIT);
+                        }
                         System.out.println("["+timeStamp+"] Thank you for cooperation!");
                         return;
                     case KEYS:
@@ -47,11 +90,25 @@ public class UDPClient {
                         handleKeysRequest();
                         break;
                     case PUT:
+                        if (parts.length != 3 && parts.length != 4) {
+                            System.out.println("[" + timeStamp + "] Invalid command. Usage: PUT <key> <value> [<ttl seconds>]");
+                            break;
+                        }
+                        handlePutRequest(parts[1], parts[2], parts.length == 4 ? parts[3] : null);
+                        break;
+                    case EXPIRE:
                         if (parts.length != 3) {
-                            System.out.println("[" + timeStamp + "] Invalid command. Usage: PUT <key> <value>");
+                            System.out.println("[" + timeStamp + "] Invalid command. Usage: EXPIRE <key> <ttl seconds>");
+                            break;
+                        }
+                        System.out.println(exchange(EXPIRE, parts[1], parts[2]));
+                        break;
+                    case TTL:
+                        if (parts.length != 2) {
+                            System.out.println("[" + timeStamp + "] Invalid command. Usage: TTL <key>");
                             break;
                         }
-                        handlePutRequest(parts[1], parts[2]);
+                        System.out.println(exchange(TTL, parts[1]));
                         break;
                     case DELETE:
                         if (parts.length != 2) {
@@ -74,6 +131,47 @@ public class UDPClient {
                         }
                         handleEditMenu();
                         break;
+                    case MGET:
+                    case MDELETE:
+                        if (parts.length < 2) {
+                            System.out.println("[" + timeStamp + "] Invalid command. Usage: " + command + " <key> [<key> ...]");
+                            break;
+                        }
+                        handleBatchRequest(command, Arrays.copyOfRange(parts, 1, parts.length));
+                        break;
+                    case SCAN:
+                        if (parts.length < 2 || !handleScanRequest(parts)) {
+                            System.out.println("[" + timeStamp + "] " + SCAN_USAGE);
+                        }
+                        break;
+                    case RANGE:
+                        if (parts.length != 3) {
+                            System.out.println("[" + timeStamp + "] Invalid command. Usage: RANGE <from> <to>");
+                            break;
+                        }
+                        handleRangeRequest(parts[1], parts[2]);
+                        break;
+                    case STATS:
+                        if (parts.length != 1) {
+                            System.out.println("[" + timeStamp + "] Invalid command. Usage: STATS");
+                            break;
+                        }
+                        System.out.println(exchange(STATS));
+                        break;
+                    case PREFIX:
+                        if (parts.length != 2) {
+                            System.out.println("[" + timeStamp + "] Invalid command. Usage: PREFIX <prefix>");
+                            break;
+                        }
+                        handlePrefixRequest(parts[1]);
+                        break;
+                    case MPUT:
+                        if (parts.length < 3 || parts.length % 2 == 0) {
+                            System.out.println("[" + timeStamp + "] Invalid command. Usage: MPUT <key> <value> [<key> <value> ...]");
+                            break;
+                        }
+                        handleBatchRequest(command, Arrays.copyOfRange(parts, 1, parts.length));
+                        break;
                     default:
                         System.out.println("[" + timeStamp + "] Invalid command.");
                         break;
@@ -87,11 +185,20 @@ public class UDPClient {
     private static void displayMenu() {
         System.out.println("\nChoose an option:");
         System.out.println("1. GET <key>");
-        System.out.println("2. PUT <key> <value>");
+        System.out.println("2. PUT <key> <value> [<ttl seconds>]");
         System.out.println("3. DELETE <key>");
         System.out.println("4. KEYS");
         System.out.println("5. EDIT");
-        System.out.println("6. QUIT");
+        System.out.println("6. MGET <key> [<key> ...]");
+        System.out.println("7. MPUT <key> <value> [<key> <value> ...]");
+        System.out.println("8. MDELETE <key> [<key> ...]");
+        System.out.println("9. SCAN <cursor> [MATCH <prefix>] [COUNT <n>]");
+        System.out.println("10. RANGE <from> <to>");
+        System.out.println("11. PREFIX <prefix>");
+        System.out.println("12. STATS");
+        System.out.println("13. EXPIRE <key> <ttl seconds>");
+        System.out.println("14. TTL <key>");
+        System.out.println("15. QUIT");
         System.out.print("Enter your choice: ");
     }
     private static void handleEditMenu() {
@@ -133,8 +240,7 @@ public class UDPClient {
         String oldKey = scanner.nextLine().trim();
         System.out.print("Enter the new key: ");
         String newKey = scanner.nextLine().trim();
-        sendCommand(EDIT_KEY + " " + oldKey + " " + newKey);
-        String response = receiveResponse();
+        String response = exchange(EDIT_KEY, oldKey, newKey);
         System.out.println(response);
     }
 
@@ -144,8 +250,9 @@ public class UDPClient {
         String key = scanner.nextLine().trim();
         System.out.print("Enter the new value: ");
         String newValue = scanner.nextLine().trim();
-        sendCommand(EDIT_VALUE + " " + key + " " + newValue);
-        String response = receiveResponse();
+        System.out.print("Enter a new TTL in seconds (blank keeps the current one): ");
+        String ttl = scanner.nextLine().trim();
+        String response = ttl.isEmpty() ? exchange(EDIT_VALUE, key, newValue) : exchange(EDIT_VALUE, key, newValue, ttl);
         System.out.println(response);
     }
 
@@ -159,45 +266,274 @@ public class UDPClient {
         }
     }
 
+    private static void sendBinary(byte opcode, String... args) {
+        sendDatagram(binaryDatagram(BinaryProtocol.encodeRequest(opcode, args)));
+    }
+
+    static byte[] binaryDatagram(byte[] body) {
+        byte[] sendData = new byte[2 + body.length];
+        sendData[0] = BinaryProtocol.MAGIC;
+        sendData[1] = BinaryProtocol.VERSION;
+        System.arraycopy(body, 0, sendData, 2, body.length);
+        return sendData;
+    }
+
+    private static void sendDatagram(byte[] sendData) {
+        try {
+            clientSocket.send(new DatagramPacket(sendData, sendData.length, serverAddress, serverPort));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int nextRequestId() {
+        int requestId = nextRequestId;
+        nextRequestId = requestId == Integer.MAX_VALUE ? 0 : requestId + 1;
+        return requestId;
+    }
+
+    // Sends a tagged request and waits for the reply carrying the same tag. The request is
+    // retransmitted with a doubling timeout when it or its reply is lost, and replies to earlier
+    // requests that arrive late are discarded. Returns null once every attempt has timed out.
+    private static DatagramPacket request(byte[] sendData, int requestId, boolean binary) {
+        byte[] receiveData = new byte[maxDatagramSize];
+        DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+        long timeout = INITIAL_TIMEOUT_MS;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            sendDatagram(sendData);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            try {
+                long remaining;
+                while ((remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) > 0) {
+                    clientSocket.setSoTimeout((int) remaining);
+                    receivePacket.setLength(receiveData.length);
+                    clientSocket.receive(receivePacket);
+                    if (matches(receivePacket, requestId, binary)) {
+                        return receivePacket;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                // retransmit below
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            timeout *= 2;
+        }
+        return null;
+    }
+
+    static boolean matches(DatagramPacket packet, int requestId, boolean binary) {
+        byte[] data = packet.getData();
+        int length = packet.getLength();
+        if (binary) {
+            return length >= 8 && data[0] == BinaryProtocol.MAGIC && data[2] == BinaryProtocol.TAGGED
+                    && ByteBuffer.wrap(data, 3, 4).getInt() == requestId;
+        }
+        String tag = "#" + requestId + " ";
+        return length >= tag.length() && new String(data, 0, tag.length()).equals(tag);
+    }
+
+    private static String noResponse() {
+        return "[" + getTimeStamp() + "] No response from server after " + MAX_ATTEMPTS + " attempts.";
+    }
+
+    private static String exchange(String command, String... args) {
+        int requestId = nextRequestId();
+        if (!binaryMode) {
+            String tag = "#" + requestId + " ";
+            String text = tag + (args.length == 0 ? command : command + " " + String.join(" ", args));
+            DatagramPacket reply = request(text.getBytes(), requestId, false);
+            if (reply == null) {
+                return noResponse();
+            }
+            return new String(reply.getData(), tag.length(), reply.getLength() - tag.length());
+        }
+        byte opcode = BinaryProtocol.opcodeOf(command);
+        DatagramPacket reply = request(binaryDatagram(BinaryProtocol.encodeRequest(requestId, opcode, args)), requestId, true);
+        if (reply == null) {
+            return noResponse();
+        }
+        // Skip magic, version and the 5-byte request tag.
+        ByteBuffer body = ByteBuffer.wrap(reply.getData(), 7, reply.getLength() - 7);
+        return "[" + getTimeStamp() + "] " + BinaryProtocol.describeResponse(opcode, body);
+    }
+
+    private static void handleBatchRequest(String command, String[] args) {
+        for (String[] chunk : splitBatch(command, args)) {
+            if (!binaryMode) {
+                System.out.println(exchange(command, chunk));
+                continue;
+            }
+            byte opcode = BinaryProtocol.opcodeOf(command);
+            int requestId = nextRequestId();
+            byte[] body = BinaryProtocol.tag(requestId, BinaryProtocol.encodeBatchRequest(opcode, chunk));
+            DatagramPacket reply = request(binaryDatagram(body), requestId, true);
+            if (reply == null) {
+                System.out.println(noResponse());
+                continue;
+            }
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < chunk.length; i += command.equals(MPUT) ? 2 : 1) {
+                keys.add(chunk[i]);
+            }
+            ByteBuffer replyBody = ByteBuffer.wrap(reply.getData(), 7, reply.getLength() - 7);
+            System.out.println("[" + getTimeStamp() + "] " + BinaryProtocol.describeBatchResponse(opcode, keys, replyBody));
+        }
+    }
+
+    // Splits a batch so each request and its worst-case reply fit in one datagram.
+    private static List<String[]> splitBatch(String command, String[] args) {
+        int step = command.equals(MPUT) ? 2 : 1;
+        int budget = maxDatagramSize - DATAGRAM_HEADROOM;
+        List<String[]> chunks = new ArrayList<>();
+        int start = 0;
+        int requestBytes = 0;
+        int responseBytes = 0;
+        for (int i = 0; i < args.length; i += step) {
+            int keyBytes = args[i].getBytes().length;
+            int entryRequest = 2 + keyBytes + (step == 2 ? 2 + args[i + 1].getBytes().length : 0);
+            int entryResponse = RESPONSE_ENTRY_OVERHEAD + keyBytes + (command.equals(MGET) ? MAX_VALUE_BYTES : 0);
+            if (i > start && (requestBytes + entryRequest > budget || responseBytes + entryResponse > budget)) {
+                chunks.add(Arrays.copyOfRange(args, start, i));
+                start = i;
+                requestBytes = 0;
+                responseBytes = 0;
+            }
+            requestBytes += entryRequest;
+            responseBytes += entryResponse;
+        }
+        chunks.add(Arrays.copyOfRange(args, start, args.length));
+        return chunks;
+    }
+
     private static void handleGetRequest(String key) {
-        sendCommand(GET + " " + key);
-        String response = receiveResponse();
+        String response = exchange(GET, key);
         System.out.println(response);
     }
 
-    private static void handlePutRequest(String key, String value) {
-        sendCommand(PUT + " " + key + " " + value);
-        String response = receiveResponse();
+    private static void handlePutRequest(String key, String value, String ttl) {
+        String response = ttl == null ? exchange(PUT, key, value) : exchange(PUT, key, value, ttl);
         System.out.println(response);
     }
 
     private static void handleDelRequest(String key) {
-        sendCommand(DELETE + " " + key);
-        String response = receiveResponse();
+        String response = exchange(DELETE, key);
         System.out.println(response);
     }
 
+    // Lists the keyspace one SCAN page at a time, so no single reply has to hold every key.
     private static void handleKeysRequest() {
-        sendCommand(KEYS);
-        String response = receiveResponse();
-        System.out.println(response);
+        long cursor = 0;
+        boolean empty = true;
+        do {
+            String response = scanPage(cursor, "", KEYS_PAGE_COUNT);
+            cursor = nextCursor(response);
+            if (cursor < 0) {
+                System.out.println(response);
+                return;
+            }
+            String keys = response.substring(response.indexOf("Keys: ") + "Keys: ".length());
+            if (!keys.isEmpty()) {
+                System.out.println("[" + getTimeStamp() + "] Key Store: " + keys);
+                empty = false;
+            }
+        } while (cursor != 0);
+        if (empty) {
+            System.out.println("[" + getTimeStamp() + "] Key Store: Empty");
+        }
     }
 
-    private static String receiveResponse() {
+    // Returns false when the arguments do not parse.
+    private static boolean handleScanRequest(String[] parts) {
+        long cursor;
+        String prefix = "";
+        int count = KeyScanner.DEFAULT_COUNT;
         try {
-            byte[] receiveData = new byte[1024];
-            DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-            clientSocket.receive(receivePacket);
-            return new String(receivePacket.getData(), 0, receivePacket.getLength());
-        } catch (IOException e) {
-            e.printStackTrace();
+            cursor = Long.parseLong(parts[1]);
+            for (int i = 2; i < parts.length; i += 2) {
+                if (i + 1 == parts.length) {
+                    return false;
+                } else if (parts[i].equalsIgnoreCase("MATCH")) {
+                    prefix = parts[i + 1];
+                } else if (parts[i].equalsIgnoreCase("COUNT")) {
+                    count = Integer.parseInt(parts[i + 1]);
+                } else {
+                    return false;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        System.out.println(scanPage(cursor, prefix, count));
+        return true;
+    }
+
+    // Both encodings render a page as "Cursor [<next>] Keys: [k1][k2]...".
+    private static String scanPage(long cursor, String prefix, int count) {
+        if (binaryMode) {
+            return exchange(SCAN, Long.toString(cursor), prefix, Integer.toString(count));
+        }
+        List<String> args = new ArrayList<>();
+        args.add(Long.toString(cursor));
+        if (!prefix.isEmpty()) {
+            args.add("MATCH");
+            args.add(prefix);
+        }
+        args.add("COUNT");
+        args.add(Integer.toString(count));
+        return exchange(SCAN, args.toArray(new String[0]));
+    }
+
+    // Pages through the keys from..to in sorted order; each reply names the key the next page starts at.
+    private static void handleRangeRequest(String from, String to) {
+        String next = from;
+        String limit = Integer.toString(KEYS_PAGE_COUNT);
+        do {
+            String response = binaryMode ? exchange(RANGE, next, to, limit) : exchange(RANGE, next, to, "LIMIT", limit);
+            System.out.println(response);
+            next = nextKey(response);
+        } while (next != null);
+    }
+
+    private static void handlePrefixRequest(String prefix) {
+        String next = "";
+        String limit = Integer.toString(KEYS_PAGE_COUNT);
+        do {
+            String response;
+            if (binaryMode) {
+                response = exchange(PREFIX, prefix, next, limit);
+            } else if (next.isEmpty()) {
+                response = exchange(PREFIX, prefix, "LIMIT", limit);
+            } else {
+                response = exchange(PREFIX, prefix, "FROM", next, "LIMIT", limit);
+            }
+            System.out.println(response);
+            next = nextKey(response);
+        } while (next != null);
+    }
+
+    // The "Next: [key]" continuation of a RANGE or PREFIX reply, or null on the last page.
+    private static String nextKey(String response) {
+        int start = response.lastIndexOf(" Next: [");
+        if (start < 0 || !response.endsWith("]")) {
             return null;
         }
+        return response.substring(start + " Next: [".length(), response.length() - 1);
+    }
+
+    // The cursor from a SCAN reply, or -1 if the reply is an error.
+    private static long nextCursor(String response) {
+        int start = response.indexOf("Cursor [");
+        if (start < 0) {
+            return -1;
+        }
+        start += "Cursor [".length();
+        return Long.parseLong(response.substring(start, response.indexOf(']', start)));
     }
 
     private static String getTimeStamp() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return dateFormat.format(new Date());
+        return Clock.timeStamp();
     }
 }
 
@@ -0,0 +1,86 @@
+import java.net.InetAddress;
+import java.util.*;
+
+// Recent UDP replies keyed by (client address, client port, request ID), so a retransmitted
+// request is answered from here instead of being executed a second time. Bounded by entry count;
+// the oldest entries are dropped first. Striped so concurrent receive workers rarely share a lock.
+public class UDPResponseCache {
+    // Marks a request that is currently executing.
+    static final byte[] IN_PROGRESS = new byte[0];
+
+    private static final int STRIPES = 16;
+    private final List<Map<RequestKey, byte[]>> stripes = new ArrayList<>(STRIPES);
+
+    public UDPResponseCache(int capacity) {
+        if (capacity < STRIPES) {
+            throw new IllegalArgumentException("capacity must be at least " + STRIPES + ": " + capacity);
+        }
+        int perStripe = capacity / STRIPES;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new LinkedHashMap<RequestKey, byte[]>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<RequestKey, byte[]> eldest) {
+                    return size() > perStripe;
+                }
+            });
+        }
+    }
+
+    // Returns null if the request is new (it is then marked IN_PROGRESS), IN_PROGRESS if it is
+    // still executing, or the reply sent the first time.
+    byte[] begin(InetAddress address, int port, long requestId) {
+        RequestKey key = new RequestKey(address, port, requestId);
+        Map<RequestKey, byte[]> stripe = stripeFor(key);
+        synchronized (stripe) {
+            byte[] existing = stripe.get(key);
+            if (existing == null) {
+                stripe.put(key, IN_PROGRESS);
+            }
+            return existing;
+        }
+    }
+
+    // Records the reply for a request started with begin(); null forgets the request instead.
+    void complete(InetAddress address, int port, long requestId, byte[] response) {
+        RequestKey key = new RequestKey(address, port, requestId);
+        Map<RequestKey, byte[]> stripe = stripeFor(key);
+        synchronized (stripe) {
+            if (response == null) {
+                stripe.remove(key);
+            } else {
+                stripe.put(key, response);
+            }
+        }
+    }
+
+    private Map<RequestKey, byte[]> stripeFor(RequestKey key) {
+        int h = key.hashCode();
+        return stripes.get((h ^ (h >>> 16)) & (STRIPES - 1));
+    }
+
+    private static final class RequestKey {
+        private final InetAddress address;
+        private final int port;
+        private final long requestId;
+
+        private RequestKey(InetAddress address, int port, long requestId) {
+            this.address = address;
+            this.port = port;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RequestKey)) {
+                return false;
+            }
+            RequestKey other = (RequestKey) o;
+            return port == other.port && requestId == other.requestId && address.equals(other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * address.hashCode() + port) + Long.hashCode(requestId);
+        }
+    }
+}
@@ -1,12 +1,26 @@
 import java.io.*;
 import java.net.*;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.Supplier;
 
 public class UDPServer {
-    private static final int SERVER_PORT = 7856;
+    private static final int DEFAULT_PORT = 7856;
+    private static final int DEFAULT_MAX_DATAGRAM = 1024;
+    // Room left in a reply datagram for the request tag, timestamp and "Cursor [n] Keys: ".
+    private static final int REPLY_HEADROOM = 96;
+    private static int serverPort;
+    private static int maxDatagramSize;
+    private static boolean timestampResponses;
     private static DatagramSocket serverSocket;
-    private static HashMap<String, String> keyValStore;
+    private static KeyValueStore keyValStore;
+    private static KeyScanner keyScanner;
+    private static BinaryProtocol binaryProtocol;
+    private static UDPResponseCache responseCache;
+    private static ServerMetrics metrics;
+    private static RequestLog requestLog;
+    private static volatile boolean clientConnected;
+    private static final int DEFAULT_DEDUP_CACHE_SIZE = 8192;
     private static final String QUIT = "QUIT";
     private static final String KEYS = "KEYS";
     private static final String PUT = "PUT";
@@ -14,61 +28,49 @@ public class UDPServer {
     private static final String GET = "GET";
     private static final String EDIT_KEY = "EDIT_KEY";
     private static final String EDIT_VALUE = "EDIT_VALUE";
+    private static final String MGET = "MGET";
+    private static final String MPUT = "MPUT";
+    private static final String MDELETE = "MDELETE";
+    private static final String SCAN = "SCAN";
+    private static final String RANGE = "RANGE";
+    private static final String PREFIX = "PREFIX";
+    private static final String STATS = "STATS";
+    private static final String EXPIRE = "EXPIRE";
+    private static final String TTL = "TTL";
+    private static final String INVALID_TTL = "Invalid TTL. Use a whole number of seconds greater than 0.";
+    private static final String STORE_FULL = "Error: Store is full. Delete keys before adding new ones.";
 
     public UDPServer() {
-        keyValStore = new HashMap<>();
+        this(ServerConfig.fromArgs(new String[0]));
+    }
+
+    public UDPServer(ServerConfig config) {
+        serverPort = config.getInt("port", DEFAULT_PORT);
+        maxDatagramSize = config.getInt("max-datagram", DEFAULT_MAX_DATAGRAM);
+        timestampResponses = config.getBoolean("timestamps", true);
+        keyValStore = KeyValueStore.fromConfig(config);
+        keyScanner = new KeyScanner(keyValStore);
+        metrics = new ServerMetrics(keyValStore::size, keyValStore::evictions);
+        requestLog = RequestLog.fromConfig(config);
+        binaryProtocol = newBinaryProtocol();
+        responseCache = new UDPResponseCache(config.getInt("dedup-cache", DEFAULT_DEDUP_CACHE_SIZE));
     }
 
     public void startServer() {
         try {
-            serverSocket = new DatagramSocket(SERVER_PORT);
-            System.out.println("Server started, waiting for clients...");
-            boolean clientConnected = false;
+            serverSocket = new DatagramSocket(serverPort);
+            System.out.println("Server started on port " + serverPort + ", waiting for clients...");
 
             while (true) {
-                byte[] receiveData = new byte[1024];
+                byte[] receiveData = new byte[maxDatagramSize];
                 DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
                 serverSocket.receive(receivePacket);
 
-                String timeStamp = getTimeStamp();
                 InetAddress clientAddress = receivePacket.getAddress();
                 int clientPort = receivePacket.getPort();
-
-                if (!clientConnected) {
-                    System.out.println("["+timeStamp+"] Client connected: " + clientAddress.getHostAddress());
-                    clientConnected = true;
-                }
-
-                String receivedMessage = new String(receivePacket.getData(), 0, receivePacket.getLength());
-                System.out.println("[" + timeStamp + "] Received: " + receivedMessage + " from " + clientAddress.getHostAddress() + ":" + clientPort);
-
-                String[] parts = receivedMessage.split(" ");
-
-                switch (parts[0]) {
-                    case PUT:
-                        handlePutRequest(clientAddress, clientPort, parts[1], parts[2]);
-                        break;
-                    case DELETE:
-                        handleDelRequest(clientAddress, clientPort, parts[1]);
-                        break;
-                    case GET:
-                        handleGetRequest(clientAddress, clientPort, parts[1]);
-                        break;
-                    case KEYS:
-                        handleKeysRequest(clientAddress, clientPort);
-                        break;
-                    case QUIT:
-                        System.out.println("["+timeStamp+"] Client connection closed.");
-                        clientConnected = false;
-                        break;
-                    case EDIT_KEY:
-                        handleEditKeyRequest(clientAddress, clientPort, parts[1], parts[2]);
-                        break;
-                    case EDIT_VALUE:
-                        handleEditValueRequest(clientAddress, clientPort, parts[1], parts[2]);
-                        break;
-                    default:
-                        sendDataPacket(clientAddress, clientPort,"[" + timeStamp + "] Invalid command");
+                byte[] response = handleDatagram(clientAddress, clientPort, receiveData, receivePacket.getLength(), binaryProtocol);
+                if (response != null) {
+                    sendDataPacket(clientAddress, clientPort, response);
                 }
             }
         } catch (IOException e) {
@@ -76,100 +78,361 @@ public class UDPServer {
         }
     }
 
-    private void handlePutRequest(InetAddress clientAddress, int clientPort, String key, String value) {
-        if (key.length() > 10 || value.length() > 10) {
-            sendDataPacket(clientAddress, clientPort,"[" + getTimeStamp() + "] Key or value length exceeds 10 characters.");
-        } else if (keyValStore.containsKey(key.toLowerCase())) {
-            sendDataPacket(clientAddress, clientPort,"[" + getTimeStamp() + "] Key already exists. Cannot add duplicate keys.");
+    // Returns the reply datagram, or null when nothing should be sent back. Safe to call from
+    // several receive workers at once as long as each passes its own BinaryProtocol.
+    byte[] handleDatagram(InetAddress clientAddress, int clientPort, byte[] data, int length, BinaryProtocol protocol) {
+        metrics.bytesIn(length);
+        if (!clientConnected) {
+            if (requestLog.connectionEvents()) {
+                requestLog.log("Client connected: ", clientAddress.getHostAddress());
+            }
+            clientConnected = true;
+        }
+        if (length >= 2 && data[0] == BinaryProtocol.MAGIC) {
+            if (requestLog.sampleRequest()) {
+                requestLog.log("Received binary request", null, clientAddress, clientPort);
+            }
+            long requestId = length >= 7 && data[2] == BinaryProtocol.TAGGED ? ByteBuffer.wrap(data, 3, 4).getInt() & 0xFFFFFFFFL : -1;
+            return deduplicate(clientAddress, clientPort, requestId, () -> handleBinaryRequest(data, length, protocol));
+        }
+
+        String receivedMessage = new String(data, 0, length);
+        if (requestLog.sampleRequest()) {
+            requestLog.log("Received: ", receivedMessage, clientAddress, clientPort);
+        }
+
+        // "#<id> " tags a request for duplicate suppression; the tag is echoed on the reply.
+        long requestId = -1;
+        String tag = null;
+        String command = receivedMessage;
+        int space = command.indexOf(' ');
+        if (command.startsWith("#") && space > 1) {
+            tag = command.substring(0, space);
+            command = command.substring(space + 1);
+            try {
+                requestId = Long.parseLong(tag.substring(1));
+            } catch (NumberFormatException e) {
+                requestId = -1;
+            }
+        }
+        String untagged = command;
+        String replyTag = tag;
+        return deduplicate(clientAddress, clientPort, requestId, () -> {
+            String response = processCommand(untagged);
+            if (response == null) {
+                return null;
+            }
+            return (replyTag == null ? response : replyTag + " " + response).getBytes();
+        });
+    }
+
+    // Runs a request at most once per (client address, port, request ID). Retransmissions get the
+    // cached reply, so a retried PUT or EDIT_KEY is not applied twice.
+    private byte[] deduplicate(InetAddress clientAddress, int clientPort, long requestId, Supplier<byte[]> execution) {
+        if (requestId < 0) {
+            return execution.get();
+        }
+        byte[] cached = responseCache.begin(clientAddress, clientPort, requestId);
+        if (cached == UDPResponseCache.IN_PROGRESS) {
+            // The original is still executing; its reply will answer this retry too.
+            metrics.udpRetryInFlight();
+            return null;
+        }
+        if (cached != null) {
+            metrics.udpRetransmission();
+            if (requestLog.sampleRequest()) {
+                requestLog.log("Resending cached response for request ", Long.toString(requestId));
+            }
+            return cached;
+        }
+        byte[] response = null;
+        try {
+            response = execution.get();
+        } finally {
+            responseCache.complete(clientAddress, clientPort, requestId, response);
+        }
+        return response;
+    }
+
+    // Returns the response text for a command, or null when nothing is sent back (QUIT).
+    private String processCommand(String command) {
+        long start = System.nanoTime();
+        String[] parts = command.split(" ");
+        String response = dispatch(parts);
+        if (response != null) {
+            metrics.recordCommand(ServerMetrics.Command.of(parts[0]), System.nanoTime() - start);
+        }
+        return response;
+    }
+
+    private String dispatch(String[] parts) {
+        switch (parts[0]) {
+            case PUT:
+                if (parts.length < 3) break;
+                return handlePutRequest(parts[1], parts[2], parts.length > 3 ? parts[3] : null);
+            case DELETE:
+                if (parts.length < 2) break;
+                return handleDelRequest(parts[1]);
+            case GET:
+                if (parts.length < 2) break;
+                return handleGetRequest(parts[1]);
+            case KEYS:
+                return handleKeysRequest();
+            case SCAN:
+                if (parts.length < 2) break;
+                return responsePrefix() + keyScanner.scanCommand(parts, maxDatagramSize - REPLY_HEADROOM);
+            case RANGE:
+                if (parts.length < 3) break;
+                return responsePrefix() + keyScanner.rangeCommand(parts, maxDatagramSize - REPLY_HEADROOM);
+            case PREFIX:
+                if (parts.length < 2) break;
+                return responsePrefix() + keyScanner.prefixCommand(parts, maxDatagramSize - REPLY_HEADROOM);
+            case STATS:
+                return responsePrefix() + metrics.describe();
+            case QUIT:
+                if (requestLog.connectionEvents()) {
+                    requestLog.log("Client connection closed.");
+                }
+                clientConnected = false;
+                return null;
+            case EDIT_KEY:
+                if (parts.length < 3) break;
+                return handleEditKeyRequest(parts[1], parts[2]);
+            case EDIT_VALUE:
+                if (parts.length < 3) break;
+                return handleEditValueRequest(parts[1], parts[2], parts.length > 3 ? parts[3] : null);
+            case EXPIRE:
+                if (parts.length < 3) break;
+                return handleExpireRequest(parts[1], parts[2]);
+            case TTL:
+                if (parts.length < 2) break;
+                return handleTtlRequest(parts[1]);
+            case MGET:
+            case MDELETE:
+                if (parts.length < 2) break;
+                return handleBatchRequest(parts);
+            case MPUT:
+                if (parts.length < 3 || parts.length % 2 == 0) break;
+                return handleBatchRequest(parts);
+        }
+        return responsePrefix() + "Invalid command";
+    }
+
+    // ttl is null when the command has none.
+    private String handlePutRequest(String key, String value, String ttl) {
+        long expiresAt = ttl == null ? KeyValueStore.NO_EXPIRY : BinaryProtocol.expiresAt(ttl);
+        if (expiresAt < 0) {
+            return responsePrefix() + INVALID_TTL;
+        } else if (key.length() > 10 || value.length() > 10) {
+            return responsePrefix() + "Key or value length exceeds 10 characters.";
+        }
+        KeyValueStore.Status status = keyValStore.putIfAbsent(key.toLowerCase(), value, expiresAt);
+        if (status == KeyValueStore.Status.KEY_EXISTS) {
+            return responsePrefix() + "Key already exists. Cannot add duplicate keys.";
+        } else if (status == KeyValueStore.Status.STORE_FULL) {
+            return responsePrefix() + STORE_FULL;
         } else {
-            keyValStore.put(key.toLowerCase(), value);
-            sendDataPacket(clientAddress, clientPort, "[" + getTimeStamp() + "] Successfully: Key ["+key+"] with value ["+value+"] added successfully");
+            return responsePrefix() + "Successfully: Key ["+key+"] with value ["+value+"] added successfully"
+                    + (ttl == null ? "" : ", expires in " + ttl + " s");
         }
     }
 
-    private void handleDelRequest(InetAddress clientAddress, int clientPort, String key) {
+    private String handleDelRequest(String key) {
         if (key.length() > 10) {
-            sendDataPacket(clientAddress, clientPort,"[" + getTimeStamp() + "] Key length exceeds 10 characters.");
+            return responsePrefix() + "Key length exceeds 10 characters.";
         } 
-        else if (keyValStore.containsKey(key)) {
-            keyValStore.remove(key);
-            sendDataPacket(clientAddress, clientPort, "[" + getTimeStamp() + "] Successfully: Key ["+key+"] removed successfully");
+        else if (keyValStore.remove(key) == KeyValueStore.Status.OK) {
+            return responsePrefix() + "Successfully: Key ["+key+"] removed successfully";
         } 
         else {
-            sendDataPacket(clientAddress, clientPort,"[" + getTimeStamp() + "] Error: Key does not exist or not found");
+            return responsePrefix() + "Error: Key does not exist or not found";
         }
     }
 
-    private void handleGetRequest(InetAddress clientAddress, int clientPort, String key) {
+    private String handleGetRequest(String key) {
+        String value;
         if (key.length() > 10) {
-            sendDataPacket(clientAddress, clientPort,"[" + getTimeStamp() + "] Key length exceeds 10 characters.");
+            return responsePrefix() + "Key length exceeds 10 characters.";
         } 
-        else if (keyValStore.containsKey(key)) {
-            sendDataPacket(clientAddress, clientPort,"[" + getTimeStamp() + "] Key ["+key+"] with value ["+keyValStore.get(key)+"] ");
+        else if ((value = keyValStore.get(key)) != null) {
+            return responsePrefix() + "Key ["+key+"] with value ["+value+"] ";
         } 
         else {
-            sendDataPacket(clientAddress, clientPort,"[" + getTimeStamp() + "] Error: Key does not exist or not found");
+            return responsePrefix() + "Error: Key does not exist or not found";
         }
     }
 
-    private void handleKeysRequest(InetAddress clientAddress, int clientPort) {
-        if (keyValStore.isEmpty()) {
-            sendDataPacket(clientAddress, clientPort, "[" + getTimeStamp() + "] Key Store: Empty");
-        } 
-        else {
-            StringBuilder keys = new StringBuilder();
-            for (String key : keyValStore.keySet()) {
-                keys.append("[").append(key).append("] ");
+    // Clients size each batch so that both the request and this reply fit in one datagram.
+    private String handleBatchRequest(String[] parts) {
+        StringBuilder results = new StringBuilder();
+        int step = parts[0].equals(MPUT) ? 2 : 1;
+        for (int i = 1; i < parts.length; i += step) {
+            if (i > 1) {
+                results.append(", ");
+            }
+            String key = parts[i];
+            results.append("[").append(key).append("] ");
+            if (parts[0].equals(MPUT)) {
+                results.append(BinaryProtocol.statusCode(BinaryProtocol.putStatus(keyValStore, key, parts[i + 1])));
+            } else if (parts[0].equals(MDELETE)) {
+                results.append(BinaryProtocol.statusCode(BinaryProtocol.deleteStatus(keyValStore, key)));
+            } else {
+                String value = key.length() > 10 ? null : keyValStore.get(key);
+                if (key.length() > 10) {
+                    results.append(BinaryProtocol.statusCode(BinaryProtocol.STATUS_TOO_LONG));
+                } else if (value == null) {
+                    results.append(BinaryProtocol.statusCode(BinaryProtocol.STATUS_NOT_FOUND));
+                } else {
+                    results.append("= [").append(value).append("]");
+                }
             }
-            sendDataPacket(clientAddress, clientPort, "[" + getTimeStamp() + "] Key Store: " + keys.toString());
         }
+        return responsePrefix() + "Batch results: " + results;
     }
-    private void handleEditKeyRequest(InetAddress clientAddress, int clientPort, String oldKey, String newKey) {
+
+    private String handleKeysRequest() {
+        StringBuilder keys = new StringBuilder();
+        int bytes = 0;
+        for (String key : keyValStore.keys()) {
+            bytes += KeyScanner.encodedSize(key) + 1;
+            if (bytes > maxDatagramSize - REPLY_HEADROOM) {
+                // One datagram cannot carry more; SCAN pages through the rest.
+                keys.append("... (truncated, use SCAN to list every key)");
+                break;
+            }
+            keys.append("[").append(key).append("] ");
+        }
+        // Checked after the loop, since keys that have expired but are not yet swept are skipped.
+        if (keys.length() == 0) {
+            return responsePrefix() + "Key Store: Empty";
+        }
+        return responsePrefix() + "Key Store: " + keys.toString();
+    }
+    private String handleEditKeyRequest(String oldKey, String newKey) {
         if (keyValStore.containsKey(oldKey.toLowerCase())) {
-            if (!keyValStore.containsKey(newKey.toLowerCase())) {
-                String value = keyValStore.get(oldKey.toLowerCase());
-                keyValStore.remove(oldKey.toLowerCase());
-                keyValStore.put(newKey.toLowerCase(), value);
-                sendDataPacket(clientAddress, clientPort, "Key [" + oldKey + "] has been successfully changed to [" + newKey + "]");
+            KeyValueStore.Status status = keyValStore.rename(oldKey.toLowerCase(), newKey.toLowerCase());
+            if (status == KeyValueStore.Status.OK) {
+                return "Key [" + oldKey + "] has been successfully changed to [" + newKey + "]";
             } 
+            else if (status == KeyValueStore.Status.KEY_EXISTS) {
+                return "Key with name [" + newKey + "] already exists. Please choose a different key name.";
+            }
+            else if (status == KeyValueStore.Status.TOO_LARGE) {
+                return "Key with name [" + newKey + "] is too long for this store.";
+            }
             else {
-                sendDataPacket(clientAddress, clientPort, "Key with name [" + newKey + "] already exists. Please choose a different key name.");
+                return "Key with name [" + oldKey + "] does not exist.";
             }
         } 
         else {
-            sendDataPacket(clientAddress, clientPort, "Key with name [" + oldKey + "] does not exist.");
+            return "Key with name [" + oldKey + "] does not exist.";
         }
     }
 
-    private void handleEditValueRequest(InetAddress clientAddress, int clientPort, String key, String newValue) {
-        if (keyValStore.containsKey(key.toLowerCase())) {
-            keyValStore.put(key.toLowerCase(), newValue);
-            sendDataPacket(clientAddress, clientPort, "Value for key [" + key + "] has been successfully changed to [" + newValue + "]");
+    // Without a ttl the key keeps the TTL it has, if any.
+    private String handleEditValueRequest(String key, String newValue, String ttl) {
+        long expiresAt = ttl == null ? KeyValueStore.NO_EXPIRY : BinaryProtocol.expiresAt(ttl);
+        if (expiresAt < 0) {
+            return INVALID_TTL;
+        }
+        KeyValueStore.Status status = keyValStore.replace(key.toLowerCase(), newValue, expiresAt);
+        if (status == KeyValueStore.Status.OK) {
+            return "Value for key [" + key + "] has been successfully changed to [" + newValue + "]";
         } 
+        else if (status == KeyValueStore.Status.TOO_LARGE) {
+            return "Value [" + newValue + "] is too long for this store.";
+        }
         else {
-            sendDataPacket(clientAddress, clientPort, "Key with name [" + key + "] does not exist.");
+            return "Key with name [" + key + "] does not exist.";
+        }
+    }
+
+    private String handleExpireRequest(String key, String ttl) {
+        long expiresAt = BinaryProtocol.expiresAt(ttl);
+        if (expiresAt < 0) {
+            return responsePrefix() + INVALID_TTL;
+        } else if (key.length() > 10 || keyValStore.expire(key.toLowerCase(), expiresAt) == KeyValueStore.Status.KEY_NOT_FOUND) {
+            return responsePrefix() + "Error: Key does not exist or not found";
+        } else {
+            return responsePrefix() + "Successfully: Key [" + key + "] expires in " + ttl + " s";
+        }
+    }
+
+    private String handleTtlRequest(String key) {
+        long ttl = key.length() > 10 ? -2 : keyValStore.ttlMillis(key.toLowerCase());
+        if (ttl == -2) {
+            return responsePrefix() + "Error: Key does not exist or not found";
+        } else if (ttl == -1) {
+            return responsePrefix() + "Key [" + key + "] has no TTL";
+        } else {
+            return responsePrefix() + "Key [" + key + "] expires in " + (ttl + 999) / 1000 + " s";
         }
     }
 
-    private void sendDataPacket(InetAddress clientAddress, int clientPort, String data) {
+    private byte[] handleBinaryRequest(byte[] data, int length, BinaryProtocol protocol) {
+        if (data[1] != BinaryProtocol.VERSION) {
+            // Echo the tag, so a client matching replies by request ID still gets its answer.
+            if (length >= 7 && data[2] == BinaryProtocol.TAGGED) {
+                return new byte[] { BinaryProtocol.MAGIC, BinaryProtocol.VERSION, BinaryProtocol.TAGGED,
+                        data[3], data[4], data[5], data[6], BinaryProtocol.STATUS_INVALID };
+            }
+            return new byte[] { BinaryProtocol.MAGIC, BinaryProtocol.VERSION, BinaryProtocol.STATUS_INVALID };
+        }
+        if (!protocol.execute(ByteBuffer.wrap(data, 2, length - 2))) {
+            return null;
+        }
+        ByteBuffer body = protocol.response();
+        byte[] sendData = new byte[2 + body.remaining()];
+        sendData[0] = BinaryProtocol.MAGIC;
+        sendData[1] = BinaryProtocol.VERSION;
+        body.get(sendData, 2, body.remaining());
+        return sendData;
+    }
+
+    private void sendDataPacket(InetAddress clientAddress, int clientPort, byte[] sendData) {
         try {
-            byte[] sendData = data.getBytes();
             DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, clientAddress, clientPort);
             serverSocket.send(sendPacket);
+            metrics.bytesOut(sendData.length);
         } 
         catch (IOException e) {
+            metrics.udpDropped();
             e.printStackTrace();
         }
     }
 
-    private String getTimeStamp() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return dateFormat.format(new Date());
+    // BinaryProtocol reuses its response buffer, so every receive thread needs its own.
+    BinaryProtocol newBinaryProtocol() {
+        return new BinaryProtocol(keyValStore, keyScanner, maxDatagramSize - REPLY_HEADROOM, metrics, false);
+    }
+
+    ServerMetrics metrics() {
+        return metrics;
+    }
+
+    RequestLog requestLog() {
+        return requestLog;
+    }
+
+    int maxDatagramSize() {
+        return maxDatagramSize;
+    }
+
+    // --timestamps=false drops the "[time] " prefix from responses entirely.
+    private String responsePrefix() {
+        return timestampResponses ? Clock.prefix() : "";
     }
 
     public static void main(String[] args) {
-        UDPServer server = new UDPServer();
-        server.startServer();
+        ServerConfig config = ServerConfig.fromArgs(args);
+        UDPServer server = new UDPServer(config);
+        metrics.register("UDPServer");
+        if ("workers".equals(config.getString("mode", "single"))) {
+            int workers = config.getInt("workers", Runtime.getRuntime().availableProcessors());
+            new UDPWorkerServer(server, serverPort, workers).startServer();
+        } else {
+            server.startServer();
+        }
     }
 }
 
@@ -0,0 +1,119 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+public class UDPWorkerServer {
+    // Largest payload a UDP datagram can carry over IPv4.
+    private static final int MAX_UDP_PAYLOAD = 65507;
+    private final UDPServer server;
+    private final int port;
+    private final int workerCount;
+
+    public UDPWorkerServer(UDPServer server, int port, int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be positive: " + workerCount);
+        }
+        this.server = server;
+        this.port = port;
+        this.workerCount = workerCount;
+    }
+
+    // With SO_REUSEPORT every worker binds its own channel to the port and the kernel spreads
+    // clients across them, so receives and sends never share a socket. Without it the workers
+    // fall back to taking turns on one channel.
+    public void startServer() {
+        try {
+            boolean reusePort;
+            try (DatagramChannel probe = DatagramChannel.open()) {
+                reusePort = probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+            }
+            DatagramChannel shared = reusePort ? null : openChannel(false);
+            Thread[] threads = new Thread[workerCount];
+            for (int i = 0; i < workerCount; i++) {
+                DatagramChannel channel = reusePort ? openChannel(true) : shared;
+                threads[i] = new Thread(new Worker(channel), "udp-worker-" + i);
+                threads[i].start();
+            }
+            System.out.println("Server started on port " + port + " with " + workerCount + " receive workers"
+                    + (reusePort ? "" : " on one shared socket") + ", waiting for clients...");
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private DatagramChannel openChannel(boolean reusePort) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        if (reusePort) {
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        channel.bind(new InetSocketAddress(port));
+        return channel;
+    }
+
+    private final class Worker implements Runnable {
+        private final DatagramChannel channel;
+        // The direct receive and send buffers are allocated once per worker. handleDatagram works
+        // on byte arrays, so each datagram is still copied into data and each reply comes back as
+        // a new array, which the reply cache may keep.
+        private final ByteBuffer receiveBuffer;
+        private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_UDP_PAYLOAD);
+        private final byte[] data;
+        private final BinaryProtocol binaryProtocol;
+
+        private Worker(DatagramChannel channel) {
+            this.channel = channel;
+            this.receiveBuffer = ByteBuffer.allocateDirect(server.maxDatagramSize());
+            this.data = new byte[server.maxDatagramSize()];
+            this.binaryProtocol = server.newBinaryProtocol();
+        }
+
+        @Override
+        public void run() {
+            while (channel.isOpen()) {
+                try {
+                    receiveBuffer.clear();
+                    InetSocketAddress client = (InetSocketAddress) channel.receive(receiveBuffer);
+                    receiveBuffer.flip();
+                    int length = receiveBuffer.remaining();
+                    receiveBuffer.get(data, 0, length);
+
+                    byte[] response = server.handleDatagram(client.getAddress(), client.getPort(), data, length, binaryProtocol);
+                    if (response != null) {
+                        send(client, response);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (RuntimeException e) {
+                    // One malformed datagram must not take the worker down.
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void send(InetSocketAddress client, byte[] response) throws IOException {
+            if (response.length > sendBuffer.capacity()) {
+                server.metrics().udpDropped();
+                RequestLog requestLog = server.requestLog();
+                if (requestLog.sampleRequest()) {
+                    requestLog.log("Dropped a reply too large for a datagram: ", response.length + " bytes", client.getAddress(), client.getPort());
+                }
+                return;
+            }
+            sendBuffer.clear();
+            sendBuffer.put(response).flip();
+            try {
+                channel.send(sendBuffer, client);
+            } catch (IOException e) {
+                server.metrics().udpDropped();
+                throw e;
+            }
+            server.metrics().bytesOut(response.length);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32C;
+
+// Append-only log of store mutations, replayed on startup. Each record is
+//   u32 payload length | u32 CRC32C of payload | u8 type | fields (u16 length + UTF-8 bytes)
+// Writers append into an in-memory buffer while holding their stripe lock, so records for a key
+// appear in the order the key changed, and wait for durability after the lock is released.
+//
+// Once the active segment passes snapshotAfter bytes, a background thread rolls over to a new
+// segment and writes a snapshot of the store covering every older segment, then deletes them.
+// The snapshot is fuzzy: entries are read while writers carry on, which is safe because every
+// record is a blind set or delete and the newer segments are replayed on top of it.
+public class WriteAheadLog {
+    public enum Durability { FSYNC, GROUP, OS_BUFFERED }
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    // old key, new key, value; replayed as put(new) followed by remove(old), so it is idempotent.
+    static final byte RENAME = 3;
+    // key, deadline in epoch milliseconds (0 removes the key's TTL).
+    static final byte EXPIRE = 4;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int REPLAY_BUFFER_SIZE = 4 << 20;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final long DEFAULT_SNAPSHOT_AFTER = 64L << 20;
+
+    interface Target {
+        void put(String key, String value);
+
+        void remove(String key);
+
+        void expire(String key, long expiresAt);
+    }
+
+    private final Path directory;
+    private final Durability durability;
+    private final long snapshotAfter;
+    private FileChannel channel;
+    private long segment;
+    // Log position at which the active segment starts.
+    private long segmentStart;
+    // Records appended since the last write to the channel. Swapped with writeBuffer on flush so
+    // appenders never wait for I/O.
+    private final Object bufferLock = new Object();
+    private ByteBuffer appendBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long appendedPosition;
+    // Held by the one thread writing and forcing on behalf of everyone waiting behind it.
+    private final Object syncLock = new Object();
+    private long writtenPosition;
+    private volatile long durablePosition;
+    private Iterable<Map.Entry<String, String>> snapshotSource;
+    private ToLongFunction<String> snapshotExpiries;
+    private final Object snapshotLock = new Object();
+    private boolean snapshotRequested;
+
+    public WriteAheadLog(Path directory, Durability durability, long snapshotAfter) throws IOException {
+        if (snapshotAfter < 1) {
+            throw new IllegalArgumentException("snapshotAfter must be positive: " + snapshotAfter);
+        }
+        this.directory = directory;
+        this.durability = durability;
+        this.snapshotAfter = snapshotAfter;
+        Files.createDirectories(directory);
+    }
+
+    // Returns null when no --data-dir is configured, i.e. the store is memory-only.
+    public static WriteAheadLog fromConfig(ServerConfig config) {
+        String dataDir = config.getString("data-dir", null);
+        if (dataDir == null) {
+            return null;
+        }
+        Durability durability;
+        String mode = config.getString("durability", "group");
+        switch (mode) {
+            case "fsync":
+                durability = Durability.FSYNC;
+                break;
+            case "group":
+                durability = Durability.GROUP;
+                break;
+            case "os":
+                durability = Durability.OS_BUFFERED;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid durability: " + mode + ". Use fsync, group or os");
+        }
+        try {
+            return new WriteAheadLog(Paths.get(dataDir), durability, config.getInt("snapshot-after", (int) DEFAULT_SNAPSHOT_AFTER));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Loads the newest snapshot, replays the segments written after it, drops a torn or corrupt
+    // tail of the last one, and opens it for appending. Must be called once, before the first
+    // append. Fails if an older segment is damaged: records after the damage were acknowledged.
+    void recover(Target target) throws IOException {
+        long covered = 0;
+        long loaded = 0;
+        List<Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        if (!snapshots.isEmpty()) {
+            Path snapshot = snapshots.get(snapshots.size() - 1);
+            covered = sequenceOf(snapshot, SNAPSHOT_PREFIX);
+            loaded = SnapshotFile.load(snapshot, target);
+        }
+        for (Path file : list(SNAPSHOT_PREFIX, ".tmp")) {
+            // A snapshot interrupted before it was complete.
+            Files.delete(file);
+        }
+        List<Path> segments = new ArrayList<>();
+        for (Path file : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (sequenceOf(file, SEGMENT_PREFIX) <= covered) {
+                // Left behind by a snapshot that finished writing but not cleaning up.
+                Files.delete(file);
+            } else {
+                segments.add(file);
+            }
+        }
+        long records = 0;
+        Path active = null;
+        for (int i = 0; i < segments.size(); i++) {
+            active = segments.get(i);
+            records += replay(active, target, i == segments.size() - 1);
+        }
+        if (active == null) {
+            active = directory.resolve(segmentName(covered + 1));
+        }
+        segment = sequenceOf(active, SEGMENT_PREFIX);
+        channel = openSegment(active);
+        appendedPosition = writtenPosition = durablePosition = channel.size();
+        System.out.println("[" + getTimeStamp() + "] Recovered " + loaded + " snapshot entries and " + records
+                + " log records from " + directory + " (durability " + durability + ")");
+    }
+
+    // Starts the background snapshot writer. source must be a weakly consistent view of the store
+    // that can be iterated while it is being modified; expiries gives each key's deadline or 0.
+    void startSnapshots(Iterable<Map.Entry<String, String>> source, ToLongFunction<String> expiries) {
+        snapshotSource = source;
+        snapshotExpiries = expiries;
+        Thread thread = new Thread(this::snapshotLoop, "snapshot-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Buffers one record and returns the log position that must be durable before the change is
+    // acknowledged. Does no I/O.
+    long append(byte type, String... fields) {
+        byte[] record = encode(type, fields);
+        synchronized (bufferLock) {
+            if (appendBuffer.remaining() < record.length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(appendBuffer.capacity() * 2, appendBuffer.position() + record.length));
+                appendBuffer.flip();
+                grown.put(appendBuffer);
+                appendBuffer = grown;
+            }
+            appendBuffer.put(record);
+            appendedPosition += record.length;
+            return appendedPosition;
+        }
+    }
+
+    // Blocks until everything up to position meets the configured durability. In GROUP mode one
+    // thread writes and forces everything appended so far while later writers queue on syncLock;
+    // when it finishes they usually find their records already forced and return without I/O.
+    void await(long position) throws IOException {
+        synchronized (syncLock) {
+            if (writtenPosition < position) {
+                long end;
+                ByteBuffer batch;
+                synchronized (bufferLock) {
+                    batch = appendBuffer;
+                    appendBuffer = writeBuffer;
+                    writeBuffer = batch;
+                    end = appendedPosition;
+                }
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                batch.clear();
+                writtenPosition = end;
+                if (writtenPosition - segmentStart >= snapshotAfter) {
+                    requestSnapshot();
+                }
+            }
+            if (durability == Durability.FSYNC || (durability == Durability.GROUP && durablePosition < position)) {
+                long end = writtenPosition;
+                channel.force(false);
+                durablePosition = end;
+            }
+        }
+    }
+
+    private void requestSnapshot() {
+        synchronized (snapshotLock) {
+            if (!snapshotRequested) {
+                snapshotRequested = true;
+                snapshotLock.notifyAll();
+            }
+        }
+    }
+
+    private void snapshotLoop() {
+        while (true) {
+            synchronized (snapshotLock) {
+                while (!snapshotRequested) {
+                    try {
+                        snapshotLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            try {
+                snapshot();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (snapshotLock) {
+                    snapshotRequested = false;
+                }
+            }
+        }
+    }
+
+    // Rolls over to a new segment, writes a snapshot covering every earlier one, and only then
+    // deletes them. A crash at any point leaves either the old snapshot with all its segments or
+    // the new snapshot, plus possibly segments recover() will discard.
+    private void snapshot() throws IOException {
+        long covered = rollover();
+        Path snapshot = directory.resolve(snapshotName(covered));
+        Path temporary = directory.resolve(snapshotName(covered) + ".tmp");
+        long started = System.nanoTime();
+        long count = SnapshotFile.write(temporary, covered, snapshotSource, snapshotExpiries);
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        for (Path file : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (sequenceOf(file, SNAPSHOT_PREFIX) < covered) {
+                Files.delete(file);
+            }
+        }
+        for (Path file : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (sequenceOf(file, SEGMENT_PREFIX) <= covered) {
+                Files.delete(file);
+            }
+        }
+        System.out.println("[" + getTimeStamp() + "] Snapshot of " + count + " entries written to " + snapshot
+                + " in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+    }
+
+    // Makes everything appended so far durable in the active segment and switches appends to a
+    // new one. Returns the sequence number of the segment that was closed.
+    private long rollover() throws IOException {
+        synchronized (syncLock) {
+            long end;
+            ByteBuffer batch;
+            synchronized (bufferLock) {
+                batch = appendBuffer;
+                appendBuffer = writeBuffer;
+                writeBuffer = batch;
+                end = appendedPosition;
+            }
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            batch.clear();
+            channel.force(false);
+            channel.close();
+            writtenPosition = durablePosition = segmentStart = end;
+            long closed = segment;
+            segment++;
+            channel = openSegment(directory.resolve(segmentName(segment)));
+            return closed;
+        }
+    }
+
+    private static FileChannel openSegment(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private static byte[] encode(byte type, String... fields) {
+        byte[][] encoded = new byte[fields.length][];
+        int payloadLength = 1;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            if (encoded[i].length > 0xFFFF) {
+                throw new IllegalArgumentException("Field too long for the log: " + encoded[i].length + " bytes");
+            }
+            payloadLength += 2 + encoded[i].length;
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+        record.putInt(payloadLength).putInt(0).put(type);
+        for (byte[] field : encoded) {
+            record.putShort((short) field.length).put(field);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), HEADER_SIZE, payloadLength);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    // Streams one segment through a large direct buffer and applies every intact record. The last
+    // segment is truncated after its last intact record, so a crash mid-append costs only that
+    // record. Only the last segment can be torn that way; damage to an older one throws.
+    private long replay(Path segment, Target target, boolean last) throws IOException {
+        if (!Files.exists(segment)) {
+            return 0;
+        }
+        long records = 0;
+        long validLength = 0;
+        boolean corrupt = false;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(REPLAY_BUFFER_SIZE);
+        CRC32C crc = new CRC32C();
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            boolean eof = false;
+            while (!eof && !corrupt) {
+                eof = in.read(buffer) < 0;
+                buffer.flip();
+                while (buffer.remaining() >= HEADER_SIZE) {
+                    int start = buffer.position();
+                    int payloadLength = buffer.getInt(start);
+                    if (payloadLength < 1 || payloadLength > MAX_RECORD_SIZE) {
+                        corrupt = true;
+                        break;
+                    }
+                    if (buffer.remaining() < HEADER_SIZE + payloadLength) {
+                        break;
+                    }
+                    int checksum = buffer.getInt(start + 4);
+                    byte[] payload = new byte[payloadLength];
+                    buffer.position(start + HEADER_SIZE);
+                    buffer.get(payload);
+                    crc.reset();
+                    crc.update(payload, 0, payloadLength);
+                    if ((int) crc.getValue() != checksum) {
+                        corrupt = true;
+                        break;
+                    }
+                    apply(ByteBuffer.wrap(payload), target);
+                    validLength += HEADER_SIZE + payloadLength;
+                    records++;
+                }
+                buffer.compact();
+            }
+            if (validLength < in.size() && !last) {
+                throw new IOException("Corrupt log record at byte " + validLength + " of " + segment
+                        + ", which is not the newest segment; refusing to drop the records after it");
+            }
+            if (validLength < in.size()) {
+                System.out.println("[" + getTimeStamp() + "] Discarding " + (in.size() - validLength)
+                        + " bytes of incomplete or corrupt log records at the end of " + segment);
+                in.truncate(validLength);
+            }
+        }
+        return records;
+    }
+
+    private static void apply(ByteBuffer payload, Target target) {
+        byte type = payload.get();
+        switch (type) {
+            case PUT:
+                target.put(readField(payload), readField(payload));
+                break;
+            case DELETE:
+                target.remove(readField(payload));
+                break;
+            case RENAME:
+                String oldKey = readField(payload);
+                String newKey = readField(payload);
+                target.put(newKey, readField(payload));
+                target.remove(oldKey);
+                break;
+            case EXPIRE:
+                String key = readField(payload);
+                target.expire(key, Long.parseLong(readField(payload)));
+                break;
+            default:
+                throw new IllegalStateException("Unknown log record type: " + type);
+        }
+    }
+
+    private static String readField(ByteBuffer payload) {
+        int length = payload.getShort() & 0xFFFF;
+        String field = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return field;
+    }
+
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        List<Path> matches = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                matches.add(file);
+            }
+        }
+        // Zero-padded sequence numbers sort in creation order.
+        Collections.sort(matches);
+        return matches;
+    }
+
+    private static long sequenceOf(Path file, String prefix) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), prefix.length() + 10));
+    }
+
+    private static String segmentName(long sequence) {
+        return String.format("%s%010d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX);
+    }
+
+    private static String snapshotName(long sequence) {
+        return String.format("%s%010d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX);
+    }
+
+    private String getTimeStamp() {
+        return Clock.timeStamp();
+    }
+}
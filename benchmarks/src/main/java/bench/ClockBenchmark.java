@@ -0,0 +1,41 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Response timestamps: the cached Clock against formatting a fresh date on every request.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClockBenchmark {
+    private MethodHandle timeStamp;
+    private MethodHandle prefix;
+
+    @Setup
+    public void setUp() throws Throwable {
+        timeStamp = Servers.staticMethod("Clock", "timeStamp", String.class);
+        prefix = Servers.staticMethod("Clock", "prefix", String.class);
+    }
+
+    @Benchmark
+    public String clockTimeStamp() throws Throwable {
+        return (String) timeStamp.invokeExact();
+    }
+
+    @Benchmark
+    public String clockPrefix() throws Throwable {
+        return (String) prefix.invokeExact();
+    }
+
+    // What the servers did before Clock.
+    @Benchmark
+    public String simpleDateFormat() {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+    }
+}
@@ -0,0 +1,100 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// One text command through each server's parse-and-dispatch path, against a store holding KEYS
+// entries, with no sockets involved. PARSE is an unknown command word: split(" "), the switch
+// miss and the error response, which is the floor under every other command.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandBenchmark {
+    private static final int KEYS = 8192;
+
+    @Param({"striped", "packed"})
+    public String store;
+
+    @Param({"PARSE", "GET", "GET_MISSING", "PUT_EXISTING", "DELETE_MISSING", "EDIT_VALUE", "MGET", "RANGE", "PREFIX"})
+    public String command;
+
+    private Object tcpServer;
+    private Object udpServer;
+    private Object udpProtocol;
+    private MethodHandle processCommand;
+    private MethodHandle handleDatagram;
+    private InetAddress client;
+    private String[] commands;
+    private byte[][] datagrams;
+
+    @Setup
+    public void setUp() throws Throwable {
+        Servers.silenceStdout();
+        Object config = Servers.config(Servers.withRequestLog("--store=" + store));
+        tcpServer = Servers.newServer("TCPServer", config);
+        udpServer = Servers.newServer("UDPServer", config);
+        processCommand = Servers.method("TCPServer", "processCommand", String.class, String.class);
+        Class<?> protocolType = Servers.type("BinaryProtocol");
+        handleDatagram = Servers.method("UDPServer", "handleDatagram", byte[].class,
+                InetAddress.class, int.class, byte[].class, int.class, protocolType);
+        udpProtocol = Servers.method("UDPServer", "newBinaryProtocol", protocolType).invoke(udpServer);
+        client = InetAddress.getLoopbackAddress();
+
+        commands = new String[KEYS];
+        datagrams = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            String put = "PUT k" + i + " v" + i;
+            String ignored = (String) processCommand.invokeExact(tcpServer, put);
+            byte[] unused = (byte[]) handleDatagram.invokeExact(udpServer, client, 50000, put.getBytes(),
+                    put.length(), udpProtocol);
+            commands[i] = command(i);
+            datagrams[i] = commands[i].getBytes();
+        }
+    }
+
+    private String command(int i) {
+        switch (command) {
+            case "PARSE":
+                return "NOPE k" + i;
+            case "GET":
+                return "GET k" + i;
+            case "GET_MISSING":
+                return "GET x" + i;
+            case "PUT_EXISTING":
+                return "PUT k" + i + " v";
+            case "DELETE_MISSING":
+                return "DELETE x" + i;
+            case "EDIT_VALUE":
+                return "EDIT_VALUE k" + i + " w" + i;
+            case "MGET":
+                StringBuilder mget = new StringBuilder("MGET");
+                for (int j = 0; j < 8; j++) {
+                    mget.append(" k").append((i + j) % KEYS);
+                }
+                return mget.toString();
+            case "RANGE":
+                return "RANGE k" + i + " k" + i + "9 LIMIT 10";
+            case "PREFIX":
+                return "PREFIX k" + i + " LIMIT 10";
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    @Benchmark
+    public String tcp() throws Throwable {
+        return (String) processCommand.invokeExact(tcpServer, commands[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+
+    @Benchmark
+    public byte[] udp() throws Throwable {
+        byte[] datagram = datagrams[ThreadLocalRandom.current().nextInt(KEYS)];
+        return (byte[]) handleDatagram.invokeExact(udpServer, client, 50000, datagram, datagram.length, udpProtocol);
+    }
+}
@@ -0,0 +1,36 @@
+package bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the loopback benchmarks once per client concurrency level and writes one JSON result file
+// per level, e.g. java -cp target/benchmarks.jar bench.LoopbackRunner 1 8 32 128
+public final class LoopbackRunner {
+    private static final int[] DEFAULT_THREADS = {1, 8, 32, 128};
+
+    private LoopbackRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int[] levels = DEFAULT_THREADS;
+        if (args.length > 0) {
+            levels = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                levels[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int threads : levels) {
+            Options options = new OptionsBuilder()
+                    .include(TcpLoopbackBenchmark.class.getSimpleName())
+                    .include(UdpLoopbackBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("loopback-" + threads + "-threads.json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package bench;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// The servers live in the default package, which a named package cannot import, and JMH rejects
+// benchmarks in the default package. Benchmarks therefore resolve what they call here, once per
+// trial, and invoke it through MethodHandles adapted to Object receivers.
+final class Servers {
+    static final int PORT = 7856;
+
+    private Servers() {
+    }
+
+    static Class<?> type(String name) throws ClassNotFoundException {
+        return Class.forName(name);
+    }
+
+    static Object config(String... args) throws Throwable {
+        Method fromArgs = type("ServerConfig").getMethod("fromArgs", String[].class);
+        return fromArgs.invoke(null, (Object) args);
+    }
+
+    // new <className>(ServerConfig)
+    static Object newServer(String className, Object config) throws Throwable {
+        Constructor<?> constructor = type(className).getConstructor(type("ServerConfig"));
+        return constructor.newInstance(config);
+    }
+
+    // An instance method as a handle taking the receiver as its first argument. The receiver and
+    // any default-package parameter or return types are erased to Object for invokeExact.
+    static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... parameterTypes)
+            throws Throwable {
+        Method method = type(className).getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method).asType(erased(returnType, parameterTypes).insertParameterTypes(0, Object.class));
+    }
+
+    static MethodHandle staticMethod(String className, String name, Class<?> returnType, Class<?>... parameterTypes)
+            throws Throwable {
+        Method method = type(className).getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method).asType(erased(returnType, parameterTypes));
+    }
+
+    private static MethodType erased(Class<?> returnType, Class<?>... parameterTypes) {
+        Class<?>[] erased = new Class<?>[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            erased[i] = erased(parameterTypes[i]);
+        }
+        return MethodType.methodType(erased(returnType), erased);
+    }
+
+    private static Class<?> erased(Class<?> type) {
+        return type.getPackageName().isEmpty() && !type.isPrimitive() && !type.isArray() ? Object.class : type;
+    }
+
+    // Runs <className>.main(args) on a daemon thread; the fork exits with the trial.
+    static void start(String className, String... args) throws Throwable {
+        Method main = type(className).getMethod("main", String[].class);
+        Thread thread = new Thread(() -> {
+            try {
+                main.invoke(null, (Object) args);
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace();
+            }
+        }, className);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Startup and error lines would clutter the JMH console.
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    // Request logs go to a small rotating file, so the measurement includes handing every line to
+    // the async log writer without filling the disk or the console.
+    static String[] withRequestLog(String... args) {
+        String[] withLog = Arrays.copyOf(args, args.length + 3);
+        withLog[args.length] = "--log-file=" + Paths.get(System.getProperty("java.io.tmpdir"), "protocols-bench-requests.log");
+        withLog[args.length + 1] = "--log-max-bytes=" + (16 << 20);
+        withLog[args.length + 2] = "--log-files=1";
+        return withLog;
+    }
+
+    static void awaitTcp() throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            try (Socket socket = new Socket("localhost", PORT)) {
+                new DataOutputStream(socket.getOutputStream()).writeUTF("QUIT");
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("TCP server did not start on port " + PORT);
+    }
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Round trips to an in-process TCPServer over loopback, one connection per benchmark thread.
+// SampleTime reports latency percentiles; LoopbackRunner repeats the run at several thread counts.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TcpLoopbackBenchmark {
+    static final int KEYS = 8192;
+
+    @Param({"blocking", "nio"})
+    public String mode;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Throwable {
+        Servers.silenceStdout();
+        // Each parameter combination runs in its own fork, so the port is free again.
+        Servers.start("TCPServer", Servers.withRequestLog("--mode=" + mode));
+        Servers.awaitTcp();
+        Connection seeder = new Connection();
+        seeder.open();
+        for (int i = 0; i < KEYS; i++) {
+            seeder.exchange("PUT k" + i + " v" + i);
+        }
+        seeder.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        private Socket socket;
+        private DataInputStream dataIn;
+        private DataOutputStream dataOut;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            socket = new Socket("localhost", Servers.PORT);
+            socket.setTcpNoDelay(true);
+            dataIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        String exchange(String command) throws IOException {
+            dataOut.writeUTF(command);
+            dataOut.flush();
+            return dataIn.readUTF();
+        }
+
+        // Unique per connection, so concurrent threads never collide on a key.
+        String freshKey() {
+            return "t" + System.identityHashCode(this) % 1000 + "_" + (next++ % 1000);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            dataOut.writeUTF("QUIT");
+            dataOut.flush();
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public String get(Connection connection) throws IOException {
+        return connection.exchange("GET k" + ThreadLocalRandom.current().nextInt(KEYS));
+    }
+
+    // A PUT of a new key and the DELETE that keeps the store from growing: two round trips.
+    @Benchmark
+    public String putDelete(Connection connection) throws IOException {
+        String key = connection.freshKey();
+        connection.exchange("PUT " + key + " v");
+        return connection.exchange("DELETE " + key);
+    }
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Round trips to an in-process UDPServer over loopback, one socket per benchmark thread.
+// SampleTime reports latency percentiles; LoopbackRunner repeats the run at several thread counts.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UdpLoopbackBenchmark {
+    static final int KEYS = 8192;
+    private static final int RETRY_TIMEOUT_MS = 250;
+
+    @Param({"single", "workers"})
+    public String mode;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Throwable {
+        Servers.silenceStdout();
+        Servers.start("UDPServer", Servers.withRequestLog("--mode=" + mode));
+        Client seeder = new Client();
+        seeder.open();
+        for (int i = 0; i < KEYS; i++) {
+            seeder.exchange("PUT k" + i + " v" + i);
+        }
+        seeder.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        private DatagramSocket socket;
+        private final byte[] receiveData = new byte[65507];
+        private int next;
+        private int requestId;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            socket = new DatagramSocket();
+            socket.connect(InetAddress.getLoopbackAddress(), Servers.PORT);
+            socket.setSoTimeout(RETRY_TIMEOUT_MS);
+        }
+
+        // Tags each request and retries on loss; replies to an earlier, timed-out attempt are
+        // recognised by their tag and skipped.
+        String exchange(String command) throws IOException {
+            String tag = "#" + (requestId++ & Integer.MAX_VALUE) + " ";
+            byte[] sendData = (tag + command).getBytes();
+            DatagramPacket reply = new DatagramPacket(receiveData, receiveData.length);
+            while (true) {
+                socket.send(new DatagramPacket(sendData, sendData.length));
+                try {
+                    while (true) {
+                        socket.receive(reply);
+                        String response = new String(reply.getData(), 0, reply.getLength());
+                        if (response.startsWith(tag)) {
+                            return response;
+                        }
+                    }
+                } catch (SocketTimeoutException e) {
+                    // Lost, or the server is still starting.
+                }
+            }
+        }
+
+        String freshKey() {
+            return "u" + System.identityHashCode(this) % 1000 + "_" + (next++ % 1000);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public String get(Client client) throws IOException {
+        return client.exchange("GET k" + ThreadLocalRandom.current().nextInt(KEYS));
+    }
+
+    // A PUT of a new key and the DELETE that keeps the store from growing: two round trips.
+    @Benchmark
+    public String putDelete(Client client) throws IOException {
+        String key = client.freshKey();
+        client.exchange("PUT " + key + " v");
+        return client.exchange("DELETE " + key);
+    }
+}
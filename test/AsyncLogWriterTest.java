@@ -0,0 +1,79 @@
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The lock-free ring: every published message reaches the file exactly once, in each producer's order.
+class AsyncLogWriterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void blockingProducersLoseNothing() throws Exception {
+        Path file = dir.resolve("server.log");
+        // A small ring, so producers keep running into a full buffer and have to wait.
+        AsyncLogWriter writer = new AsyncLogWriter(file, 16, AsyncLogWriter.OverflowPolicy.BLOCK, 1L << 30, 1);
+        int threads = 8;
+        int perThread = 5000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String name = "t" + t + " ";
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    assertTrue(writer.append(name, Integer.toString(i), null, 0));
+                }
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        List<String> lines = waitForLines(file, threads * perThread);
+        int[] next = new int[threads];
+        for (String line : lines) {
+            // "[time] t<n> <i>"
+            String[] parts = line.substring(line.indexOf("] ") + 2).split(" ");
+            int thread = Integer.parseInt(parts[0].substring(1));
+            assertEquals(next[thread]++, Integer.parseInt(parts[1]), "out of order for thread " + thread);
+        }
+        for (int count : next) {
+            assertEquals(perThread, count);
+        }
+    }
+
+    @Test
+    void droppingProducersNeverWait() throws Exception {
+        Path file = dir.resolve("server.log");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 2, AsyncLogWriter.OverflowPolicy.DROP, 1L << 30, 1);
+        int written = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (writer.append("message ", Integer.toString(i), null, 0)) {
+                written++;
+            }
+        }
+        assertTrue(written > 0);
+        // Every kept message arrives, plus at least one line reporting the dropped ones.
+        List<String> lines = waitForLines(file, written + 1);
+        assertTrue(lines.stream().anyMatch(line -> line.contains("log messages dropped")));
+    }
+
+    private static List<String> waitForLines(Path file, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<String> lines = List.of();
+        while (System.currentTimeMillis() < deadline) {
+            lines = Files.exists(file) ? Files.readAllLines(file) : List.of();
+            if (lines.size() >= count) {
+                return lines;
+            }
+            Thread.sleep(20);
+        }
+        fail("expected " + count + " lines, found " + lines.size());
+        return lines;
+    }
+}
@@ -0,0 +1,154 @@
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryProtocolTest {
+    private final KeyValueStore store = new StripedKeyValueStore();
+    private final BinaryProtocol protocol = new BinaryProtocol(store, new KeyScanner(store), 60_000, new ServerMetrics(store::size, store::evictions), false);
+
+    private ByteBuffer execute(byte opcode, String... args) {
+        assertTrue(protocol.execute(ByteBuffer.wrap(BinaryProtocol.encodeRequest(opcode, args))));
+        return protocol.response();
+    }
+
+    private byte status(byte opcode, String... args) {
+        return execute(opcode, args).get();
+    }
+
+    @Test
+    void runsEachOpcodeAgainstTheStore() {
+        assertEquals(BinaryProtocol.STATUS_OK, status(BinaryProtocol.OP_PUT, "Key", "value"));
+        assertEquals("value", store.get("key"));
+        assertEquals(BinaryProtocol.STATUS_KEY_EXISTS, status(BinaryProtocol.OP_PUT, "key", "other"));
+
+        ByteBuffer get = execute(BinaryProtocol.OP_GET, "key");
+        assertEquals(BinaryProtocol.STATUS_OK, get.get());
+        assertEquals("value", BinaryProtocol.readString(get));
+        assertFalse(get.hasRemaining());
+
+        assertEquals(BinaryProtocol.STATUS_OK, status(BinaryProtocol.OP_EDIT_VALUE, "key", "changed"));
+        assertEquals(BinaryProtocol.STATUS_OK, status(BinaryProtocol.OP_EDIT_KEY, "key", "renamed"));
+        assertEquals("changed", store.get("renamed"));
+        assertEquals(BinaryProtocol.STATUS_NOT_FOUND, status(BinaryProtocol.OP_GET, "key"));
+        assertEquals(BinaryProtocol.STATUS_TOO_LONG, status(BinaryProtocol.OP_PUT, "k", "longer than ten"));
+
+        store.putIfAbsent("second", "v");
+        ByteBuffer keys = execute(BinaryProtocol.OP_KEYS);
+        assertEquals(BinaryProtocol.STATUS_OK, keys.get());
+        assertEquals(2, keys.getInt());
+        String described = BinaryProtocol.describeResponse(BinaryProtocol.OP_KEYS, execute(BinaryProtocol.OP_KEYS));
+        assertTrue(described.contains("[renamed]") && described.contains("[second]"), described);
+
+        assertEquals(BinaryProtocol.STATUS_OK, status(BinaryProtocol.OP_DELETE, "renamed"));
+        assertEquals(BinaryProtocol.STATUS_NOT_FOUND, status(BinaryProtocol.OP_DELETE, "renamed"));
+    }
+
+    @Test
+    void scanPagesThroughTheKeysByCursor() {
+        for (int i = 0; i < 25; i++) {
+            store.putIfAbsent("k" + i, "v");
+        }
+        int seen = 0;
+        long cursor = 0;
+        do {
+            ByteBuffer page = execute(BinaryProtocol.OP_SCAN, Long.toString(cursor), "k", "10");
+            assertEquals(BinaryProtocol.STATUS_OK, page.get());
+            cursor = page.getLong();
+            seen += page.getShort();
+        } while (cursor != 0);
+        assertEquals(25, seen);
+        assertEquals(BinaryProtocol.STATUS_NOT_FOUND, status(BinaryProtocol.OP_SCAN, "999", "", "10"));
+        assertEquals(BinaryProtocol.STATUS_INVALID, status(BinaryProtocol.OP_SCAN, "0", "", "none"));
+    }
+
+    @Test
+    void rangeAndPrefixReturnSortedSlices() {
+        for (String key : new String[] {"b", "a", "ab", "c"}) {
+            store.putIfAbsent(key, "v");
+        }
+        assertEquals("Keys: [a][ab] Next: [b]", BinaryProtocol.describeResponse(BinaryProtocol.OP_RANGE,
+                execute(BinaryProtocol.OP_RANGE, "a", "c", "2")));
+        assertEquals("Keys: [a][ab]", BinaryProtocol.describeResponse(BinaryProtocol.OP_PREFIX,
+                execute(BinaryProtocol.OP_PREFIX, "a", "", "10")));
+        assertEquals(BinaryProtocol.STATUS_INVALID, status(BinaryProtocol.OP_RANGE, "a", "c", "0"));
+    }
+
+    @Test
+    void aReplicaAnswersReadsAndRefusesWrites() {
+        store.putIfAbsent("key", "value");
+        BinaryProtocol replica = new BinaryProtocol(store, new KeyScanner(store), 60_000, new ServerMetrics(store::size, store::evictions), true);
+        assertTrue(replica.execute(ByteBuffer.wrap(BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "other", "v"))));
+        assertEquals(BinaryProtocol.STATUS_READ_ONLY, replica.response().get());
+        assertTrue(replica.execute(ByteBuffer.wrap(BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "key"))));
+        assertEquals(BinaryProtocol.STATUS_OK, replica.response().get());
+        assertNull(store.get("other"));
+    }
+
+    @Test
+    void ttlReportsTheMillisecondsLeft() throws Exception {
+        assertEquals(BinaryProtocol.STATUS_OK, status(BinaryProtocol.OP_PUT, "session", "alice", "30"));
+        ByteBuffer ttl = execute(BinaryProtocol.OP_TTL, "session");
+        assertEquals(BinaryProtocol.STATUS_OK, ttl.get());
+        long left = ttl.getLong();
+        assertTrue(left > 29_000 && left <= 30_000, "ttl " + left);
+
+        assertEquals(BinaryProtocol.STATUS_OK, status(BinaryProtocol.OP_PUT, "forever", "bob"));
+        assertEquals("OK no TTL", BinaryProtocol.describeResponse(BinaryProtocol.OP_TTL, execute(BinaryProtocol.OP_TTL, "forever")));
+        assertEquals(BinaryProtocol.STATUS_OK, status(BinaryProtocol.OP_EXPIRE, "forever", "5"));
+        ttl = execute(BinaryProtocol.OP_TTL, "forever");
+        assertEquals(BinaryProtocol.STATUS_OK, ttl.get());
+        assertTrue(ttl.getLong() <= 5_000);
+
+        assertEquals(BinaryProtocol.STATUS_NOT_FOUND, status(BinaryProtocol.OP_TTL, "missing"));
+        assertEquals(BinaryProtocol.STATUS_TOO_LONG, status(BinaryProtocol.OP_TTL, "longer than ten"));
+        assertEquals(BinaryProtocol.STATUS_INVALID, status(BinaryProtocol.OP_PUT, "other", "v", "0"));
+
+        // An expired key is gone for TTL too, whether or not the sweeper has removed it yet.
+        store.putIfAbsent("brief", "v", System.currentTimeMillis() + 50);
+        Thread.sleep(100);
+        assertEquals(BinaryProtocol.STATUS_NOT_FOUND, status(BinaryProtocol.OP_TTL, "brief"));
+        assertEquals(BinaryProtocol.STATUS_NOT_FOUND, status(BinaryProtocol.OP_GET, "brief"));
+    }
+
+    @Test
+    void quitEndsTheSession() {
+        assertFalse(protocol.execute(ByteBuffer.wrap(BinaryProtocol.encodeRequest(BinaryProtocol.OP_QUIT))));
+    }
+
+    @Test
+    void rejectsTruncatedAndUnknownRequests() {
+        byte[] put = BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "key", "value");
+        // The value's length prefix promises more bytes than the frame holds.
+        assertTrue(protocol.execute(ByteBuffer.wrap(put, 0, put.length - 2)));
+        assertEquals(BinaryProtocol.STATUS_INVALID, protocol.response().get());
+        assertNull(store.get("key"));
+        assertEquals(BinaryProtocol.STATUS_INVALID, status((byte) 99));
+    }
+
+    @Test
+    void echoesTheRequestTag() {
+        assertTrue(protocol.execute(ByteBuffer.wrap(BinaryProtocol.encodeRequest(42, BinaryProtocol.OP_PUT, "key", "value"))));
+        assertEquals("#42 OK", BinaryProtocol.describeResponse(BinaryProtocol.OP_PUT, protocol.response()));
+        assertTrue(protocol.execute(ByteBuffer.wrap(BinaryProtocol.encodeRequest(7, BinaryProtocol.OP_GET, "key"))));
+        assertEquals("#7 OK value [value]", BinaryProtocol.describeResponse(BinaryProtocol.OP_GET, protocol.response()));
+
+        // A malformed tagged request still answers under its tag, so a pipelining client can match it.
+        byte[] truncated = BinaryProtocol.encodeRequest(9, BinaryProtocol.OP_GET, "key");
+        assertTrue(protocol.execute(ByteBuffer.wrap(truncated, 0, truncated.length - 1)));
+        ByteBuffer response = protocol.response();
+        assertEquals(BinaryProtocol.TAGGED, response.get());
+        assertEquals(9, response.getInt());
+        assertEquals(BinaryProtocol.STATUS_INVALID, response.get());
+    }
+
+    @Test
+    void negotiatesTheVersion() {
+        assertEquals("OK BINARY " + BinaryProtocol.VERSION, BinaryProtocol.negotiate("BINARY " + BinaryProtocol.VERSION));
+        assertTrue(BinaryProtocol.isAccepted(BinaryProtocol.negotiate("BINARY 7")));
+        assertFalse(BinaryProtocol.isAccepted(BinaryProtocol.negotiate("BINARY 0")));
+        assertFalse(BinaryProtocol.isAccepted(BinaryProtocol.negotiate("BINARY x")));
+        assertNull(BinaryProtocol.negotiate("GET key"));
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvictionPolicyTest {
+    private static final int MAX_KEYS = 1000;
+    private static final int THREADS = 8;
+
+    private static KeyValueStore store(String type, String eviction) {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--max-keys=" + MAX_KEYS, "--eviction=" + eviction});
+        EvictionPolicy policy = EvictionPolicy.fromConfig(config);
+        return type.equals("packed")
+                ? new PackedKeyValueStore(null, false, MAX_KEYS, policy)
+                : new StripedKeyValueStore(null, false, policy);
+    }
+
+    // Writers evict after their own insert, so the store can be a few keys over while they run;
+    // every 1000 writes they all stop and the store must be back at its limit.
+    @ParameterizedTest
+    @CsvSource({"striped, lru", "striped, tinylfu", "packed, lru", "packed, tinylfu"})
+    void concurrentWritersStayWithinTheLimit(String type, String eviction) throws Exception {
+        KeyValueStore store = store(type, eviction);
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        CyclicBarrier round = new CyclicBarrier(THREADS, () -> sizes.add(store.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    assertEquals(KeyValueStore.Status.OK, store.putIfAbsent("t" + thread + "-" + i, "v"));
+                    // Reads feed the policy too; keep a few keys hot.
+                    store.get("t" + thread + "-" + (i % 10));
+                    if (i % 1000 == 999) {
+                        round.await();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        assertEquals(Collections.nCopies(10, MAX_KEYS), sizes);
+        assertEquals(THREADS * 10_000 - MAX_KEYS, store.evictions());
+    }
+
+    @ParameterizedTest
+    @CsvSource({"striped", "packed"})
+    void rejectRefusesNewKeysUntilOneIsDeleted(String type) {
+        KeyValueStore store = store(type, "reject");
+        for (int i = 0; i < MAX_KEYS; i++) {
+            assertEquals(KeyValueStore.Status.OK, store.putIfAbsent("k" + i, "v"));
+        }
+        assertEquals(KeyValueStore.Status.STORE_FULL, store.putIfAbsent("extra", "v"));
+        assertEquals(KeyValueStore.Status.OK, store.replace("k0", "changed"));
+        assertEquals(KeyValueStore.Status.OK, store.remove("k1"));
+        assertEquals(KeyValueStore.Status.OK, store.putIfAbsent("extra", "v"));
+        assertEquals(MAX_KEYS, store.size());
+        assertEquals(0, store.evictions());
+    }
+
+    // TinyLFU checks that a window candidate still exists; that lookup must not add to its count.
+    @ParameterizedTest
+    @CsvSource({"striped", "packed"})
+    void containsDoesNotCountAsARead(String type) {
+        AtomicInteger reads = new AtomicInteger();
+        EvictionPolicy policy = new EvictionPolicy.SampledLru(MAX_KEYS, 0) {
+            @Override
+            void recordRead(String key) {
+                reads.incrementAndGet();
+            }
+        };
+        KeyValueStore store = type.equals("packed")
+                ? new PackedKeyValueStore(null, false, MAX_KEYS, policy)
+                : new StripedKeyValueStore(null, false, policy);
+        store.putIfAbsent("key", "v");
+        assertTrue(store.contains("key"));
+        assertFalse(store.contains("missing"));
+        assertEquals(0, reads.get());
+        assertEquals("v", store.get("key"));
+        assertEquals(1, reads.get());
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+    private static final List<String> NODES = List.of("10.0.0.1:5000", "10.0.0.2:5000", "10.0.0.3:5000", "10.0.0.4:5000");
+    private static final int KEYS = 100_000;
+
+    @Test
+    void sameNodesGiveTheSameMapping() {
+        HashRing ring = new HashRing(NODES, 160);
+        List<String> reordered = new ArrayList<>(NODES);
+        Collections.reverse(reordered);
+        HashRing other = new HashRing(reordered, 160);
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(ring.nodeFor("key" + i), other.nodeFor("key" + i));
+        }
+    }
+
+    @Test
+    void spreadsKeysEvenly() {
+        HashRing ring = new HashRing(NODES, 160);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.nodeFor("key" + i), 1, Integer::sum);
+        }
+        assertEquals(NODES.size(), counts.size());
+        for (int count : counts.values()) {
+            assertEquals(KEYS / NODES.size(), count, KEYS / NODES.size() * 0.2);
+        }
+    }
+
+    // Adding a fifth node moves about a fifth of the keys, and all of them to the new node.
+    @Test
+    void addingANodeOnlyMovesKeysToIt() {
+        HashRing ring = new HashRing(NODES, 160);
+        HashRing grown = ring.with("10.0.0.5:5000");
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String before = ring.nodeFor("key" + i);
+            String after = grown.nodeFor("key" + i);
+            if (!before.equals(after)) {
+                assertEquals("10.0.0.5:5000", after);
+                moved++;
+            }
+        }
+        assertEquals(KEYS / 5, moved, KEYS / 5 * 0.2);
+        assertEquals(5, grown.nodes().size());
+        assertEquals(4, ring.nodes().size());
+    }
+}
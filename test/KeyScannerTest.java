@@ -0,0 +1,126 @@
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// SCAN cursors: paging, MATCH, the byte budget and cursor expiry.
+class KeyScannerTest {
+    private final KeyValueStore store = new StripedKeyValueStore();
+    private final KeyScanner scanner = new KeyScanner(store);
+
+    private void fill(String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            store.putIfAbsent(prefix + i, "v");
+        }
+    }
+
+    // Follows one scan to the end and returns every key it produced.
+    private List<String> scanAll(String prefix, int count, int maxBytes) {
+        List<String> keys = new ArrayList<>();
+        KeyScanner.Page page = scanner.scan(0, prefix, count, maxBytes);
+        keys.addAll(page.keys);
+        while (page.cursor != 0) {
+            assertTrue(page.keys.size() <= count);
+            page = scanner.scan(page.cursor, "ignored", count, maxBytes);
+            keys.addAll(page.keys);
+        }
+        return keys;
+    }
+
+    @Test
+    void pagesThroughEveryKeyExactlyOnce() {
+        fill("k", 1000);
+        List<String> keys = scanAll("", 37, 60_000);
+        assertEquals(1000, keys.size());
+        assertEquals(1000, new HashSet<>(keys).size());
+    }
+
+    @Test
+    void matchKeepsTheKeysWithThePrefixTheScanBeganWith() {
+        fill("a", 300);
+        fill("b", 200);
+        List<String> keys = scanAll("b", 50, 60_000);
+        assertEquals(200, keys.size());
+        assertTrue(keys.stream().allMatch(key -> key.startsWith("b")));
+    }
+
+    @Test
+    void aFullByteBudgetCarriesTheKeyToTheNextPage() {
+        fill("key", 100);
+        // Room for three keys of up to five chars per page.
+        int budget = 3 * KeyScanner.encodedSize("key99");
+        List<String> keys = new ArrayList<>();
+        KeyScanner.Page page = scanner.scan(0, "", 100, budget);
+        while (true) {
+            assertTrue(page.keys.size() <= 3, "page over budget: " + page.keys);
+            keys.addAll(page.keys);
+            if (page.cursor == 0) {
+                break;
+            }
+            page = scanner.scan(page.cursor, "", 100, budget);
+        }
+        assertEquals(100, new HashSet<>(keys).size());
+        assertEquals(100, keys.size());
+    }
+
+    @Test
+    void seesEveryKeyPresentForTheWholeScanDespiteWrites() {
+        fill("stay", 500);
+        Set<String> seen = new HashSet<>();
+        KeyScanner.Page page = scanner.scan(0, "", 20, 60_000);
+        int round = 0;
+        while (true) {
+            seen.addAll(page.keys);
+            if (page.cursor == 0) {
+                break;
+            }
+            store.putIfAbsent("new" + round, "v");
+            store.remove("new" + (round - 1));
+            round++;
+            page = scanner.scan(page.cursor, "", 20, 60_000);
+        }
+        for (int i = 0; i < 500; i++) {
+            assertTrue(seen.contains("stay" + i), "missed stay" + i);
+        }
+    }
+
+    @Test
+    void aFinishedOrUnknownCursorIsRejected() {
+        fill("k", 10);
+        KeyScanner.Page page = scanner.scan(0, "", 100, 60_000);
+        assertEquals(0, page.cursor);
+        assertNull(scanner.scan(1, "", 100, 60_000));
+        assertNull(scanner.scan(12345, "", 100, 60_000));
+        assertEquals("Error: Cursor [12345] is invalid or has expired",
+                scanner.scanCommand("SCAN 12345".split(" "), 60_000));
+    }
+
+    @Test
+    void theLeastRecentlyUsedCursorExpiresPastTheLimit() throws Exception {
+        fill("k", 10);
+        long oldest = scanner.scan(0, "", 1, 60_000).cursor;
+        Thread.sleep(5);
+        List<Long> open = new ArrayList<>();
+        for (int i = 0; i < 1024; i++) {
+            open.add(scanner.scan(0, "", 1, 60_000).cursor);
+        }
+        assertNull(scanner.scan(oldest, "", 1, 60_000));
+        assertNotNull(scanner.scan(open.get(open.size() - 1), "", 1, 60_000));
+    }
+
+    @Test
+    void scanCommandParsesMatchAndCount() {
+        fill("a", 3);
+        fill("b", 3);
+        String response = scanner.scanCommand("SCAN 0 MATCH a COUNT 100".split(" "), 60_000);
+        assertTrue(response.startsWith("Cursor [0] Keys: "), response);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(response.contains("[a" + i + "]"), response);
+            assertFalse(response.contains("[b" + i + "]"), response);
+        }
+        assertTrue(scanner.scanCommand("SCAN 0 COUNT".split(" "), 60_000).startsWith("Invalid command."));
+        assertTrue(scanner.scanCommand("SCAN x".split(" "), 60_000).startsWith("Invalid command."));
+        assertTrue(scanner.scanCommand("SCAN 0 COUNT 0".split(" "), 60_000).startsWith("Invalid command."));
+    }
+}
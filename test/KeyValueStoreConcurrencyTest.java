@@ -0,0 +1,98 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The stores' check-then-act operations under contention, for both implementations.
+class KeyValueStoreConcurrencyTest {
+    private static final int THREADS = 8;
+
+    private static KeyValueStore store(String type) {
+        return type.equals("packed") ? new PackedKeyValueStore() : new StripedKeyValueStore();
+    }
+
+    // Runs task on THREADS threads at once and fails on the first exception.
+    private static void race(ThrowingTask task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            done.add(pool.submit(() -> {
+                start.await();
+                task.run(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : done) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+    }
+
+    interface ThrowingTask {
+        void run(int thread) throws Exception;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"striped", "packed"})
+    void exactlyOnePutIfAbsentWinsEachKey(String type) throws Exception {
+        KeyValueStore store = store(type);
+        AtomicInteger wins = new AtomicInteger();
+        race(thread -> {
+            for (int i = 0; i < 5000; i++) {
+                if (store.putIfAbsent("k" + i, "t" + thread) == KeyValueStore.Status.OK) {
+                    wins.incrementAndGet();
+                }
+            }
+        });
+        assertEquals(5000, wins.get());
+        assertEquals(5000, store.size());
+    }
+
+    // Values move between keys by rename and never get lost or duplicated on the way.
+    @ParameterizedTest
+    @ValueSource(strings = {"striped", "packed"})
+    void renamesNeitherLoseNorDuplicateValues(String type) throws Exception {
+        KeyValueStore store = store(type);
+        int keys = 64;
+        for (int i = 0; i < keys / 2; i++) {
+            store.putIfAbsent("k" + i, "v" + i);
+        }
+        race(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20_000; i++) {
+                store.rename("k" + random.nextInt(keys), "k" + random.nextInt(keys));
+            }
+        });
+        Set<String> values = new HashSet<>();
+        for (String key : store.keys()) {
+            assertTrue(values.add(store.get(key)), "duplicated value under " + key);
+        }
+        assertEquals(keys / 2, values.size());
+        assertEquals(keys / 2, store.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"striped", "packed"})
+    void readersNeverSeeTornValues(String type) throws Exception {
+        KeyValueStore store = store(type);
+        store.putIfAbsent("shared", "aaaaaaaaaa");
+        String[] values = {"aaaaaaaaaa", "bbbbbbbbbb", "cccccccccc"};
+        race(thread -> {
+            for (int i = 0; i < 20_000; i++) {
+                if (thread % 2 == 0) {
+                    store.replace("shared", values[i % values.length]);
+                } else {
+                    String value = store.get("shared");
+                    assertTrue(Arrays.asList(values).contains(value), "torn read: " + value);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCacheTest {
+    @Test
+    void cachesALoadedValue() {
+        NearCache cache = new NearCache(10);
+        assertNull(cache.get("k"));
+        Object loading = cache.loading("k");
+        assertNull(cache.get("k"));
+        cache.loaded("k", loading, "v");
+        assertEquals("v", cache.get("k"));
+        cache.invalidate("k");
+        assertNull(cache.get("k"));
+    }
+
+    // The reply was read before the change whose invalidation arrived first; it must not stick.
+    @Test
+    void anInvalidationDuringTheLoadWins() {
+        NearCache cache = new NearCache(10);
+        Object loading = cache.loading("k");
+        cache.invalidate("k");
+        cache.loaded("k", loading, "stale");
+        assertNull(cache.get("k"));
+    }
+
+    @Test
+    void aNewerLoadReplacesAnOlderOne() {
+        NearCache cache = new NearCache(10);
+        Object first = cache.loading("k");
+        Object second = cache.loading("k");
+        cache.loaded("k", first, "old");
+        assertNull(cache.get("k"));
+        cache.loaded("k", second, "new");
+        assertEquals("new", cache.get("k"));
+    }
+
+    @Test
+    void staysWithinItsBound() {
+        NearCache cache = new NearCache(100);
+        for (int i = 0; i < 10_000; i++) {
+            cache.loaded("k" + i, cache.loading("k" + i), "v" + i);
+        }
+        int cached = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (cache.get("k" + i) != null) {
+                cached++;
+            }
+        }
+        assertTrue(cached <= 100, cached + " entries cached");
+        assertTrue(cached > 0);
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedKeyValueStoreTest {
+    // 64 segments of 1024 slots to start with, so this many keys rehash every segment a few times.
+    private static final int MANY = 200_000;
+
+    @Test
+    void keepsEveryKeyThroughRehashes() {
+        PackedKeyValueStore store = new PackedKeyValueStore();
+        for (int i = 0; i < MANY; i++) {
+            assertEquals(KeyValueStore.Status.OK, store.putIfAbsent("k" + i, "v" + i));
+        }
+        assertEquals(MANY, store.size());
+        for (int i = 0; i < MANY; i++) {
+            assertEquals("v" + i, store.get("k" + i));
+        }
+        Set<String> keys = new HashSet<>();
+        store.keys().forEach(keys::add);
+        assertEquals(MANY, keys.size());
+    }
+
+    // Lookups probe past deleted slots instead of stopping at them.
+    @Test
+    void findsKeysBehindTombstones() {
+        PackedKeyValueStore store = new PackedKeyValueStore();
+        for (int i = 0; i < 30_000; i++) {
+            store.putIfAbsent("k" + i, "v" + i);
+        }
+        for (int i = 0; i < 30_000; i += 2) {
+            assertEquals(KeyValueStore.Status.OK, store.remove("k" + i));
+        }
+        for (int i = 0; i < 30_000; i++) {
+            assertEquals(i % 2 == 0 ? null : "v" + i, store.get("k" + i));
+        }
+        assertEquals(KeyValueStore.Status.KEY_NOT_FOUND, store.remove("k0"));
+        assertEquals(KeyValueStore.Status.OK, store.putIfAbsent("k0", "again"));
+        assertEquals(KeyValueStore.Status.KEY_EXISTS, store.putIfAbsent("k1", "twice"));
+        assertEquals(15_001, store.size());
+    }
+
+    // A sliding window of keys leaves the tables full of tombstones; rebuilding them in place must
+    // keep the live keys and not grow the store without bound.
+    @Test
+    void churnRebuildsTablesFullOfTombstones() {
+        PackedKeyValueStore store = new PackedKeyValueStore();
+        for (int i = 0; i < 500_000; i++) {
+            store.putIfAbsent("k" + i, "v");
+            if (i >= 100) {
+                assertEquals(KeyValueStore.Status.OK, store.remove("k" + (i - 100)));
+            }
+        }
+        assertEquals(100, store.size());
+        for (int i = 500_000 - 100; i < 500_000; i++) {
+            assertEquals("v", store.get("k" + i));
+        }
+        assertNull(store.get("k0"));
+    }
+
+    @Test
+    void storesUpToTenCharsOfAnyKind() {
+        PackedKeyValueStore store = new PackedKeyValueStore();
+        assertEquals(KeyValueStore.Status.OK, store.putIfAbsent("tencharkey", "日本語の値です！！！"));
+        assertEquals("日本語の値です！！！", store.get("tencharkey"));
+        assertEquals(KeyValueStore.Status.TOO_LARGE, store.putIfAbsent("k", "eleven char"));
+        assertEquals(KeyValueStore.Status.TOO_LARGE, store.putIfAbsent("elevenchars", "v"));
+        assertEquals(KeyValueStore.Status.TOO_LARGE, store.replace("tencharkey", "eleven char"));
+        assertEquals(KeyValueStore.Status.OK, store.replace("tencharkey", ""));
+        assertEquals("", store.get("tencharkey"));
+        assertNull(store.get("elevenchars"));
+    }
+
+    // Optimistic readers racing inserts that rehash the segment under them.
+    @Test
+    void readersNeverMissAKeyDuringRehash() throws Exception {
+        PackedKeyValueStore store = new PackedKeyValueStore();
+        for (int i = 0; i < 1000; i++) {
+            store.putIfAbsent("stable" + i, "v" + i);
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            readers.add(pool.submit(() -> {
+                while (writing.get()) {
+                    for (int i = 0; i < 1000; i++) {
+                        assertEquals("v" + i, store.get("stable" + i));
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < MANY; i++) {
+            store.putIfAbsent("k" + i, "v");
+        }
+        writing.set(false);
+        for (Future<?> reader : readers) {
+            reader.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+    }
+}
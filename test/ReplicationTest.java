@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationTest {
+    private static final RequestLog QUIET = RequestLog.fromConfig(ServerConfig.fromArgs(new String[] {"--request-log=off"}));
+
+    @Test
+    void feedHandsOutRecordsInOrderUntilTheyAreOverwritten() {
+        ReplicationLog feed = new ReplicationLog(4);
+        assertTrue(feed.covers(0));
+        assertNull(feed.read(0));
+        for (int i = 0; i < 6; i++) {
+            feed.append(WriteAheadLog.PUT, "k" + i, "v");
+        }
+        assertEquals(6, feed.tail());
+        // One record short of the capacity, for an append that has taken its sequence but not yet its slot.
+        assertFalse(feed.covers(2));
+        assertTrue(feed.covers(3));
+        assertThrows(IllegalStateException.class, () -> feed.read(1));
+        assertEquals("k2", feed.read(2).fields[0]);
+        assertEquals(5, feed.read(5).sequence);
+        assertNull(feed.read(6));
+    }
+
+    @Test
+    void awaitWakesUpOnAppend() throws Exception {
+        ReplicationLog feed = new ReplicationLog(16);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<ReplicationLog.Record> waiting = pool.submit(() -> feed.await(0, TimeUnit.SECONDS.toNanos(30)));
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+        feed.append(WriteAheadLog.DELETE, "k");
+        assertEquals("k", waiting.get(5, TimeUnit.SECONDS).fields[0]);
+        pool.shutdown();
+        assertNull(feed.await(1, TimeUnit.MILLISECONDS.toNanos(10)));
+    }
+
+    // Many appenders racing for slots still produce one record per sequence number.
+    @Test
+    void concurrentAppendsGetDistinctSequences() throws Exception {
+        ReplicationLog feed = new ReplicationLog(1 << 16);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    feed.append(WriteAheadLog.PUT, thread + "-" + i, "v");
+                }
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get();
+        }
+        pool.shutdown();
+        Set<String> keys = new HashSet<>();
+        for (long sequence = 0; sequence < feed.tail(); sequence++) {
+            assertTrue(keys.add(feed.read(sequence).fields[0]));
+        }
+        assertEquals(40_000, keys.size());
+    }
+
+    // A replica with stale contents joins a primary whose feed no longer reaches back to offset 0:
+    // it gets a full snapshot, loses the keys the primary does not have, then follows the stream.
+    @Test
+    void replicaResyncsThenFollowsTheFeed() throws Exception {
+        KeyValueStore primary = new StripedKeyValueStore();
+        ReplicationLog feed = new ReplicationLog(64);
+        primary.replicateTo(feed);
+        for (int i = 0; i < 1000; i++) {
+            primary.putIfAbsent("k" + i, "v" + i);
+        }
+        long expiresAt = System.currentTimeMillis() + 60_000;
+        primary.putIfAbsent("session", "alice", expiresAt);
+        int port = freePort();
+        new ReplicationServer(primary, feed, port, QUIET).start();
+
+        KeyValueStore replica = new StripedKeyValueStore();
+        replica.putIfAbsent("leftover", "from an earlier primary");
+        replica.putIfAbsent("k0", "stale");
+        new ReplicaSync(replica, "127.0.0.1:" + port, QUIET).start();
+        waitFor(() -> replica.size() == 1001 && !replica.containsKey("leftover"));
+        assertEquals("v0", replica.get("k0"));
+        assertEquals(expiresAt, replica.expiresAt("session"));
+
+        for (int i = 0; i < 1000; i += 2) {
+            primary.remove("k" + i);
+        }
+        primary.rename("k1", "moved");
+        primary.replace("k3", "edited");
+        primary.putIfAbsent("last", "one");
+        // 500 deletes overrun a 64-record feed, so the replica may well be resynced again meanwhile.
+        waitFor(() -> contents(primary).equals(contents(replica)));
+    }
+
+    private static Map<String, String> contents(KeyValueStore store) {
+        Map<String, String> contents = new TreeMap<>();
+        for (Map.Entry<String, String> entry : store.entries()) {
+            contents.put(entry.getKey(), entry.getValue());
+        }
+        return contents;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "replica did not catch up");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.net.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Keys that move between nodes keep their remaining TTL.
+class ShardedKVClientTest {
+    private static final int VNODES = 16;
+
+    // Starts an event-loop server on a free port and returns it as "host:port" once it accepts.
+    private static String startNode() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        TCPServer server = new TCPServer(ServerConfig.fromArgs(new String[] {"--request-log=off"}));
+        Thread thread = new Thread(() -> new TCPEventLoopServer(server, port, 1, 16).startServer());
+        thread.setDaemon(true);
+        thread.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try (Socket probe = new Socket("127.0.0.1", port)) {
+                return "127.0.0.1:" + port;
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static ShardedKVClient client(String... nodes) throws IOException {
+        return new ShardedKVClient(List.of(nodes), VNODES, "tcp", 2, 5000, 250, 64);
+    }
+
+    private static void assertTtl(long ttl, int seconds) {
+        assertTrue(ttl > (seconds - 5) * 1000L && ttl <= seconds * 1000L, "ttl " + ttl);
+    }
+
+    @Test
+    void aJoinMovesKeysWithTheirTtl() throws Exception {
+        String first = startNode();
+        String second = startNode();
+        try (ShardedKVClient client = client(first)) {
+            for (int i = 0; i < 200; i++) {
+                assertEquals(KeyValueStore.Status.OK, i % 2 == 0 ? client.put("k" + i, "v", 600) : client.put("k" + i, "v"));
+            }
+            assertTrue(client.join(second) > 0);
+        }
+        // A client with the new node list asks only each key's new owner.
+        HashRing ring = new HashRing(List.of(first, second), VNODES);
+        int moved = 0;
+        try (ShardedKVClient client = client(first, second)) {
+            for (int i = 0; i < 200; i++) {
+                long ttl = client.ttl("k" + i);
+                if (i % 2 == 0) {
+                    assertTtl(ttl, 600);
+                } else {
+                    assertEquals(-1, ttl);
+                }
+                if (ring.nodeFor("k" + i).equals(second)) {
+                    moved++;
+                }
+            }
+        }
+        assertTrue(moved > 0);
+    }
+
+    @Test
+    void aCrossNodeEditKeyKeepsTheTtl() throws Exception {
+        String first = startNode();
+        String second = startNode();
+        HashRing ring = new HashRing(List.of(first, second), VNODES);
+        String newKey = "n0";
+        for (int i = 1; ring.nodeFor(newKey).equals(ring.nodeFor("session")); i++) {
+            newKey = "n" + i;
+        }
+        try (ShardedKVClient client = client(first, second)) {
+            assertEquals(KeyValueStore.Status.OK, client.put("session", "alice", 600));
+            assertEquals(KeyValueStore.Status.OK, client.editKey("session", newKey));
+            assertNull(client.get("session"));
+            assertEquals("alice", client.get(newKey));
+            assertTtl(client.ttl(newKey), 600);
+        }
+    }
+}
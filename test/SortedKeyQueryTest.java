@@ -0,0 +1,77 @@
+import java.util.*;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// RANGE and PREFIX give the same sorted pages whether they walk the index or sort a full pass.
+class SortedKeyQueryTest {
+    private static KeyScanner scanner(boolean sortedIndex) {
+        KeyValueStore store = new StripedKeyValueStore(null, sortedIndex, null);
+        for (int i = 0; i < 500; i++) {
+            store.putIfAbsent(String.format("k%03d", i), "v");
+            store.putIfAbsent(String.format("user%03d", i), "v");
+        }
+        // Renamed and removed keys leave the index too.
+        store.rename("k000", "a");
+        store.remove("k001");
+        return new KeyScanner(store);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void rangeIsInclusiveAndSorted(boolean sortedIndex) {
+        KeyScanner.Slice slice = scanner(sortedIndex).range("k000", "k010", 100, 60_000);
+        List<String> expected = new ArrayList<>();
+        for (int i = 2; i <= 10; i++) {
+            expected.add(String.format("k%03d", i));
+        }
+        assertEquals(expected, slice.keys);
+        assertNull(slice.next);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void prefixPagesContinueFromNext(boolean sortedIndex) {
+        KeyScanner scanner = scanner(sortedIndex);
+        List<String> keys = new ArrayList<>();
+        String from = "";
+        int pages = 0;
+        while (true) {
+            KeyScanner.Slice slice = scanner.prefix("user", from, 64, 60_000);
+            assertTrue(slice.keys.size() <= 64);
+            keys.addAll(slice.keys);
+            pages++;
+            if (slice.next == null) {
+                break;
+            }
+            from = slice.next;
+        }
+        assertEquals(8, pages);
+        assertEquals(500, keys.size());
+        List<String> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        assertEquals(sorted, keys);
+        assertTrue(keys.stream().allMatch(key -> key.startsWith("user")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void aFullByteBudgetNamesTheNextKey(boolean sortedIndex) {
+        int budget = 4 * KeyScanner.encodedSize("user000");
+        KeyScanner.Slice slice = scanner(sortedIndex).prefix("user", "", 100, budget);
+        assertEquals(List.of("user000", "user001", "user002", "user003"), slice.keys);
+        assertEquals("user004", slice.next);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void textCommandsReportTheNextKey(boolean sortedIndex) {
+        KeyScanner scanner = scanner(sortedIndex);
+        assertEquals("Keys: [a][k002] Next: [k003]", scanner.rangeCommand("RANGE a k999 LIMIT 2".split(" "), 60_000));
+        assertEquals("Keys: [user498][user499]", scanner.prefixCommand("PREFIX user FROM user498".split(" "), 60_000));
+        assertTrue(scanner.rangeCommand("RANGE a k999 LIMIT".split(" "), 60_000).startsWith("Invalid command."));
+        assertTrue(scanner.prefixCommand("PREFIX user ORDER asc".split(" "), 60_000).startsWith("Invalid command."));
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The event loop reassembles writeUTF frames however TCP splits or merges them, and enforces the
+// idle timeout, the connection limit and the output cap.
+class TCPEventLoopServerTest {
+    private int port;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        start();
+    }
+
+    private TCPServer start(String... args) throws Exception {
+        return start(16, args);
+    }
+
+    // Starts a server on a free port with the given options; later connect() calls go to it.
+    private TCPServer start(int maxConnections, String... args) throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        TCPServer server = new TCPServer(ServerConfig.fromArgs(args));
+        int serverPort = port;
+        Thread thread = new Thread(() -> new TCPEventLoopServer(server, serverPort, 2, maxConnections).startServer());
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition, String what) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("timed out waiting for " + what);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private Socket connect() throws Exception {
+        return connect(0);
+    }
+
+    // receiveBuffer 0 keeps the system default.
+    private Socket connect(int receiveBuffer) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                Socket socket = new Socket();
+                if (receiveBuffer > 0) {
+                    socket.setReceiveBufferSize(receiveBuffer);
+                }
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 5000);
+                socket.setSoTimeout(5000);
+                return socket;
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static byte[] frame(String command) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(command);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void reassemblesAFrameSentOneByteAtATime() throws Exception {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            socket.setTcpNoDelay(true);
+            for (byte b : frame("PUT key value")) {
+                out.write(b);
+                out.flush();
+                Thread.sleep(2);
+            }
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertTrue(in.readUTF().contains("added successfully"));
+            out.write(frame("GET key"));
+            assertTrue(in.readUTF().contains("with value [value]"));
+        }
+    }
+
+    @Test
+    void answersEveryFrameOfOneWriteInOrder() throws Exception {
+        try (Socket socket = connect()) {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            batch.write(frame("PUT a 1"));
+            batch.write(frame("PUT b 2"));
+            batch.write(frame("GET a"));
+            // The last frame is cut in half and completed by a second write.
+            byte[] last = frame("GET b");
+            batch.write(last, 0, 3);
+            OutputStream out = socket.getOutputStream();
+            out.write(batch.toByteArray());
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertTrue(in.readUTF().contains("Key [a] with value [1] added"));
+            assertTrue(in.readUTF().contains("Key [b] with value [2] added"));
+            assertTrue(in.readUTF().contains("Key [a] with value [1]"));
+            Thread.sleep(50);
+            out.write(last, 3, last.length - 3);
+            assertTrue(in.readUTF().contains("Key [b] with value [2]"));
+        }
+    }
+
+    // After "BINARY 1" the same connection carries u32-length frames, split and batched as TCP likes.
+    @Test
+    void switchesToBinaryFramesAfterNegotiation() throws Exception {
+        try (Socket socket = connect()) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.writeUTF("BINARY 1");
+            assertEquals("OK BINARY 1", in.readUTF());
+
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            DataOutputStream frames = new DataOutputStream(batch);
+            for (byte[] body : new byte[][] {
+                    BinaryProtocol.encodeRequest(BinaryProtocol.OP_PUT, "key", "value"),
+                    BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "key"),
+                    BinaryProtocol.encodeRequest(BinaryProtocol.OP_GET, "missing")}) {
+                frames.writeInt(body.length);
+                frames.write(body);
+            }
+            byte[] bytes = batch.toByteArray();
+            out.write(bytes, 0, bytes.length - 5);
+            out.flush();
+            Thread.sleep(50);
+            out.write(bytes, bytes.length - 5, 5);
+            out.flush();
+
+            assertEquals("OK", BinaryProtocol.describeResponse(BinaryProtocol.OP_PUT, readFrame(in)));
+            assertEquals("OK value [value]", BinaryProtocol.describeResponse(BinaryProtocol.OP_GET, readFrame(in)));
+            assertEquals(BinaryProtocol.STATUS_NOT_FOUND, readFrame(in).get());
+        }
+    }
+
+    private static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return ByteBuffer.wrap(body);
+    }
+
+    // A pipelining client sends a burst of tagged commands before reading anything.
+    @Test
+    void answersPipelinedCommandsInOrderUnderTheirTags() throws Exception {
+        try (Socket socket = connect()) {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            for (int i = 0; i < 200; i++) {
+                batch.write(frame("#" + i + " PUT k" + i + " v" + i));
+            }
+            socket.getOutputStream().write(batch.toByteArray());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < 200; i++) {
+                String response = in.readUTF();
+                assertTrue(response.startsWith("#" + i + " "), response);
+                assertTrue(response.contains("Key [k" + i + "] with value [v" + i + "] added"), response);
+            }
+            new DataOutputStream(socket.getOutputStream()).writeUTF("#x GET k0");
+            assertTrue(in.readUTF().startsWith("#x ["));
+        }
+    }
+
+    @Test
+    void codecMatchesDataOutputStream() throws Exception {
+        String text = "ascii, été, 日本 and a \0";
+        int length = TCPEventLoopServer.utfLength(text);
+        ByteBuffer encoded = ByteBuffer.allocate(2 + length);
+        TCPEventLoopServer.encodeUTF(text, length, encoded);
+        assertArrayEquals(frame(text), encoded.array());
+        encoded.flip().position(2);
+        assertEquals(text, TCPEventLoopServer.decodeUTF(encoded, length, new char[length]));
+    }
+
+    @Test
+    void closesAConnectionIdlePastTheTimeout() throws Exception {
+        TCPServer server = start("--idle-timeout=1");
+        try (Socket socket = connect()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            socket.getOutputStream().write(frame("PUT key value"));
+            assertTrue(in.readUTF().contains("added successfully"));
+            long started = System.currentTimeMillis();
+            assertEquals(-1, in.read());
+            assertTrue(System.currentTimeMillis() - started >= 900, "closed before the timeout");
+        }
+        waitFor(() -> server.metrics.getIdleClosedConnections() == 1, "the idle close to be counted");
+    }
+
+    @Test
+    void capsAnIdleTimeoutTooLongForMilliseconds() {
+        TCPServer server = new TCPServer(ServerConfig.fromArgs(new String[] {"--idle-timeout=3000000"}));
+        assertEquals(Integer.MAX_VALUE, server.idleTimeoutMillis);
+        assertThrows(IllegalArgumentException.class,
+                () -> new TCPServer(ServerConfig.fromArgs(new String[] {"--idle-timeout=-1"})));
+    }
+
+    @Test
+    void rejectsAClientPastTheConnectionLimitAtOnce() throws Exception {
+        start(1, "--max-connections=1");
+        try (Socket first = connect(); Socket second = connect()) {
+            first.getOutputStream().write(frame("GET key"));
+            assertTrue(new DataInputStream(first.getInputStream()).readUTF().contains("not found"));
+            DataInputStream in = new DataInputStream(second.getInputStream());
+            assertTrue(in.readUTF().contains("at its limit of 1 connections"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    // A client that sends without reading stops being read once its responses pass the cap,
+    // and gets every response once it starts reading again.
+    @Test
+    void stopsReadingFromAClientThatDoesNotReadItsResponses() throws Exception {
+        TCPServer server = start("--max-output-buffer=8192");
+        int requests = 200_000;
+        try (Socket socket = connect(4096)) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.write(frame("PUT key value"));
+            out.flush();
+            assertTrue(in.readUTF().contains("added successfully"));
+
+            // Writes block once the server stops reading, so they run on their own thread.
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < requests; i++) {
+                        out.write(frame("GET key"));
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            writer.start();
+            waitFor(() -> server.metrics.getBackpressurePauses() > 0, "the server to pause reading");
+
+            for (int i = 0; i < requests; i++) {
+                assertTrue(in.readUTF().contains("with value [value]"), "response " + i);
+            }
+            writer.join(5000);
+            assertFalse(writer.isAlive());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+    private static final long TICK_MS = 5;
+
+    @Test
+    void firesEveryKeyOnceAndNeverEarly() throws Exception {
+        Map<String, Long> firedAt = new ConcurrentHashMap<>();
+        List<String> early = Collections.synchronizedList(new ArrayList<>());
+        TimingWheel wheel = new TimingWheel(TICK_MS, (key, expiresAt) -> {
+            long now = System.currentTimeMillis();
+            if (now < expiresAt) {
+                early.add(key);
+            }
+            assertNull(firedAt.put(key, now), "fired twice: " + key);
+            return true;
+        });
+        wheel.start();
+        long now = System.currentTimeMillis();
+        Random random = new Random(1);
+        int keys = 2000;
+        // Up to a second out with 5 ms ticks, so a good share starts on level 1 and cascades down.
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            long[] delays = new long[keys / 4];
+            for (int i = 0; i < delays.length; i++) {
+                delays[i] = random.nextInt(1000);
+            }
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < delays.length; i++) {
+                    wheel.schedule("k" + thread + "-" + i, now + delays[i]);
+                }
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get();
+        }
+        pool.shutdown();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (firedAt.size() < keys && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(keys, firedAt.size());
+        assertEquals(List.of(), early);
+    }
+
+    // Past the 64 ticks of level 0 an entry waits on a higher level and is handed down before it fires.
+    @Test
+    void cascadesDeadlinesBeyondTheFirstLevel() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        long[] firedAt = new long[1];
+        TimingWheel wheel = new TimingWheel(TICK_MS, (key, expiresAt) -> {
+            firedAt[0] = System.currentTimeMillis();
+            fired.countDown();
+            return true;
+        });
+        wheel.start();
+        long expiresAt = System.currentTimeMillis() + 150 * TICK_MS;
+        wheel.schedule("late", expiresAt);
+        assertTrue(fired.await(10, TimeUnit.SECONDS));
+        assertTrue(firedAt[0] >= expiresAt);
+    }
+
+    @Test
+    void asksAgainWhenTheExpirerDeclines() throws Exception {
+        CountDownLatch asked = new CountDownLatch(3);
+        TimingWheel wheel = new TimingWheel(TICK_MS, (key, expiresAt) -> {
+            asked.countDown();
+            return asked.getCount() == 0;
+        });
+        wheel.start();
+        wheel.schedule("stubborn", System.currentTimeMillis());
+        assertTrue(asked.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,53 @@
+import java.net.InetAddress;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UDPResponseCacheTest {
+    private static final InetAddress CLIENT = InetAddress.getLoopbackAddress();
+
+    @Test
+    void aRequestIsInProgressUntilItsReplyIsRecorded() {
+        UDPResponseCache cache = new UDPResponseCache(64);
+        assertNull(cache.begin(CLIENT, 5000, 1));
+        // A retransmission while the original still runs must not run it again.
+        assertSame(UDPResponseCache.IN_PROGRESS, cache.begin(CLIENT, 5000, 1));
+        byte[] reply = "reply".getBytes();
+        cache.complete(CLIENT, 5000, 1, reply);
+        assertSame(reply, cache.begin(CLIENT, 5000, 1));
+    }
+
+    @Test
+    void requestsAreKeyedByClientPortAndId() {
+        UDPResponseCache cache = new UDPResponseCache(64);
+        assertNull(cache.begin(CLIENT, 5000, 1));
+        assertNull(cache.begin(CLIENT, 5001, 1));
+        assertNull(cache.begin(CLIENT, 5000, 2));
+    }
+
+    @Test
+    void aFailedRequestIsForgotten() {
+        UDPResponseCache cache = new UDPResponseCache(64);
+        assertNull(cache.begin(CLIENT, 5000, 1));
+        cache.complete(CLIENT, 5000, 1, null);
+        assertNull(cache.begin(CLIENT, 5000, 1));
+    }
+
+    @Test
+    void dropsTheOldestRepliesPastItsCapacity() {
+        UDPResponseCache cache = new UDPResponseCache(64);
+        for (int id = 0; id < 10_000; id++) {
+            cache.begin(CLIENT, 5000, id);
+            cache.complete(CLIENT, 5000, id, new byte[] {1});
+        }
+        int kept = 0;
+        for (int id = 0; id < 10_000; id++) {
+            if (cache.begin(CLIENT, 5000, id) != null) {
+                kept++;
+            }
+        }
+        assertTrue(kept <= 64, kept + " replies kept");
+        assertNotNull(cache.begin(CLIENT, 5000, 9_999));
+    }
+}
@@ -0,0 +1,84 @@
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Retransmitted requests are answered from the reply cache instead of running twice.
+class UDPServerTest {
+    private static final InetAddress CLIENT = InetAddress.getLoopbackAddress();
+    private UDPServer server;
+    private BinaryProtocol protocol;
+
+    @BeforeEach
+    void createServer() {
+        server = new UDPServer(ServerConfig.fromArgs(new String[] {"--timestamps=false"}));
+        protocol = server.newBinaryProtocol();
+    }
+
+    private String text(int port, String request) {
+        byte[] data = request.getBytes();
+        byte[] reply = server.handleDatagram(CLIENT, port, data, data.length, protocol);
+        return reply == null ? null : new String(reply);
+    }
+
+    @Test
+    void aRetransmittedPutOrDeleteRunsOnce() {
+        String put = text(5000, "#1 PUT key value");
+        assertTrue(put.startsWith("#1 ") && put.contains("added successfully"), put);
+        // Run again, the PUT would fail with "Key already exists".
+        assertEquals(put, text(5000, "#1 PUT key value"));
+
+        String delete = text(5000, "#2 DELETE key");
+        assertTrue(delete.contains("removed successfully"), delete);
+        assertEquals(delete, text(5000, "#2 DELETE key"));
+        assertTrue(text(5000, "#3 GET key").contains("does not exist"));
+    }
+
+    @Test
+    void onlyTheSameClientAndIdCountAsARetransmission() {
+        text(5000, "#1 PUT key value");
+        assertTrue(text(5001, "#1 PUT key value").contains("already exists"));
+        assertTrue(text(5000, "#2 PUT key value").contains("already exists"));
+        // Untagged requests are never deduplicated.
+        assertTrue(text(5000, "DELETE key").contains("removed successfully"));
+        assertTrue(text(5000, "DELETE key").contains("does not exist"));
+    }
+
+    @Test
+    void aRetransmittedBinaryRequestRunsOnce() {
+        byte[] body = BinaryProtocol.encodeRequest(7, BinaryProtocol.OP_PUT, "key", "value");
+        byte[] datagram = ByteBuffer.allocate(2 + body.length)
+                .put(BinaryProtocol.MAGIC).put(BinaryProtocol.VERSION).put(body).array();
+        byte[] first = server.handleDatagram(CLIENT, 5000, datagram, datagram.length, protocol);
+        byte[] second = server.handleDatagram(CLIENT, 5000, datagram, datagram.length, protocol);
+        assertArrayEquals(first, second);
+        ByteBuffer reply = ByteBuffer.wrap(first, 2, first.length - 2);
+        assertEquals("#7 OK", BinaryProtocol.describeResponse(BinaryProtocol.OP_PUT, reply));
+    }
+
+    @Test
+    void aVersionMismatchEchoesTheRequestTag() {
+        byte[] body = BinaryProtocol.encodeRequest(9, BinaryProtocol.OP_GET, "key");
+        byte[] datagram = ByteBuffer.allocate(2 + body.length)
+                .put(BinaryProtocol.MAGIC).put((byte) (BinaryProtocol.VERSION + 1)).put(body).array();
+        byte[] reply = server.handleDatagram(CLIENT, 5000, datagram, datagram.length, protocol);
+        assertArrayEquals(new byte[] {BinaryProtocol.MAGIC, BinaryProtocol.VERSION, BinaryProtocol.TAGGED,
+                0, 0, 0, 9, BinaryProtocol.STATUS_INVALID}, reply);
+
+        byte[] untagged = {BinaryProtocol.MAGIC, (byte) (BinaryProtocol.VERSION + 1), BinaryProtocol.OP_KEYS};
+        assertArrayEquals(new byte[] {BinaryProtocol.MAGIC, BinaryProtocol.VERSION, BinaryProtocol.STATUS_INVALID},
+                server.handleDatagram(CLIENT, 5000, untagged, untagged.length, protocol));
+    }
+
+    @Test
+    void ttlAnswersInWholeSeconds() {
+        assertTrue(text(5000, "PUT session alice 30").contains("added successfully"));
+        assertEquals("Key [session] expires in 30 s", text(5000, "TTL session"));
+        text(5000, "PUT forever bob");
+        assertEquals("Key [forever] has no TTL", text(5000, "TTL forever"));
+        assertTrue(text(5000, "TTL missing").contains("does not exist"));
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Recovery: a store reopened on the same --data-dir must hold what the last one acknowledged.
+// Each test opens a second store on the directory while the first is still live, which is what
+// a crash followed by a restart looks like to the files.
+class WriteAheadLogTest {
+    private static final long NO_SNAPSHOTS = 1L << 30;
+
+    @TempDir
+    Path dir;
+
+    private KeyValueStore open(String type, WriteAheadLog.Durability durability, long snapshotAfter) throws IOException {
+        WriteAheadLog log = new WriteAheadLog(dir, durability, snapshotAfter);
+        return type.equals("packed") ? new PackedKeyValueStore(log, true, 0, null) : new StripedKeyValueStore(log, true, null);
+    }
+
+    private KeyValueStore open(String type) throws IOException {
+        return open(type, WriteAheadLog.Durability.FSYNC, NO_SNAPSHOTS);
+    }
+
+    private static Map<String, String> contents(KeyValueStore store) {
+        Map<String, String> contents = new TreeMap<>();
+        for (String key : store.keys()) {
+            contents.put(key, store.get(key));
+        }
+        return contents;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"striped", "packed"})
+    void replaysPutsDeletesRenamesAndEdits(String type) throws IOException {
+        KeyValueStore store = open(type);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(KeyValueStore.Status.OK, store.putIfAbsent("k" + i, "v" + i));
+        }
+        for (int i = 0; i < 200; i += 3) {
+            store.remove("k" + i);
+        }
+        assertEquals(KeyValueStore.Status.OK, store.rename("k1", "renamed"));
+        assertEquals(KeyValueStore.Status.OK, store.replace("k2", "edited"));
+
+        KeyValueStore recovered = open(type);
+        assertEquals(contents(store), contents(recovered));
+        assertNull(recovered.get("k1"));
+        assertEquals("v1", recovered.get("renamed"));
+        assertEquals("edited", recovered.get("k2"));
+        // Replay rebuilds the sorted index along with the entries.
+        assertEquals(contents(store).keySet(), recovered.sortedKeys());
+    }
+
+    @Test
+    void dropsATornTailAndKeepsAppendingAfterIt() throws IOException {
+        KeyValueStore store = open("striped");
+        for (int i = 0; i < 50; i++) {
+            store.putIfAbsent("k" + i, "v" + i);
+        }
+        Map<String, String> expected = contents(store);
+        // Half a record header and a few bytes of garbage, as a crash mid-append leaves them.
+        Path segment = newest("wal-");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 40, 1, 2, 3}));
+        }
+
+        KeyValueStore recovered = open("striped");
+        assertEquals(expected, contents(recovered));
+        recovered.putIfAbsent("after", "crash");
+        expected.put("after", "crash");
+        assertEquals(expected, contents(open("striped")));
+    }
+
+    // Only the newest segment can have a torn tail; damage further back loses acknowledged writes,
+    // so recovery stops and names the file instead of truncating it.
+    @Test
+    void refusesToDropRecordsAfterDamageInAnOlderSegment() throws IOException {
+        KeyValueStore store = open("striped");
+        for (int i = 0; i < 50; i++) {
+            store.putIfAbsent("k" + i, "v" + i);
+        }
+        Path older = newest("wal-");
+        Files.copy(older, dir.resolve("wal-9999999999.log"));
+        long size = Files.size(older);
+        try (FileChannel channel = FileChannel.open(older, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), size / 2);
+        }
+
+        UncheckedIOException e = assertThrows(UncheckedIOException.class, () -> open("striped"));
+        assertTrue(e.getMessage().contains(older.getFileName().toString()), e.getMessage());
+        assertEquals(size, Files.size(older));
+    }
+
+    // Group commit: every write acknowledged to one of many concurrent writers survives.
+    @Test
+    void recoversEveryAcknowledgedGroupCommit() throws Exception {
+        KeyValueStore store = open("striped", WriteAheadLog.Durability.GROUP, NO_SNAPSHOTS);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    assertEquals(KeyValueStore.Status.OK, store.putIfAbsent("t" + thread + "-" + i, "v"));
+                    if (i % 5 == 0) {
+                        store.remove("t" + thread + "-" + i);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        assertEquals(8 * 400, store.size());
+        assertEquals(contents(store), contents(open("striped")));
+    }
+
+    @Test
+    void recoversFromASnapshotPlusNewerSegments() throws Exception {
+        KeyValueStore store = open("striped", WriteAheadLog.Durability.FSYNC, 4096);
+        for (int i = 0; i < 2000; i++) {
+            store.putIfAbsent("k" + i, "v" + i);
+        }
+        waitForSnapshot();
+        for (int i = 0; i < 2000; i += 2) {
+            store.remove("k" + i);
+        }
+        store.putIfAbsent("last", "one");
+        waitForSnapshot();
+
+        assertEquals(contents(store), contents(open("striped", WriteAheadLog.Durability.FSYNC, 4096)));
+    }
+
+    private Path newest(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix))
+                    .max(Comparator.naturalOrder())
+                    .orElseThrow();
+        }
+    }
+
+    // Snapshots are written in the background; settled once one exists, no temporary file is left
+    // and the directory has stopped changing, so no segment is deleted under the recovery.
+    private void waitForSnapshot() throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<String> previous = null;
+        while (System.currentTimeMillis() < deadline) {
+            List<String> names;
+            try (Stream<Path> files = Files.list(dir)) {
+                names = files.map(file -> file.getFileName().toString()).sorted().toList();
+            }
+            if (names.equals(previous) && names.stream().anyMatch(name -> name.endsWith(".snap"))
+                    && names.stream().noneMatch(name -> name.endsWith(".tmp"))) {
+                return;
+            }
+            previous = names;
+            Thread.sleep(100);
+        }
+        fail("no snapshot was written");
+    }
+
+    @Test
+    void keepsTtls() throws IOException {
+        KeyValueStore store = open("striped");
+        long expiresAt = System.currentTimeMillis() + 60_000;
+        store.putIfAbsent("session", "alice", expiresAt);
+        store.putIfAbsent("forever", "bob");
+
+        KeyValueStore recovered = open("striped");
+        assertEquals(expiresAt, recovered.expiresAt("session"));
+        assertEquals(KeyValueStore.NO_EXPIRY, recovered.expiresAt("forever"));
+    }
+}